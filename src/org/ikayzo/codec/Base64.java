@@ -16,6 +16,10 @@
  */
 package org.ikayzo.codec;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
 /**
  * Base64 Utilities
  * 
@@ -92,6 +96,47 @@ public class Base64 {
 		return new String(chars);
 	}
 
+	/**
+	 * Encode the bytes between the buffer's position and limit, appending
+	 * the same base64 chars as {@link #encode(byte[])} to out.  The bytes are
+	 * encoded in small pieces, so a large (for example direct or mapped)
+	 * buffer is never copied into an array.  The buffer's position is not
+	 * changed.
+	 * 
+	 * @param bytes The bytes to be encoded
+	 * @param out The destination for the base64 chars
+	 * @throws IOException If out throws an IOException
+	 */
+	public static void encode(ByteBuffer bytes, Appendable out)
+		throws IOException {
+		
+		char[] chars = new char[4096];
+		CharBuffer charBuffer = CharBuffer.wrap(chars);
+		int op = 0;
+		
+		int ip = bytes.position(), limit = bytes.limit();
+		while (ip < limit) {
+			int remaining = limit - ip;
+			int i0 = bytes.get(ip++) & 0xff;
+			int i1 = remaining > 1 ? bytes.get(ip++) & 0xff : 0;
+			int i2 = remaining > 2 ? bytes.get(ip++) & 0xff : 0;
+			
+			chars[op++] = toBase64[i0 >>> 2];
+			chars[op++] = toBase64[((i0 & 3) << 4) | (i1 >>> 4)];
+			chars[op++] = remaining > 1 ?
+					toBase64[((i1 & 0xf) << 2) | (i2 >>> 6)] : '=';
+			chars[op++] = remaining > 2 ? toBase64[i2 & 0x3F] : '=';
+			
+			if (op == chars.length) {
+				out.append(charBuffer, 0, op);
+				op = 0;
+			}
+		}
+		
+		if (op > 0)
+			out.append(charBuffer, 0, op);
+	}
+
 	/**
 	 * Decodes a base64 String
 	 * 
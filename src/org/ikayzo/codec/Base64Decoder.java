@@ -0,0 +1,267 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Decodes base64 text passed in pieces, such as the lines of a binary
+ * literal, without first collecting the text into a String.  Spaces, tabs,
+ * and line breaks are skipped.  The bytes are written to a growable array
+ * or to a ByteBuffer given by the caller.</p>
+ *
+ * <p>Other than skipping whitespace the rules are the same as
+ * {@link Base64#decode(String)}: the number of characters must be a multiple
+ * of 4 and padding (=) may only appear at the end.  Errors are reported by
+ * {@link #finish()}.</p>
+ *
+ * <pre>
+ *     Base64Decoder decoder = new Base64Decoder();
+ *     decoder.decode(line1, 0, line1.length);
+ *     decoder.decode(line2, 0, line2.length);
+ *     byte[] bytes = decoder.finish();
+ * </pre>
+ */
+public class Base64Decoder {
+
+	private static final byte ILLEGAL=-1, WHITESPACE=-2, PAD=-3;
+
+	/**
+	 * char -> 6 bit grouping or one of the negative constants above
+	 */
+	private static final byte[] VALUES = makeValues();
+	private static byte[] makeValues() {
+		byte[] values = new byte[128];
+		for(int i=0; i<values.length; i++)
+			values[i] = ILLEGAL;
+
+		String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz" +
+			"0123456789+/";
+		for(int i=0; i<64; i++)
+			values[chars.charAt(i)] = (byte)i;
+
+		values[' '] = values['\t'] = values['\n'] = values['\r'] = WHITESPACE;
+		values['='] = PAD;
+		return values;
+	}
+
+	private static final byte[] EMPTY = new byte[0];
+
+	// the output when not writing to a ByteBuffer
+	private byte[] bytes;
+	private int expectedSize;
+
+	private ByteBuffer out;
+
+	// the number of bytes written since the last reset
+	private int size;
+
+	// the 6 bit groups of an incomplete quad and the number of them
+	private int quad, groups;
+
+	// the number of non-whitespace characters and padding characters seen
+	private int count, pads;
+	private boolean illegal;
+
+	/**
+	 * Create a decoder which collects the bytes in an array.
+	 */
+	public Base64Decoder() {
+		this(64);
+	}
+
+	/**
+	 * Create a decoder which collects the bytes in an array.
+	 *
+	 * @param expectedSize The expected number of bytes.  The array grows as
+	 *        needed.  If exactly this many bytes are decoded the array is
+	 *        returned by {@link #finish()} without being copied.
+	 */
+	public Base64Decoder(int expectedSize) {
+		this.expectedSize = Math.max(expectedSize, 0);
+		bytes = EMPTY;
+	}
+
+	/**
+	 * Create a decoder which writes the bytes to the given buffer.
+	 *
+	 * @param out The buffer receiving the bytes
+	 */
+	public Base64Decoder(ByteBuffer out) {
+		if(out==null)
+			throw new IllegalArgumentException("Output buffer cannot be null");
+		this.out = out;
+	}
+
+	/**
+	 * Write the bytes decoded from now on to the given buffer.  Bytes already
+	 * collected in an array are written to the buffer first.  This allows a
+	 * caller to move to a larger buffer, or from an array to a buffer, partway
+	 * through the text.
+	 *
+	 * @param out The buffer receiving the bytes
+	 * @throws java.nio.BufferOverflowException If the buffer cannot hold the
+	 *         bytes already collected
+	 */
+	public void setOutput(ByteBuffer out) {
+		if(out==null)
+			throw new IllegalArgumentException("Output buffer cannot be null");
+		
+		if(this.out==null) {
+			out.put(bytes, 0, size);
+			bytes = null;
+		}
+		this.out = out;
+	}
+
+	/**
+	 * Decode the characters chars[start] to chars[end-1].
+	 *
+	 * @return This decoder
+	 * @throws ArrayIndexOutOfBoundsException If the range is not within the
+	 *         array
+	 * @throws java.nio.BufferOverflowException If the output buffer is full
+	 */
+	public Base64Decoder decode(char[] chars, int start, int end) {
+		if(start<0 || start>end || end>chars.length)
+			throw new ArrayIndexOutOfBoundsException("Range " + start + "-" +
+					end + " is not within an array of length " +
+					chars.length);
+		
+		for(int i=start; i<end; i++) {
+			char c = chars[i];
+			add(c<128 ? VALUES[c] : ILLEGAL);
+		}
+		return this;
+	}
+
+	/**
+	 * Decode the characters chars.charAt(start) to chars.charAt(end-1).
+	 *
+	 * @return This decoder
+	 * @throws StringIndexOutOfBoundsException If the range is not within the
+	 *         sequence
+	 * @throws java.nio.BufferOverflowException If the output buffer is full
+	 */
+	public Base64Decoder decode(CharSequence chars, int start, int end) {
+		if(start<0 || start>end || end>chars.length())
+			throw new StringIndexOutOfBoundsException("Range " + start + "-" +
+					end + " is not within a sequence of length " +
+					chars.length());
+		
+		for(int i=start; i<end; i++) {
+			char c = chars.charAt(i);
+			add(c<128 ? VALUES[c] : ILLEGAL);
+		}
+		return this;
+	}
+
+	private void add(int value) {
+		if(value>=0) {
+			count++;
+			if(pads!=0)
+				illegal=true;
+
+			quad = (quad<<6) | value;
+			if(++groups==4) {
+				write(quad>>>16);
+				write(quad>>>8);
+				write(quad);
+				quad=0;
+				groups=0;
+			}
+		} else if(value==PAD) {
+			count++;
+			pads++;
+		} else if(value==ILLEGAL) {
+			count++;
+			illegal=true;
+		}
+	}
+
+	private void write(int b) {
+		if(out!=null) {
+			out.put((byte)b);
+		} else {
+			if(size==bytes.length) {
+				byte[] newBytes = new byte[Math.max(size*2,
+						Math.max(expectedSize, 64))];
+				System.arraycopy(bytes, 0, newBytes, 0, size);
+				bytes = newBytes;
+			}
+			bytes[size] = (byte)b;
+		}
+		size++;
+	}
+
+	/**
+	 * @return The number of bytes decoded since the decoder was created or
+	 *         last finished
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Write the bytes for any final partial quad and reset the decoder so it
+	 * can be used for new text.  The decoder is reset even if an exception is
+	 * thrown.
+	 *
+	 * @return The decoded bytes or null if the decoder writes to a ByteBuffer
+	 * @throws IllegalArgumentException If the number of characters is not a
+	 *         multiple of 4
+	 * @throws Base64.EncodingException If the text contains illegal
+	 *         characters or misplaced padding
+	 * @throws java.nio.BufferOverflowException If the output buffer is full
+	 */
+	public byte[] finish() {
+		try {
+			if(count % 4 != 0)
+				throw new IllegalArgumentException("Input string length is " +
+						"not a multiple of 4.");
+			if(illegal || groups==1)
+				throw new Base64.EncodingException("Illegal character in " +
+						"base64 string.");
+
+			if(groups==2) {
+				write(quad>>>4);
+			} else if(groups==3) {
+				write(quad>>>10);
+				write(quad>>>2);
+			}
+
+			if(out!=null)
+				return null;
+
+			byte[] result = bytes;
+			if(size!=result.length) {
+				result = new byte[size];
+				System.arraycopy(bytes, 0, result, 0, size);
+			}
+			return result;
+		} finally {
+			if(out==null)
+				bytes = EMPTY;
+			size=0;
+			quad=0;
+			groups=0;
+			count=0;
+			pads=0;
+			illegal=false;
+		}
+	}
+}
@@ -0,0 +1,543 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * <p>The attributes of a tag held in parallel arrays of keys, namespaces,
+ * and values sorted by key.  Lookups are binary searches, and iteration
+ * walks the arrays in order.  A tag with a few attributes holds three small
+ * arrays instead of a TreeMap entry and a HashMap entry per attribute.</p>
+ *
+ * <p>{@link #view(Tag, String)} and {@link #namespaceMap(Tag)} return
+ * unmodifiable maps which read the tag's attributes each time they are
+ * used, so they reflect later changes (as Collections.unmodifiableSortedMap
+ * did for the TreeMap these arrays replace) without the tag allocating
+ * anything until an attribute is set.  A view limited to a namespace
+ * remembers the indexes of its attributes until the attributes change.</p>
+ */
+class AttributeMap {
+
+	private static final String[] NO_STRINGS = new String[0];
+	private static final Object[] NO_OBJECTS = new Object[0];
+
+	// read by views of a tag with no attributes (never modified)
+	private static final AttributeMap EMPTY = new AttributeMap();
+
+	private String[] keys;
+	private String[] namespaces;
+	private Object[] values;
+	private int size;
+
+	// incremented when attributes are added or removed, or an attribute's
+	// namespace changes
+	private int modCount;
+
+	/**
+	 * Create an empty map.  The arrays are allocated when the first attribute
+	 * is added.
+	 */
+	AttributeMap() {
+		keys = NO_STRINGS;
+		namespaces = NO_STRINGS;
+		values = NO_OBJECTS;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return The index of the key, or (-(insertion point) - 1) if the key is
+	 *         not present
+	 */
+	int indexOf(String key) {
+		int low = 0;
+		int high = size-1;
+
+		while(low<=high) {
+			int mid = (low+high)>>>1;
+			int comparison = keys[mid].compareTo(key);
+
+			if(comparison<0)
+				low = mid+1;
+			else if(comparison>0)
+				high = mid-1;
+			else
+				return mid;
+		}
+		return -(low+1);
+	}
+
+	String keyAt(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * @return The namespace, which is an empty String for attributes not in
+	 *         a namespace
+	 */
+	String namespaceAt(int index) {
+		return namespaces[index];
+	}
+
+	Object valueAt(int index) {
+		return values[index];
+	}
+
+	void setValueAt(int index, Object value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Set the namespace and value for a key, adding the key if it is not
+	 * present.
+	 */
+	void put(String namespace, String key, Object value) {
+		int index = indexOf(key);
+		if(index>=0) {
+			if(!namespaces[index].equals(namespace)) {
+				namespaces[index] = namespace;
+				modCount++;
+			}
+			values[index] = value;
+			return;
+		}
+
+		index = -(index+1);
+		if(size==keys.length) {
+			int capacity = Math.max(2, size*2);
+			keys = grow(keys, new String[capacity]);
+			namespaces = grow(namespaces, new String[capacity]);
+			values = grow(values, new Object[capacity]);
+		}
+
+		int moved = size-index;
+		if(moved>0) {
+			System.arraycopy(keys, index, keys, index+1, moved);
+			System.arraycopy(namespaces, index, namespaces, index+1, moved);
+			System.arraycopy(values, index, values, index+1, moved);
+		}
+
+		keys[index] = key;
+		namespaces[index] = namespace;
+		values[index] = value;
+		size++;
+		modCount++;
+	}
+
+	private <T> T[] grow(T[] array, T[] newArray) {
+		System.arraycopy(array, 0, newArray, 0, size);
+		return newArray;
+	}
+
+	/**
+	 * @return true if the key was present
+	 */
+	boolean remove(String key) {
+		int index = indexOf(key);
+		if(index<0)
+			return false;
+
+		int moved = size-index-1;
+		if(moved>0) {
+			System.arraycopy(keys, index+1, keys, index, moved);
+			System.arraycopy(namespaces, index+1, namespaces, index, moved);
+			System.arraycopy(values, index+1, values, index, moved);
+		}
+
+		size--;
+		keys[size] = null;
+		namespaces[size] = null;
+		values[size] = null;
+		modCount++;
+		return true;
+	}
+
+	void clear() {
+		for(int i=0; i<size; i++) {
+			keys[i] = null;
+			namespaces[i] = null;
+			values[i] = null;
+		}
+		size=0;
+		modCount++;
+	}
+
+	/**
+	 * @param tag The tag whose attributes are viewed
+	 * @param namespace The namespace of the attributes in the view ("" for
+	 *        attributes not in a namespace) or null for all the attributes
+	 * @return An unmodifiable view of the tag's attributes
+	 */
+	static SortedMap<String,Object> view(Tag tag, String namespace) {
+		return new View(tag, null, null, namespace);
+	}
+
+	/**
+	 * @return An unmodifiable view of the tag's attribute keys mapped to
+	 *         their namespaces ("" for attributes not in a namespace)
+	 */
+	static Map<String,String> namespaceMap(Tag tag) {
+		return new NamespaceMap(tag);
+	}
+
+	/**
+	 * @return The attributes of the tag, which are empty if the tag has no
+	 *         AttributeMap
+	 */
+	private static AttributeMap of(Tag tag) {
+		AttributeMap map = tag.attributeMap();
+		return map==null ? EMPTY : map;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Views
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * An unmodifiable view of the attributes with keys from fromKey
+	 * (inclusive) to toKey (exclusive), optionally limited to one namespace.
+	 * Null bounds and a null namespace are unlimited.
+	 */
+	private static class View extends AbstractMap<String,Object>
+		implements SortedMap<String,Object> {
+
+		private final Tag tag;
+		private final String fromKey, toKey, namespace;
+
+		// the attributes in the view the last time the tag's attributes
+		// were read.  A new Range is published for each change so a view
+		// read by several threads never sees one partly updated.
+		private volatile Range range;
+
+		View(Tag tag, String fromKey, String toKey, String namespace) {
+			this.tag = tag;
+			this.fromKey = fromKey;
+			this.toKey = toKey;
+			this.namespace = namespace;
+		}
+
+		/**
+		 * Find the range and indexes of the view in the tag's current
+		 * attributes if they have changed.
+		 * 
+		 * @return The attributes in the view
+		 */
+		private Range update() {
+			AttributeMap map = of(tag);
+			Range range = this.range;
+			if(range!=null && range.map==map &&
+					range.modCount==map.modCount)
+				return range;
+
+			int start = fromKey==null ? 0 : insertionPoint(map, fromKey);
+			int end = toKey==null ? map.size : insertionPoint(map, toKey);
+			if(end<start)
+				end = start;
+
+			int[] indexes = null;
+			int count = end-start;
+			if(namespace!=null) {
+				indexes = new int[count];
+				count = 0;
+				for(int i=start; i<end; i++) {
+					if(map.namespaces[i].equals(namespace))
+						indexes[count++] = i;
+				}
+			}
+
+			range = new Range(map, start, count, indexes);
+			this.range = range;
+			return range;
+		}
+
+		private static int insertionPoint(AttributeMap map, String key) {
+			int index = map.indexOf(key);
+			return index<0 ? -(index+1) : index;
+		}
+
+		private boolean inRange(String key, boolean toInclusive) {
+			if(fromKey!=null && key.compareTo(fromKey)<0)
+				return false;
+			if(toKey!=null) {
+				int comparison = key.compareTo(toKey);
+				return toInclusive ? comparison<=0 : comparison<0;
+			}
+			return true;
+		}
+
+		/**
+		 * @return The index in the map's arrays of the key or -1 if the key
+		 *         is not in this view
+		 */
+		private int find(AttributeMap map, Object key) {
+			String k = (String)key;
+			if(k==null)
+				throw new NullPointerException();
+
+			if(!inRange(k, false))
+				return -1;
+
+			int index = map.indexOf(k);
+			if(index<0 || (namespace!=null &&
+					!map.namespaces[index].equals(namespace)))
+				return -1;
+			return index;
+		}
+
+		public int size() {
+			return update().count;
+		}
+
+		public boolean containsKey(Object key) {
+			return find(of(tag), key)>=0;
+		}
+
+		public Object get(Object key) {
+			AttributeMap map = of(tag);
+			int index = find(map, key);
+			return index<0 ? null : map.values[index];
+		}
+
+		public Comparator<? super String> comparator() {
+			return null;
+		}
+
+		public String firstKey() {
+			Range range = update();
+			if(range.count==0)
+				throw new NoSuchElementException();
+			return range.map.keys[range.indexAt(0)];
+		}
+
+		public String lastKey() {
+			Range range = update();
+			if(range.count==0)
+				throw new NoSuchElementException();
+			return range.map.keys[range.indexAt(range.count-1)];
+		}
+
+		public SortedMap<String,Object> subMap(String fromKey, String toKey) {
+			if(fromKey.compareTo(toKey)>0)
+				throw new IllegalArgumentException("fromKey > toKey");
+			checkRange(fromKey);
+			checkRange(toKey);
+			return new View(tag, fromKey, toKey, namespace);
+		}
+
+		public SortedMap<String,Object> headMap(String toKey) {
+			checkRange(toKey);
+			return new View(tag, fromKey, toKey, namespace);
+		}
+
+		public SortedMap<String,Object> tailMap(String fromKey) {
+			checkRange(fromKey);
+			return new View(tag, fromKey, toKey, namespace);
+		}
+
+		private void checkRange(String key) {
+			if(!inRange(key, true))
+				throw new IllegalArgumentException("key out of range");
+		}
+
+		public Set<Map.Entry<String,Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String,Object>>() {
+				public Iterator<Map.Entry<String,Object>> iterator() {
+					return new EntryIterator();
+				}
+
+				public int size() {
+					return View.this.size();
+				}
+			};
+		}
+
+		private class EntryIterator
+			implements Iterator<Map.Entry<String,Object>> {
+			
+			private int next;
+			private final Range range = update();
+
+			public boolean hasNext() {
+				return next<range.count;
+			}
+
+			public Map.Entry<String,Object> next() {
+				AttributeMap map = range.map;
+				if(of(tag)!=map || map.modCount!=range.modCount)
+					throw new ConcurrentModificationException();
+				if(next>=range.count)
+					throw new NoSuchElementException();
+
+				int index = range.indexAt(next++);
+				return new AttributeEntry<Object>(map.keys[index],
+						map.values[index]);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		}
+	}
+
+	/**
+	 * The attributes in a View: count attributes from start, or at the given
+	 * indexes when the view is limited to a namespace.  Immutable, so it can
+	 * be shared between threads.
+	 */
+	private static class Range {
+		
+		// the map and modCount the range was found for
+		final AttributeMap map;
+		final int modCount;
+		
+		final int start, count;
+		final int[] indexes;
+		
+		Range(AttributeMap map, int start, int count, int[] indexes) {
+			this.map = map;
+			this.modCount = map.modCount;
+			this.start = start;
+			this.count = count;
+			this.indexes = indexes;
+		}
+		
+		/**
+		 * @return The index in the arrays of the nth attribute in the view
+		 */
+		int indexAt(int n) {
+			return indexes==null ? start+n : indexes[n];
+		}
+	}
+
+	/**
+	 * An unmodifiable view of a tag's attribute keys mapped to their
+	 * namespaces
+	 */
+	private static class NamespaceMap extends AbstractMap<String,String> {
+
+		private final Tag tag;
+
+		NamespaceMap(Tag tag) {
+			this.tag = tag;
+		}
+
+		public int size() {
+			return of(tag).size;
+		}
+
+		public boolean containsKey(Object key) {
+			return key instanceof String && of(tag).indexOf((String)key)>=0;
+		}
+
+		public String get(Object key) {
+			if(!(key instanceof String))
+				return null;
+
+			AttributeMap map = of(tag);
+			int index = map.indexOf((String)key);
+			return index<0 ? null : map.namespaces[index];
+		}
+
+		public Set<Map.Entry<String,String>> entrySet() {
+			return new AbstractSet<Map.Entry<String,String>>() {
+				public Iterator<Map.Entry<String,String>> iterator() {
+					return new Iterator<Map.Entry<String,String>>() {
+						private int next;
+						private final AttributeMap map = of(tag);
+						private final int expectedModCount = map.modCount;
+
+						public boolean hasNext() {
+							return next<map.size;
+						}
+
+						public Map.Entry<String,String> next() {
+							if(of(tag)!=map || map.modCount!=expectedModCount)
+								throw new ConcurrentModificationException();
+							if(next>=map.size)
+								throw new NoSuchElementException();
+
+							int index = next++;
+							return new AttributeEntry<String>(map.keys[index],
+									map.namespaces[index]);
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				public int size() {
+					return NamespaceMap.this.size();
+				}
+			};
+		}
+	}
+
+	/**
+	 * An unmodifiable key / value pair
+	 */
+	private static class AttributeEntry<V> implements Map.Entry<String,V> {
+		private final String key;
+		private final V value;
+
+		AttributeEntry(String key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean equals(Object o) {
+			if(!(o instanceof Map.Entry))
+				return false;
+
+			Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+			return key.equals(e.getKey()) && (value==null ? e.getValue()==null :
+				value.equals(e.getValue()));
+		}
+
+		public int hashCode() {
+			return key.hashCode() ^ (value==null ? 0 : value.hashCode());
+		}
+
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+}
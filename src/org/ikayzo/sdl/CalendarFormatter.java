@@ -0,0 +1,169 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * <p>Formats Calendars for {@link SDL#format(Object)} using
+ * {@link SDL#DATE_FORMAT} and {@link SDL#DATE_TIME_FORMAT}.  The output is
+ * the same as a new SimpleDateFormat created for each value, but the
+ * formatter is created once per thread and the digits are written
+ * directly.</p>
+ *
+ * <p>SimpleDateFormat is not thread safe, so each thread gets its own
+ * formatter from {@link #get()}.  A formatter is replaced when the default
+ * locale changes.  Only dates are written in the default time zone, so it
+ * is looked up (which clones it) when a date is formatted rather than for
+ * every value.  If the default locale does not use the
+ * Gregorian calendar or ASCII digits (for example th_TH or ja_JP_JP) the
+ * values are written with the formatter's SimpleDateFormats instead.</p>
+ */
+class CalendarFormatter {
+
+	private static final ThreadLocal<CalendarFormatter> formatters =
+		new ThreadLocal<CalendarFormatter>();
+
+	private final Locale locale;
+
+	// true if the default locale formats dates with the Gregorian calendar
+	// and ASCII digits
+	private final boolean writeDigits;
+
+	// used to find the fields of values written as digits
+	private final GregorianCalendar calendar;
+
+	// writes the zone name (which depends on the locale) for values written
+	// as digits
+	private final SimpleDateFormat zoneFormat;
+
+	// used for all values when writeDigits is false
+	private SimpleDateFormat dateFormat, dateTimeFormat;
+
+	private CalendarFormatter(Locale locale) {
+		this.locale = locale;
+
+		SimpleDateFormat format = new SimpleDateFormat(SDL.DATE_TIME_FORMAT);
+		NumberFormat numberFormat = format.getNumberFormat();
+		writeDigits = format.getCalendar().getClass()==GregorianCalendar.class
+			&& numberFormat instanceof DecimalFormat && ((DecimalFormat)
+			numberFormat).getDecimalFormatSymbols().getZeroDigit()=='0';
+
+		if(writeDigits) {
+			calendar = new GregorianCalendar();
+			zoneFormat = new SimpleDateFormat("z");
+		} else {
+			calendar = null;
+			zoneFormat = null;
+			dateFormat = new SimpleDateFormat(SDL.DATE_FORMAT);
+			dateTimeFormat = format;
+		}
+	}
+
+	/**
+	 * @return The formatter for the current thread
+	 */
+	static CalendarFormatter get() {
+		Locale locale = Locale.getDefault();
+
+		CalendarFormatter formatter = formatters.get();
+		if(formatter==null || !formatter.locale.equals(locale)) {
+			formatter = new CalendarFormatter(locale);
+			formatters.set(formatter);
+		}
+		return formatter;
+	}
+
+	/**
+	 * Format the date of a Calendar (yyyy/MM/dd) in the default time zone
+	 */
+	String formatDate(Calendar c) {
+		TimeZone defaultZone = TimeZone.getDefault();
+		if(!writeDigits) {
+			dateFormat.setTimeZone(defaultZone);
+			return dateFormat.format(c.getTime());
+		}
+
+		calendar.setTimeZone(defaultZone);
+		calendar.setTimeInMillis(c.getTimeInMillis());
+
+		StringBuilder sb = new StringBuilder(10);
+		appendDate(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Format the date and time of a Calendar (yyyy/MM/dd HH:mm:ss.SSS-z) in
+	 * the Calendar's time zone
+	 */
+	String formatDateTime(Calendar c) {
+		TimeZone zone = c.getTimeZone();
+		Date date = c.getTime();
+
+		if(!writeDigits) {
+			dateTimeFormat.setTimeZone(zone);
+			return dateTimeFormat.format(date);
+		}
+
+		calendar.setTimeZone(zone);
+		calendar.setTime(date);
+
+		StringBuilder sb = new StringBuilder(28);
+		appendDate(sb);
+		sb.append(' ');
+		appendDigits(sb, calendar.get(Calendar.HOUR_OF_DAY), 2);
+		sb.append(':');
+		appendDigits(sb, calendar.get(Calendar.MINUTE), 2);
+		sb.append(':');
+		appendDigits(sb, calendar.get(Calendar.SECOND), 2);
+		sb.append('.');
+		appendDigits(sb, calendar.get(Calendar.MILLISECOND), 3);
+		sb.append('-');
+
+		zoneFormat.setTimeZone(zone);
+		return sb.append(zoneFormat.format(date)).toString();
+	}
+
+	private void appendDate(StringBuilder sb) {
+		// YEAR is the year of the era, as for SimpleDateFormat
+		appendDigits(sb, calendar.get(Calendar.YEAR), 4);
+		sb.append('/');
+		appendDigits(sb, calendar.get(Calendar.MONTH)+1, 2);
+		sb.append('/');
+		appendDigits(sb, calendar.get(Calendar.DAY_OF_MONTH), 2);
+	}
+
+	/**
+	 * Append a non-negative number padded with zeros to at least the given
+	 * number of digits
+	 */
+	private static void appendDigits(StringBuilder sb, int value,
+			int digits) {
+
+		for(int limit = digits==4 ? 1000 : digits==3 ? 100 : 10;
+				limit>1 && value<limit; limit/=10)
+			sb.append('0');
+		sb.append(value);
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+/**
+ * The line prefixes for each depth below a tag being written, which are
+ * built as they are first needed and then reused.  Output without a line
+ * prefix shares {@link #NONE}.
+ */
+class Indentation {
+
+	static final Indentation NONE = new Indentation("");
+
+	// prefixes[depth] is the prefix for tags depth levels below the tag
+	// being written.  The array is replaced rather than changed so it can
+	// be read without locking.
+	private volatile String[] prefixes;
+
+	private Indentation(String linePrefix) {
+		String[] initial = new String[16];
+		initial[0] = linePrefix;
+		for(int i=1; i<initial.length; i++)
+			initial[i] = initial[i-1] + "    ";
+		prefixes = initial;
+	}
+
+	/**
+	 * @param linePrefix The prefix for the tag being written (may be null)
+	 */
+	static Indentation forPrefix(String linePrefix) {
+		return linePrefix==null || linePrefix.length()==0 ? NONE :
+			new Indentation(linePrefix);
+	}
+
+	/**
+	 * @return The line prefix for tags depth levels below the tag being
+	 *         written.  get(0) is the prefix for the tag itself.
+	 */
+	String get(int depth) {
+		String[] current = prefixes;
+		return depth<current.length ? current[depth] : grow(depth);
+	}
+
+	private synchronized String grow(int depth) {
+		String[] current = prefixes;
+		if(depth<current.length)
+			return current[depth];
+
+		String[] larger = new String[Math.max(depth+1, current.length*2)];
+		System.arraycopy(current, 0, larger, 0, current.length);
+		for(int i=current.length; i<larger.length; i++)
+			larger[i] = larger[i-1] + "    ";
+		prefixes = larger;
+		return larger[depth];
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Collects the bytes of a large binary literal outside the heap, either in
+ * direct memory or in a memory mapped temporary file.  The buffer grows as
+ * the parser decodes the literal a line at a time.
+ */
+class LargeBinaryBuffer {
+
+	private final File directory;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+
+	/**
+	 * @param directory The directory for the temporary file or null to use
+	 *        direct memory
+	 */
+	LargeBinaryBuffer(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return A buffer positioned after the bytes written so far with room
+	 *         for at least count more bytes.  The buffer may be a new one
+	 *         containing the bytes written to the old one.
+	 * @throws IOException If the temporary file cannot be created or grown,
+	 *         or the literal is larger than 2GB
+	 */
+	ByteBuffer reserve(int count) throws IOException {
+		if(buffer!=null && buffer.remaining()>=count)
+			return buffer;
+
+		int position = buffer==null ? 0 : buffer.position();
+		long capacity = Math.max((long)position+count,
+				buffer==null ? count : 2L*buffer.capacity());
+		if(capacity>Integer.MAX_VALUE) {
+			if((long)position+count>Integer.MAX_VALUE)
+				throw new IOException("Binary literal is larger than 2GB");
+			capacity = Integer.MAX_VALUE;
+		}
+
+		if(directory==null) {
+			ByteBuffer newBuffer = ByteBuffer.allocateDirect((int)capacity);
+			if(buffer!=null) {
+				buffer.flip();
+				newBuffer.put(buffer);
+			}
+			buffer = newBuffer;
+		} else {
+			if(channel==null)
+				channel = openTemporaryFile();
+
+			// the mapping grows the file and keeps the bytes already written
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			buffer.position(position);
+		}
+
+		return buffer;
+	}
+
+	private FileChannel openTemporaryFile() throws IOException {
+		File file = File.createTempFile("sdl", ".bin", directory);
+		FileChannel fileChannel = new RandomAccessFile(file, "rw")
+			.getChannel();
+
+		// the mapping remains valid after the file is deleted on systems
+		// which allow deleting open files
+		if(!file.delete())
+			file.deleteOnExit();
+
+		return fileChannel;
+	}
+
+	/**
+	 * @return A value holding the bytes written
+	 */
+	SDLBinary toBinary() throws IOException {
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.flip();
+		close();
+		return new SDLBinary(bytes);
+	}
+
+	/**
+	 * Close the temporary file (the mapped buffer remains usable)
+	 */
+	void close() throws IOException {
+		if(channel!=null) {
+			channel.close();
+			channel=null;
+		}
+	}
+}
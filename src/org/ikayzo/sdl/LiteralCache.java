@@ -0,0 +1,286 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A bounded cache of the results of {@link SDL#value(String)},
+ * {@link SDL#list(String)}, and {@link SDL#map(String)} keyed on the text
+ * parsed.  The cache is enabled with {@link SDL#setCacheSize(int)}.</p>
+ *
+ * <p>The cache is split into segments, each of which is locked separately
+ * and evicts its least recently used text when it is full, so threads
+ * looking up different text rarely wait for each other.  Text which
+ * cannot be parsed is not cached.</p>
+ *
+ * <p>Lists and maps are returned unmodifiable, as they are without the
+ * cache.  Calendars and byte arrays, which can be modified, are copied each
+ * time they are returned so a caller changing one does not affect other
+ * callers.</p>
+ */
+public final class LiteralCache {
+
+	// marks a result which has not been computed (null is a valid value)
+	private static final Object NONE = new Object();
+
+	private static final int MAX_SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final int maxSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxSize The maximum number of strings held
+	 * @throws IllegalArgumentException If maxSize is less than one
+	 */
+	LiteralCache(int maxSize) {
+		if(maxSize<1)
+			throw new IllegalArgumentException("Cache size must be at least " +
+					"one");
+
+		this.maxSize = maxSize;
+
+		int count = 1;
+		while(count<MAX_SEGMENTS && count*2<=maxSize)
+			count*=2;
+
+		segments = new Segment[count];
+		for(int i=0; i<count; i++)
+			segments[i] = new Segment((maxSize+count-1-i)/count);
+	}
+
+	/**
+	 * @return The maximum number of strings held
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return The number of strings held
+	 */
+	public int size() {
+		int size = 0;
+		for(Segment segment:segments) {
+			synchronized(segment) {
+				size+=segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return The number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of lookups which had to parse their text
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of strings removed to make room for others
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Remove all the strings held.  The statistics are not reset.
+	 */
+	public void clear() {
+		for(Segment segment:segments) {
+			synchronized(segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	public String toString() {
+		return "LiteralCache size=" + size() + " maxSize=" + maxSize +
+			" hits=" + getHits() + " misses=" + getMisses() + " evictions=" +
+			getEvictions();
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Lookups
+	////////////////////////////////////////////////////////////////////////////
+
+	Object value(String literal) {
+		Entry entry = get(literal);
+		Object value = entry==null ? NONE : entry.value;
+		if(value!=NONE) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			value = SDL.parseValue(literal);
+			put(literal).value = value;
+		}
+		return copyValue(value);
+	}
+
+	List<Object> list(String valueList) {
+		Entry entry = get(valueList);
+		List<Object> list = entry==null ? null : entry.list;
+		if(list!=null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			list = SDL.parseList(valueList);
+			put(valueList).list = list;
+		}
+		return copyList(list);
+	}
+
+	SortedMap<String,Object> map(String attributeString) {
+		Entry entry = get(attributeString);
+		SortedMap<String,Object> map = entry==null ? null : entry.map;
+		if(map!=null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			map = SDL.parseMap(attributeString);
+			put(attributeString).map = map;
+		}
+		return copyMap(map);
+	}
+
+	private Segment segmentFor(String text) {
+		int hash = text.hashCode();
+		hash^=(hash>>>16);
+		return segments[hash & (segments.length-1)];
+	}
+
+	private Entry get(String text) {
+		Segment segment = segmentFor(text);
+		synchronized(segment) {
+			return segment.get(text);
+		}
+	}
+
+	/**
+	 * @return The entry for the text, which is added if it is not present
+	 */
+	private Entry put(String text) {
+		Segment segment = segmentFor(text);
+		synchronized(segment) {
+			Entry entry = segment.get(text);
+			if(entry==null) {
+				entry = new Entry();
+				segment.put(text, entry);
+			}
+			return entry;
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Copying mutable values
+	////////////////////////////////////////////////////////////////////////////
+
+	private static boolean isMutable(Object value) {
+		return value instanceof Calendar || value instanceof byte[];
+	}
+
+	private static Object copyValue(Object value) {
+		if(value instanceof Calendar)
+			return ((Calendar)value).clone();
+		if(value instanceof byte[])
+			return ((byte[])value).clone();
+		return value;
+	}
+
+	private static List<Object> copyList(List<Object> list) {
+		for(Object value:list) {
+			if(isMutable(value)) {
+				List<Object> copy = new ArrayList<Object>(list.size());
+				for(Object o:list)
+					copy.add(copyValue(o));
+				return Collections.unmodifiableList(copy);
+			}
+		}
+		return list;
+	}
+
+	private static SortedMap<String,Object> copyMap(
+			SortedMap<String,Object> map) {
+
+		for(Object value:map.values()) {
+			if(isMutable(value)) {
+				SortedMap<String,Object> copy = new TreeMap<String,Object>();
+				for(Map.Entry<String,Object> e:map.entrySet())
+					copy.put(e.getKey(), copyValue(e.getValue()));
+				return Collections.unmodifiableSortedMap(copy);
+			}
+		}
+		return map;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Storage
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * The results parsed from one string.  The fields are filled in as the
+	 * string is passed to each method and read without locking.
+	 */
+	private static class Entry {
+		volatile Object value = NONE;
+		volatile List<Object> list;
+		volatile SortedMap<String,Object> map;
+	}
+
+	/**
+	 * A LinkedHashMap in access order which removes its least recently used
+	 * entry when it grows past its capacity
+	 */
+	private class Segment extends LinkedHashMap<String,Entry> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+			if(size()<=capacity)
+				return false;
+
+			evictions.incrementAndGet();
+			return true;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A reader for UTF8 files which maps the file into memory and decodes the
+ * bytes directly into the caller's char buffer.  SDL syntax is ASCII so
+ * almost all bytes take the single byte fast path.  Large files are mapped
+ * in windows of {@link #WINDOW_SIZE} bytes.  Files smaller than
+ * {@link #MAP_THRESHOLD} are read into a heap buffer instead because
+ * mappings are only released when the buffer is garbage collected.
+ * Malformed sequences are replaced with U+FFFD as they are by
+ * InputStreamReader.
+ */
+class MappedUTF8Reader extends Reader {
+
+	static final int WINDOW_SIZE = 1<<26;
+	static final int MAP_THRESHOLD = 1<<18;
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private FileChannel channel;
+	private long fileSize;
+	private long windowStart;
+	private ByteBuffer bytes;
+
+	// the low surrogate of a four byte sequence that did not fit in the
+	// caller's buffer
+	private char pendingLowSurrogate;
+
+	MappedUTF8Reader(File file) throws IOException {
+		channel = new FileInputStream(file).getChannel();
+		
+		// the caller never receives the reader if this fails, so the
+		// channel is closed here
+		try {
+			fileSize = channel.size();
+			
+			if(fileSize<MAP_THRESHOLD) {
+				bytes = ByteBuffer.allocate((int)fileSize);
+				while(bytes.hasRemaining() && channel.read(bytes)!=-1);
+				bytes.flip();
+				
+				// treat the file as ending here if it shrank while reading
+				fileSize = bytes.limit();
+			} else {
+				map(0);
+			}
+		} catch(IOException ioe) {
+			closeChannel();
+			throw ioe;
+		} catch(RuntimeException re) {
+			closeChannel();
+			throw re;
+		}
+	}
+	
+	/**
+	 * Close the channel after a failure, keeping the original exception
+	 */
+	private void closeChannel() {
+		try {
+			channel.close();
+		} catch(IOException ioe) {
+			// the original exception is more useful
+		}
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		bytes = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				Math.min(WINDOW_SIZE, fileSize-start));
+	}
+
+	public int read(char[] chars, int off, int len) throws IOException {
+		if(len==0)
+			return 0;
+
+		int i = off, end = off+len;
+
+		if(pendingLowSurrogate!=0) {
+			chars[i++] = pendingLowSurrogate;
+			pendingLowSurrogate = 0;
+		}
+
+		while(i<end) {
+			int remaining = bytes.remaining();
+
+			// make sure a complete sequence is available in the window
+			if(remaining<4) {
+				long next = windowStart+bytes.position();
+				if(next+remaining<fileSize) {
+					map(next);
+					continue;
+				}
+				if(remaining==0)
+					break;
+			}
+
+			int b = bytes.get();
+
+			if(b>=0) {
+				chars[i++] = (char)b;
+
+				// ASCII fast path
+				int limit = Math.min(end-i, bytes.remaining());
+				int pos = bytes.position();
+				int j=0;
+				for(; j<limit; j++) {
+					byte next = bytes.get(pos+j);
+					if(next<0)
+						break;
+					chars[i++] = (char)next;
+				}
+				bytes.position(pos+j);
+			} else if((b & 0xE0)==0xC0 && (b & 0xFF)>=0xC2) {
+				int b2 = continuation(0x80, 0xBF);
+				chars[i++] = b2<0 ? REPLACEMENT :
+					(char)(((b & 0x1F)<<6) | b2);
+			} else if((b & 0xF0)==0xE0) {
+				// exclude overlong forms and surrogates
+				int b2 = continuation((b & 0xFF)==0xE0 ? 0xA0 : 0x80, 0xBF);
+				int b3 = b2<0 ? -1 : continuation(0x80, 0xBF);
+				char c = (char)(((b & 0x0F)<<12) | (b2<<6) | b3);
+				chars[i++] = (b3<0 || (c>=0xD800 && c<=0xDFFF)) ?
+					REPLACEMENT : c;
+			} else if((b & 0xFF)>=0xF0 && (b & 0xFF)<=0xF4) {
+				// exclude overlong forms and code points above U+10FFFF
+				int b2 = continuation((b & 0xFF)==0xF0 ? 0x90 : 0x80,
+						(b & 0xFF)==0xF4 ? 0x8F : 0xBF);
+				int b3 = b2<0 ? -1 : continuation(0x80, 0xBF);
+				int b4 = b3<0 ? -1 : continuation(0x80, 0xBF);
+				if(b4<0) {
+					chars[i++] = REPLACEMENT;
+				} else {
+					int cp = ((b & 0x07)<<18) | (b2<<12) | (b3<<6) | b4;
+					cp -= 0x10000;
+					char low = (char)(0xDC00 + (cp & 0x3FF));
+					chars[i++] = (char)(0xD800 + (cp>>>10));
+					if(i<end)
+						chars[i++] = low;
+					else
+						pendingLowSurrogate = low;
+				}
+			} else {
+				chars[i++] = REPLACEMENT;
+			}
+		}
+
+		return (i==off) ? -1 : i-off;
+	}
+
+	/**
+	 * @return The six payload bits of the next byte or -1 if it is not a
+	 *         continuation byte in the given range (in which case it is not
+	 *         consumed)
+	 */
+	private int continuation(int min, int max) {
+		if(!bytes.hasRemaining())
+			return -1;
+		int b = bytes.get(bytes.position()) & 0xFF;
+		if(b<min || b>max)
+			return -1;
+		bytes.get();
+		return b & 0x3F;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,456 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>Parses a document in chunks on an ExecutorService.  The document is read
+ * into memory and pre-scanned for lines which start a top level tag.  The
+ * pre-scan follows the lexer's rules for strings, character literals,
+ * `` strings, binary literals, comments, line continuations and blocks, so a
+ * chunk always starts where the sequential parser would be between top level
+ * tags.  Each chunk is parsed by its own {@link Parser} and the results are
+ * joined in document order.  Line numbers in exceptions are the same as those
+ * reported by a sequential parse.</p>
+ *
+ * <p>If the pre-scan finds something the lexer would reject it stops looking
+ * for split points.  The rest of the document is parsed as a single chunk
+ * which reports the error.</p>
+ *
+ * <p>The calling thread parses any chunk the executor has not started
+ * before waiting for the others, so a parse run by a task on a bounded
+ * executor (which may have no other thread free) cannot deadlock.</p>
+ */
+class ParallelParser {
+
+	/**
+	 * The minimum number of characters in a chunk
+	 */
+	static final int CHUNK_SIZE = 1<<16;
+
+	private Reader reader;
+	private ExecutorService executor;
+
+	private char[] text;
+	private int length;
+
+	// the current raw line is text[lineStart] to text[lineEnd-1]
+	private int lineStart, lineEnd, nextLineStart, line=-1;
+	private int pos;
+
+	// set by scanLogicalLine
+	private boolean opensBlock, closesBlock;
+
+	ParallelParser(Reader reader, ExecutorService executor) {
+		this.reader = reader;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return A list of tags described by the input
+	 * @throws IOException If a problem is encountered with the reader
+	 * @throws SDLParseException If the document is malformed
+	 */
+	List<Tag> parse() throws IOException, SDLParseException {
+		readText();
+
+		List<Parser> parsers = split();
+		if(parsers.size()==1)
+			return parsers.get(0).parse();
+
+		List<FutureTask<List<Tag>>> tasks =
+			new ArrayList<FutureTask<List<Tag>>>();
+		try {
+			for(int i=1; i<parsers.size(); i++) {
+				final Parser parser = parsers.get(i);
+				FutureTask<List<Tag>> task = new FutureTask<List<Tag>>(
+					new Callable<List<Tag>>() {
+						public List<Tag> call() throws Exception {
+							return parser.parse();
+						}
+					});
+				tasks.add(task);
+				executor.execute(task);
+			}
+
+			// parse the first chunk on this thread while the others run
+			List<Tag> tags = parsers.get(0).parse();
+
+			// run the chunks the executor has not started (FutureTask.run
+			// does nothing once a task has started) so waiting never depends
+			// on a free thread in the executor
+			for(FutureTask<List<Tag>> task:tasks)
+				task.run();
+
+			for(FutureTask<List<Tag>> task:tasks)
+				tags.addAll(getTags(task));
+			return tags;
+		} finally {
+			for(FutureTask<List<Tag>> task:tasks)
+				task.cancel(true);
+		}
+	}
+
+	private List<Tag> getTags(Future<List<Tag>> future) throws IOException,
+		SDLParseException {
+
+		try {
+			return future.get();
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while parsing.");
+		} catch(ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if(cause instanceof SDLParseException)
+				throw (SDLParseException)cause;
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	private void readText() throws IOException {
+		text = new char[CHUNK_SIZE];
+		int read;
+		try {
+			while((read=reader.read(text, length, text.length-length))!=-1) {
+				length+=read;
+				if(length==text.length) {
+					char[] newText = new char[text.length*2];
+					System.arraycopy(text, 0, newText, 0, length);
+					text = newText;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Create a parser for each chunk of the text
+	 */
+	private List<Parser> split() {
+		List<Parser> parsers = new ArrayList<Parser>();
+		int chunkStart=0, chunkLine=0, depth=0;
+
+		while(readLine()) {
+			if(depth==0 && lineStart-chunkStart>=CHUNK_SIZE) {
+				parsers.add(new Parser(text, chunkStart, lineStart, chunkLine));
+				chunkStart=lineStart;
+				chunkLine=line;
+			}
+
+			if(!scanLogicalLine())
+				break;
+
+			// the same rules used by Parser.parse() and addChildren()
+			if(depth>0 && closesBlock)
+				depth--;
+			else if(opensBlock)
+				depth++;
+			else if(closesBlock)
+				break;
+		}
+
+		parsers.add(new Parser(text, chunkStart, length, chunkLine));
+		return parsers;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Pre-scan (see Parser.getLineTokens())
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Scan the logical line starting with the current line, setting
+	 * opensBlock if its last token is { and closesBlock if its first token is
+	 * }.
+	 *
+	 * @return false if the lexer would reject the line or the end of the text
+	 *         was reached inside a literal or comment
+	 */
+	private boolean scanLogicalLine() {
+		boolean firstToken=true;
+		opensBlock=false;
+		closesBlock=false;
+
+		pos=lineStart;
+		while(pos<lineEnd) {
+			char c=text[pos];
+			int cc=Parser.charClass(c);
+
+			if((cc & Parser.WHITESPACE)!=0) {
+				pos++;
+				continue;
+			} else if(c=='#') {
+				return true;
+			} else if(c=='/') {
+				if(pos+1==lineEnd)
+					return false;
+				if(text[pos+1]=='/')
+					return true;
+				if(text[pos+1]=='*') {
+					if(!skipSlashComment())
+						return false;
+				} else {
+					// the lexer ignores a slash on its own
+					pos++;
+				}
+				continue;
+			} else if(c=='\\') {
+				if(!isBlank(pos+1) || !readLine())
+					return false;
+				pos=lineStart;
+				continue;
+			} else if(c=='-' && pos+1<lineEnd && text[pos+1]=='-') {
+				return true;
+			}
+
+			// c starts a token
+			opensBlock = c=='{';
+			if(firstToken) {
+				closesBlock = c=='}';
+				firstToken=false;
+			}
+
+			boolean ok=true;
+			if(c=='"') {
+				ok=skipDoubleQuoteString();
+			} else if(c=='\'') {
+				if(pos+1==lineEnd)
+					return false;
+				pos += (text[pos+1]=='\\') ? 4 : 3;
+			} else if(c=='`' || c=='[') {
+				ok=skipDelimitedLiteral(c=='`' ? '`' : ']');
+			} else if((cc & Parser.PUNCTUATION)!=0) {
+				pos++;
+			} else if((cc & Parser.NUMBER_START)!=0) {
+				skipNumberDateOrTimeSpan();
+			} else if((cc & Parser.IDENTIFIER_START)!=0 ||
+					(c>=Parser.ASCII_SIZE &&
+					Character.isJavaIdentifierStart(c))) {
+				skipIdentifier();
+			} else {
+				return false;
+			}
+
+			if(!ok)
+				return false;
+		}
+
+		return true;
+	}
+
+	private boolean skipDoubleQuoteString() {
+		boolean escaped=false;
+		pos++;
+
+		for(;;pos++) {
+			if(pos>=lineEnd)
+				return false;
+
+			char c=text[pos];
+			if(escaped) {
+				escaped=false;
+			} else if(c=='\\') {
+				// check for String broken across lines
+				if(pos+1==lineEnd || (Parser.charClass(text[pos+1]) &
+						Parser.WHITESPACE)!=0) {
+					for(int i=pos+1; i<lineEnd; i++)
+						if((Parser.charClass(text[i]) & Parser.WHITESPACE)==0)
+							return false;
+					if(!readLine())
+						return false;
+					pos=lineStart-1;
+				} else {
+					escaped=true;
+				}
+			} else if(c=='"') {
+				pos++;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Skip a `` string or [] binary literal which may span lines
+	 */
+	private boolean skipDelimitedLiteral(char endChar) {
+		int endIndex = indexOf(endChar, pos+1);
+		if(endIndex!=-1) {
+			pos=endIndex+1;
+			return true;
+		}
+
+		while(readRawLine()) {
+			endIndex = indexOf(endChar, lineStart);
+			if(endIndex!=-1) {
+				// The lexer trims the line containing the end character but
+				// continues from the untrimmed position of the end character
+				int leading=0;
+				while(lineStart+leading<lineEnd &&
+						text[lineStart+leading]<=' ')
+					leading++;
+				while(lineEnd>lineStart+leading && text[lineEnd-1]<=' ')
+					lineEnd--;
+
+				pos=endIndex+1+leading;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Skip a /* comment.  pos is the index of the slash.
+	 */
+	private boolean skipSlashComment() {
+		int endIndex = indexOf('*', '/', pos+1);
+		if(endIndex!=-1) {
+			pos=endIndex+2;
+			return true;
+		}
+
+		while(readRawLine()) {
+			endIndex = indexOf('*', '/', lineStart);
+			if(endIndex!=-1) {
+				pos=endIndex+2;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void skipNumberDateOrTimeSpan() {
+		for(;pos<lineEnd; pos++) {
+			char c=text[pos];
+
+			if(c<Parser.ASCII_SIZE ?
+					(Parser.charClass(c) & Parser.NUMBER_PART)!=0 :
+					Parser.NUMBER_CHARS.indexOf(Character.toLowerCase(c))!=-1) {
+				// part of the literal
+			} else if(c=='/' && !(pos+1<lineEnd && text[pos+1]=='*')) {
+				// part of a date
+			} else {
+				break;
+			}
+		}
+	}
+
+	private void skipIdentifier() {
+		for(;pos<lineEnd; pos++) {
+			char c=text[pos];
+
+			if(!(c<Parser.ASCII_SIZE ?
+					(Parser.charClass(c) & Parser.IDENTIFIER_PART)!=0 :
+					Character.isJavaIdentifierPart(c)))
+				break;
+		}
+	}
+
+	/**
+	 * Skips comment lines and blank lines (see Parser.readLine())
+	 *
+	 * @return false at the end of the text
+	 */
+	private boolean readLine() {
+		while(readRawLine()) {
+			int i=lineStart;
+			while(i<lineEnd && text[i]<=' ')
+				i++;
+
+			if(i<lineEnd && text[i]!='#')
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Move to the next line using the same line terminators as
+	 * Parser.readRawLine()
+	 *
+	 * @return false at the end of the text
+	 */
+	private boolean readRawLine() {
+		if(nextLineStart==length)
+			return false;
+
+		lineStart=nextLineStart;
+		int i=lineStart;
+		while(i<length && text[i]!='\n' && text[i]!='\r')
+			i++;
+		lineEnd=i;
+
+		if(i<length) {
+			if(text[i]=='\r' && i+1<length && text[i+1]=='\n')
+				i++;
+			i++;
+		}
+
+		nextLineStart=i;
+		line++;
+		return true;
+	}
+
+	/**
+	 * @return true if the current line contains only characters <= ' ' from
+	 *         the given index onward
+	 */
+	private boolean isBlank(int from) {
+		for(int i=from; i<lineEnd; i++)
+			if(text[i]>' ')
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return The index of c in the current line starting at from or -1
+	 */
+	private int indexOf(char c, int from) {
+		for(int i=from; i<lineEnd; i++)
+			if(text[i]==c)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return The index of the two character sequence c1c2 in the current
+	 *         line starting at from or -1
+	 */
+	private int indexOf(char c1, char c2, int from) {
+		for(int i=from; i<lineEnd-1; i++)
+			if(text[i]==c1 && text[i+1]==c2)
+				return i;
+		return -1;
+	}
+}
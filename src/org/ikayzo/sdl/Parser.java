@@ -16,13 +16,15 @@
  */
 package org.ikayzo.sdl;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ikayzo.codec.Base64;
+import org.ikayzo.codec.Base64Decoder;
 
 /**
  * The SDL parser.
@@ -31,21 +33,207 @@ import org.ikayzo.codec.Base64;
  */
 class Parser {
 	
-	private BufferedReader reader;
-	private String line;
-	private List<Token> toks;
+	private static final int BUFFER_SIZE = 8192;
+	
+	// buffers larger than this are not kept by reset(Reader)
+	private static final int MAX_RETAINED_SIZE = 1<<16;
+	
+	// a parser for each thread (see obtain(Reader))
+	private static final ThreadLocal<Parser> CACHED = new ThreadLocal<Parser>();
+	
+	private Reader reader;
+	
+	// These are reused for each line and each tag.  The lists returned by
+	// getLineTokens() are only valid until it is called again.
+	private List<Token> toks = new ArrayList<Token>();
+	private StringBuilder stringBuilder = new StringBuilder();
+	private TagBuilder tagBuilder = new TagBuilder();
+	private List<Tag> openTags = new ArrayList<Tag>();
+	
+	// stringBuilder while a string literal is being read, otherwise null
 	private StringBuilder sb;
 	private boolean startEscapedQuoteLine;
 	private int lineNumber=-1, pos=0, lineLength=0, tokenStart=0;
 	
+	// The current line is buf[lineStart] to buf[lineStart+lineLength-1].
+	// Characters from nextLineStart to bufEnd have been read from the reader
+	// but not yet scanned.
+	private char[] buf;
+	private int lineStart=0, nextLineStart=0, bufEnd=0;
+	private boolean eof;
+	
+	// the buffer used for readers (buf may instead be the caller's text)
+	private char[] ownBuffer;
+	
+	private boolean lazy;
+	
+	// the storage for the binary literal being decoded if it is large
+	private LargeBinaryBuffer largeBinary;
+	private int maxDepth = Integer.MAX_VALUE;
+	private PathFilter filter;
+	
+	// set by skipLine()
+	private boolean opensBlock, closesBlock;
+	
 	/**
 	 * Create an SDL parser
 	 */
 	Parser(Reader reader) {
-		this.reader = (reader instanceof BufferedReader)
-			? ((BufferedReader)reader)
-			: new BufferedReader(reader);
+		this.reader = reader;
+		buf = ownBuffer = new char[BUFFER_SIZE];
 	}	
+	
+	/**
+	 * Create an SDL parser for the characters text[start] to text[end-1].
+	 * The array is scanned in place rather than copied and is not modified.
+	 * 
+	 * @param firstLine The zero based line number of text[start] in the
+	 *        document.  This is used for the line numbers reported in
+	 *        exceptions.
+	 */
+	Parser(char[] text, int start, int end, int firstLine) {
+		setText(text, start, end);
+		lineNumber = firstLine-1;
+	}
+	
+	/**
+	 * Get a parser for the reader.  This thread's cached parser is reused if
+	 * it is not already in use, saving the allocation of its buffers.
+	 * {@link #release()} should be called when the parser is no longer
+	 * needed.
+	 */
+	static Parser obtain(Reader reader) {
+		Parser parser = cached();
+		parser.reset(reader);
+		return parser;
+	}
+	
+	/**
+	 * Get a parser for the given text (see {@link #obtain(Reader)}).  The text
+	 * is copied into the parser's buffer.
+	 */
+	static Parser obtain(CharSequence text) {
+		Parser parser = cached();
+		parser.reset((Reader)null);
+		
+		int length = text.length();
+		if(parser.buf.length<length)
+			parser.buf = parser.ownBuffer = new char[length];
+		if(text instanceof String) {
+			((String)text).getChars(0, length, parser.buf, 0);
+		} else {
+			for(int i=0; i<length; i++)
+				parser.buf[i] = text.charAt(i);
+		}
+		
+		parser.setText(parser.buf, 0, length);
+		return parser;
+	}
+	
+	/**
+	 * Get a parser for the characters text[start] to text[end-1] (see
+	 * {@link #obtain(Reader)} and {@link #Parser(char[], int, int, int)}).
+	 * The array is scanned in place.
+	 */
+	static Parser obtain(char[] text, int start, int end, int firstLine) {
+		Parser parser = cached();
+		parser.reset((Reader)null);
+		parser.setText(text, start, end);
+		parser.lineNumber = firstLine-1;
+		return parser;
+	}
+	
+	private static Parser cached() {
+		Parser parser = CACHED.get();
+		if(parser==null)
+			return new Parser((Reader)null);
+		
+		CACHED.set(null);
+		return parser;
+	}
+	
+	/**
+	 * Make this parser available to {@link #obtain(Reader)} on the current
+	 * thread.  The parser must not be used after it is released.
+	 */
+	void release() {
+		reset((Reader)null);
+		CACHED.set(this);
+	}
+	
+	/**
+	 * Prepare to parse a new document from the given reader.  The parser's
+	 * buffers are kept unless they have grown very large.  Its settings are
+	 * restored to their defaults.
+	 */
+	void reset(Reader reader) {
+		this.reader = reader;
+		
+		if(ownBuffer==null || ownBuffer.length>MAX_RETAINED_SIZE)
+			ownBuffer = new char[BUFFER_SIZE];
+		buf = ownBuffer;
+		if(stringBuilder.capacity()>MAX_RETAINED_SIZE)
+			stringBuilder = new StringBuilder();
+		
+		toks.clear();
+		openTags.clear();
+		tagBuilder.tag = null;
+		sb = null;
+		startEscapedQuoteLine = false;
+		lineNumber = -1;
+		pos = lineLength = tokenStart = 0;
+		lineStart = nextLineStart = bufEnd = 0;
+		eof = false;
+		
+		lazy = false;
+		maxDepth = Integer.MAX_VALUE;
+		filter = null;
+	}
+	
+	/**
+	 * Read from text[start] to text[end-1] rather than a reader
+	 */
+	private void setText(char[] text, int start, int end) {
+		buf = text;
+		lineStart = nextLineStart = start;
+		bufEnd = end;
+		eof = true;
+	}
+	
+	/**
+	 * In lazy mode date, date/time and binary literals are not decoded when
+	 * they are parsed.  The Tags created by {@link #parse()} store the raw
+	 * literal text and decode it the first time the value is accessed.
+	 * Malformed literals are reported by an IllegalArgumentException at that
+	 * point rather than a SDLParseException.  Lazy mode should not be used
+	 * with {@link #parse(SDLHandler)}.
+	 */
+	void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+	
+	/**
+	 * Set the maximum number of nested blocks.  A document which opens a
+	 * block deeper than this causes a SDLParseException.  The default is
+	 * Integer.MAX_VALUE.  Blocks are tracked with an explicit stack so any
+	 * depth can be parsed without exhausting the thread's stack.
+	 */
+	void setMaxDepth(int maxDepth) {
+		if(maxDepth<0)
+			throw new IllegalArgumentException("maxDepth cannot be negative");
+		this.maxDepth = maxDepth;
+	}
+	
+	/**
+	 * Only read the tags accepted by the given filter.  Lines starting a tag
+	 * which is not accepted are skipped along with the tag's block by a
+	 * scanner which creates no tokens and does not decode literals, so
+	 * malformed literals and misplaced tokens in skipped tags are not
+	 * reported.  A filter should not be used with {@link #parse(SDLHandler)}.
+	 */
+	void setFilter(PathFilter filter) {
+		this.filter = filter;
+	}
 
 	/**
 	 * @return A list of tags described by the input
@@ -56,47 +244,209 @@ class Parser {
 		SDLParseException {
 		
 		List<Tag> tags = new ArrayList<Tag>();
+		
+		// the tags whose blocks are open, innermost last
+		openTags.clear();
 		List<Token> toks;
 		
 		while((toks=getLineTokens())!=null) {
 			int size = toks.size();
+			Token first = toks.get(0), last = toks.get(size-1);
+			
+			if(first.type==Type.END_BLOCK && !openTags.isEmpty()) {
+				openTags.remove(openTags.size()-1);
+				if(filter!=null)
+					filter.pop();
+				continue;
+			}
 			
-			if(toks.get(size-1).type==Type.START_BLOCK) {
-				Tag t = constructTag(toks.subList(0, size-1));
-				addChildren(t);
-				tags.add(t);
-			} else if(toks.get(0).type==Type.END_BLOCK){
-				parseException("No opening block ({) for close block (}).",
-						toks.get(0).line, toks.get(0).position);
+			Tag tag;
+			if(last.type==Type.START_BLOCK) {
+				if(openTags.size()==maxDepth)
+					parseException("Maximum block depth (" + maxDepth +
+							") exceeded.", last.line, last.position);
+				tag = constructTag(toks.subList(0, size-1));
 			} else {
-				tags.add(constructTag(toks));
+				if(first.type==Type.END_BLOCK)
+					parseException("No opening block ({) for close block " +
+							"(}).", first.line, first.position);
+				tag = constructTag(toks);
 			}
+			
+			// tags which start with a literal or are otherwise not skipped by
+			// getLineTokens() are checked here
+			if(filter!=null) {
+				if(!filter.accept(tag.getNamespace(), tag.getName())) {
+					if(last.type==Type.START_BLOCK)
+						skipBlock();
+					continue;
+				}
+				
+				if(last.type==Type.START_BLOCK)
+					filter.push(tag.getNamespace(), tag.getName());
+			}
+			
+			if(openTags.isEmpty())
+				tags.add(tag);
+			else
+				openTags.get(openTags.size()-1).addChild(tag);
+			
+			if(last.type==Type.START_BLOCK)
+				openTags.add(tag);
 		}
 		
-		reader.close();
+		close();
+		
+		if(!openTags.isEmpty())
+			// we have to use -2 for position rather than -1 for unknown because
+			// the parseException method adds 1 to line and position
+			parseException("No close block (}).", lineNumber, -2);
 		
 		return tags;
 	}
 	
-	private void addChildren(Tag parent) throws SDLParseException, IOException {
+	/**
+	 * Parse the input reporting its contents to the given handler rather than
+	 * constructing Tags.
+	 * 
+	 * @throws IOException If a problem is encountered with the reader
+	 * @throws SDLParseException If the document is malformed
+	 */
+	void parse(SDLHandler handler) throws IOException, SDLParseException {
 		List<Token> toks;
+		int depth=0;
+		
 		while((toks=getLineTokens())!=null) {
 			int size = toks.size();
 			
 			if(toks.get(0).type==Type.END_BLOCK) {
-				return;
+				if(depth==0)
+					parseException("No opening block ({) for close block (}).",
+							toks.get(0).line, toks.get(0).position);
+				handler.endTag();
+				depth--;
 			} else if(toks.get(size-1).type==Type.START_BLOCK) {
-				Tag tag = constructTag(toks.subList(0, size-1));
-				addChildren(tag);
-				parent.addChild(tag);
+				if(depth==maxDepth)
+					parseException("Maximum block depth (" + maxDepth +
+							") exceeded.", toks.get(size-1).line,
+							toks.get(size-1).position);
+				emitTag(toks.subList(0, size-1), handler);
+				depth++;
 			} else {
-				parent.addChild(constructTag(toks));
+				emitTag(toks, handler);
+				handler.endTag();
 			}
-		}		
+		}
+		
+		close();
 		
-		// we have to use -2 for position rather than -1 for unknown because
-		// the parseException method adds 1 to line and position
-		parseException("No close block (}).", lineNumber, -2);
+		if(depth!=0)
+			// we have to use -2 for position rather than -1 for unknown because
+			// the parseException method adds 1 to line and position
+			parseException("No close block (}).", lineNumber, -2);
+	}
+	
+	/**
+	 * Parse text consisting of a single line of values such as
+	 * "1 true 12:24:01" without creating a Tag.  Any attributes following
+	 * the values are checked but not returned.  See {@link SDL#list(String)}.
+	 * 
+	 * @return An immutable list of the values or null if the text is not a
+	 *         single line starting with a literal
+	 * @throws IOException If a problem is encountered with the reader
+	 * @throws SDLParseException If the line is malformed
+	 */
+	List<Object> parseValueList() throws IOException, SDLParseException {
+		List<Token> toks = getOnlyLineTokens();
+		if(toks==null || toks.isEmpty() || !toks.get(0).literal)
+			return null;
+		
+		LineCollector collector = new LineCollector();
+		collector.values = new ArrayList<Object>();
+		emitValuesAndAttributes(toks, collector);
+		return Collections.unmodifiableList(collector.values);
+	}
+	
+	/**
+	 * Parse text consisting of a single line of attributes such as
+	 * "value=1 debugging=on" without creating a Tag.  Any values preceding
+	 * the attributes are checked but not returned.  See
+	 * {@link SDL#map(String)}.
+	 * 
+	 * @return An immutable map of attribute keys to values or null if the
+	 *         text is not a single line starting on the first line of the
+	 *         input
+	 * @throws IOException If a problem is encountered with the reader
+	 * @throws SDLParseException If the line is malformed
+	 */
+	SortedMap<String,Object> parseAttributeList() throws IOException,
+		SDLParseException {
+		
+		// SDL.map(String) reads the text as the rest of a tag's line, so a
+		// blank or comment first line ends the tag
+		List<Token> toks = getOnlyLineTokens();
+		if(toks==null || (!toks.isEmpty() && (toks.get(0).line!=0 ||
+				toks.get(0).type==Type.COLON)))
+			return null;
+		
+		LineCollector collector = new LineCollector();
+		collector.attributes = new TreeMap<String,Object>();
+		emitValuesAndAttributes(toks, collector);
+		return Collections.unmodifiableSortedMap(collector.attributes);
+	}
+	
+	/**
+	 * @return The tokens of the only logical line in the input, an empty
+	 *         list if there are no tokens, or null if there is more than one
+	 *         line or the line contains a block
+	 */
+	private List<Token> getOnlyLineTokens() throws IOException,
+		SDLParseException {
+		
+		List<Token> toks = getLineTokens();
+		if(toks==null) {
+			this.toks.clear();
+			return this.toks;
+		}
+		
+		for(Token t:toks)
+			if(t.type==Type.START_BLOCK || t.type==Type.END_BLOCK)
+				return null;
+		
+		return readLine() ? null : toks;
+	}
+	
+	private void emitValuesAndAttributes(List<Token> toks,
+			SDLHandler handler) throws SDLParseException {
+		
+		int i = addTagValues(handler, toks, 0);
+		if(i<toks.size())
+			addTagAttributes(handler, toks, i);
+	}
+	
+	/**
+	 * Collects the values and attributes of a single line.  Either list may
+	 * be null, in which case those items are ignored.
+	 */
+	private static class LineCollector implements SDLHandler {
+		List<Object> values;
+		SortedMap<String,Object> attributes;
+		
+		public void startTag(String namespace, String name) {
+		}
+		
+		public void value(Object value) {
+			if(values!=null)
+				values.add(value);
+		}
+		
+		public void attribute(String namespace, String key, Object value) {
+			if(attributes!=null)
+				attributes.put(key, value);
+		}
+		
+		public void endTag() {
+		}
 	}
 	
 	/**
@@ -105,6 +455,21 @@ class Parser {
 	 * @throws SDLParseException 
 	 */
 	Tag constructTag(List<Token> toks) throws SDLParseException {
+		emitTag(toks, tagBuilder);
+		Tag tag = tagBuilder.tag;
+		tagBuilder.tag = null;
+		return tag;
+	}
+	
+	/**
+	 * Report a tag (but not its children) described by a string of tokens to
+	 * the handler.  The handler's endTag method is not called.
+	 * 
+	 * @throws SDLParseException 
+	 */
+	private void emitTag(List<Token> toks, SDLHandler handler)
+		throws SDLParseException {
+		
 		if(toks.isEmpty())
 			// we have to use -2 for position rather than -1 for unknown because
 			// the parseException method adds 1 to line and position
@@ -122,10 +487,8 @@ class Parser {
 		
 		int size = toks.size();
 		
-		Tag tag = null;
-		
 		if(size==1) {
-			tag = new Tag(t0.text);
+			handler.startTag("", t0.text);
 		} else {
 			int valuesStartIndex = 1;
 			
@@ -137,28 +500,26 @@ class Parser {
 							"location.", t1.line, t1.position);
 				
 				Token t2 = toks.get(2);
-				tag = new Tag(t0.text,t2.text);
+				handler.startTag(t0.text,t2.text);
 				
 				valuesStartIndex = 3;
 			} else {
-				tag = new Tag(t0.text);
+				handler.startTag("", t0.text);
 			}
 				
 			// read values
-			int i =addTagValues(tag, toks, valuesStartIndex);
+			int i =addTagValues(handler, toks, valuesStartIndex);
 			
 			// read attributes
 			if(i<size)
-				addTagAttributes(tag, toks, i);
+				addTagAttributes(handler, toks, i);
 		}
-
-		return tag;
 	}
 	
 	/**
 	 * @return The position at the end of the value list
 	 */
-	private int addTagValues(Tag tag, List<Token> toks, int tpos)
+	private int addTagValues(SDLHandler handler, List<Token> toks, int tpos)
 		throws SDLParseException {
 		
 		int size=toks.size(), i=tpos;
@@ -171,13 +532,12 @@ class Parser {
 				if(t.type==Type.DATE && (i+1)<size &&
 						toks.get(i+1).type==Type.TIME) {
 
-					Calendar dc = (Calendar)t.getObjectForLiteral();
 					TimeSpanWithZone tswz = (TimeSpanWithZone)
 						toks.get(i+1).getObjectForLiteral();
 					
 					if(tswz.getDays()!=0) {
-						tag.addValue(dc);
-						tag.addValue(new SDLTimeSpan(
+						handler.value(t.getObjectForLiteral());
+						handler.value(new SDLTimeSpan(
 								tswz.getDays(), tswz.getHours(),
 								tswz.getMinutes(), tswz.getSeconds(),
 								tswz.getMilliseconds()
@@ -187,28 +547,12 @@ class Parser {
 							parseException("TimeSpan cannot have a timezone",
 								t.line, t.position);
 					} else {
-						tag.addValue(combine(dc,tswz));
+						handler.value(combine(t,tswz));
 					}
 					
 					i++;
 				} else {
-					Object v = t.getObjectForLiteral();
-					if(v instanceof TimeSpanWithZone) {
-						TimeSpanWithZone tswz = (TimeSpanWithZone)v;
-						
-						if(tswz.getTimeZone()!=null)
-							expectingButGot("TIME SPAN",
-								"TIME (component of date/time)", t.line,
-								    t.position);
-						
-						tag.addValue(new SDLTimeSpan(
-							tswz.getDays(), tswz.getHours(),
-							tswz.getMinutes(), tswz.getSeconds(),
-							tswz.getMilliseconds()
-						));
-					} else {
-						tag.addValue(v);
-					}
+					handler.value(getAttributeOrValue(t));
 				}
 			} else if(t.type==Type.IDENTIFIER) {
 				break;
@@ -222,10 +566,10 @@ class Parser {
 	}
 	
 	/**
-	 * Add attributes to the given tag
+	 * Report the attributes in the token list to the handler
 	 */
-	private void addTagAttributes(Tag tag, List<Token> toks, int tpos)
-		throws SDLParseException {
+	private void addTagAttributes(SDLHandler handler, List<Token> toks,
+			int tpos) throws SDLParseException {
 		
 		int i=tpos, size=toks.size();
 		
@@ -233,7 +577,8 @@ class Parser {
 			Token t = toks.get(i);
 			if(t.type!=Type.IDENTIFIER)
 				expectingButGot("IDENTIFIER", t.type, t.line, t.position);
-			String nameOrNamespace = t.text;
+			String namespace = "";
+			String name = t.text;
 			
 			if(i==size-1)
 				expectingButGot("\":\" or \"=\" \"LITERAL\"", "END OF LINE.",
@@ -249,7 +594,8 @@ class Parser {
 				if(t.type!=Type.IDENTIFIER)
 					expectingButGot("IDENTIFIER", t.type, t.line,
 							t.position);
-				String name = t.text;
+				namespace = name;
+				name = t.text;
 				
 				if(i==size-1)
 					expectingButGot("\"=\"", "END OF LINE", t.line,
@@ -258,105 +604,99 @@ class Parser {
 				if(t.type!=Type.EQUALS)
 					expectingButGot("\"=\"", t.type, t.line,
 							t.position);
+			} else if(t.type!=Type.EQUALS){
+				expectingButGot("\":\" or \"=\"", t.type, t.line,
+						t.position);	
+			}
+			
+			if(i==size-1)
+				expectingButGot("LITERAL", "END OF LINE", t.line,
+						t.position);	
+			t = toks.get(++i);
+			if(!t.literal)
+				expectingButGot("LITERAL", t.type, t.line, t.position);	
+			
+			if(t.type==Type.DATE && (i+1)<size &&
+					toks.get(i+1).type==Type.TIME) {
+			
+				TimeSpanWithZone tswz = (TimeSpanWithZone)
+					toks.get(i+1).getObjectForLiteral();
 				
-				if(i==size-1)
-					expectingButGot("LITERAL", "END OF LINE", t.line,
-							t.position);
-				t = toks.get(++i);
-				if(!t.literal)
-					expectingButGot("LITERAL", t.type, t.line, t.position);
-				
-				if(t.type==Type.DATE && (i+1)<size &&
-						toks.get(i+1).type==Type.TIME) {
-					
-					Calendar dc = (Calendar)t.getObjectForLiteral();
-					TimeSpanWithZone tswz = (TimeSpanWithZone)
-						toks.get(i+1).getObjectForLiteral();
-					
-					if(tswz.getDays()!=0) {
-						expectingButGot("TIME (component of date/time) " +
-							"in attribute value", "TIME SPAN", t.line,
-							t.position);
-						
-					} else {
-						tag.setAttribute(nameOrNamespace, name,
-								combine(dc,tswz));	
-					}
-					
-					i++;
-				} else {
-					Object v = t.getObjectForLiteral();
-					if(v instanceof TimeSpanWithZone) {
-						TimeSpanWithZone tswz = (TimeSpanWithZone)v;
-						
-						if(tswz.getTimeZone()!=null)
-							expectingButGot("TIME SPAN",
-								"TIME (component of date/time)", t.line,
-								    t.position);
-						
-						SDLTimeSpan ts = new SDLTimeSpan(
-							tswz.getDays(), tswz.getHours(),
-							tswz.getMinutes(), tswz.getSeconds(),
-							tswz.getMilliseconds());
-						
-						tag.setAttribute(nameOrNamespace, name,
-								ts);							
-					} else {
-						tag.setAttribute(nameOrNamespace, name,
-								v);
-					}
-				}
-			} else if(t.type==Type.EQUALS){
-				if(i==size-1)
-					expectingButGot("LITERAL", "END OF LINE", t.line,
-							t.position);	
-				t = toks.get(++i);
-				if(!t.literal)
-					expectingButGot("LITERAL", t.type, t.line, t.position);	
-				
-				
-				if(t.type==Type.DATE && (i+1)<size &&
-						toks.get(i+1).type==Type.TIME) {
+				if(tswz.getDays()!=0)
+					expectingButGot("TIME (component of date/time) " +
+						"in attribute value", "TIME SPAN", t.line,
+						t.position);
+				handler.attribute(namespace, name, combine(t,tswz));	
 				
-					Calendar dc = (Calendar)t.getObjectForLiteral();
-					TimeSpanWithZone tswz = (TimeSpanWithZone)
-						toks.get(i+1).getObjectForLiteral();
-					
-					if(tswz.getDays()!=0)
-						expectingButGot("TIME (component of date/time) " +
-							"in attribute value", "TIME SPAN", t.line,
-							t.position);
-					tag.setAttribute(nameOrNamespace, combine(dc,tswz));	
-					
-					i++;
-				} else {
-					Object v = t.getObjectForLiteral();
-					if(v instanceof TimeSpanWithZone) {
-						TimeSpanWithZone tswz = (TimeSpanWithZone)v;
-						
-						if(tswz.getTimeZone()!=null)
-							expectingButGot("TIME SPAN",
-								"TIME (component of date/time)", t.line,
-								    t.position);
-						
-						SDLTimeSpan ts = new SDLTimeSpan(
-							tswz.getDays(), tswz.getHours(),
-							tswz.getMinutes(), tswz.getSeconds(),
-							tswz.getMilliseconds());
-						
-						tag.setAttribute(nameOrNamespace, ts);							
-					} else {
-						tag.setAttribute(nameOrNamespace, v);
-					}			
-				}
+				i++;
 			} else {
-				expectingButGot("\":\" or \"=\"", t.type, t.line,
-						t.position);	
+				handler.attribute(namespace, name, getAttributeOrValue(t));
 			}
 			
 			i++;
 		}
 	}
+	
+	/**
+	 * Get the object for a single literal token, converting the time span
+	 * component of a TIME token to an SDLTimeSpan
+	 */
+	private Object getAttributeOrValue(Token t) throws SDLParseException {
+		Object v = t.getObjectForLiteral();
+		if(v instanceof TimeSpanWithZone) {
+			TimeSpanWithZone tswz = (TimeSpanWithZone)v;
+			
+			if(tswz.getTimeZone()!=null)
+				expectingButGot("TIME SPAN",
+					"TIME (component of date/time)", t.line,
+					    t.position);
+			
+			return new SDLTimeSpan(
+				tswz.getDays(), tswz.getHours(),
+				tswz.getMinutes(), tswz.getSeconds(),
+				tswz.getMilliseconds());
+		}
+		
+		return v;
+	}
+	
+	/**
+	 * Combine a DATE token with the TimeSpanWithZone from the following TIME
+	 * token.  In lazy mode the combination is deferred.
+	 */
+	private Object combine(Token date, TimeSpanWithZone tswz) {
+		if(lazy)
+			return new LazyLiteral(date.text, tswz, date.line, date.position);
+		return combine((DateFields)date.object, tswz);
+	}
+	
+	/**
+	 * An SDLHandler which builds a single Tag (without children)
+	 */
+	private static class TagBuilder implements SDLHandler {
+		Tag tag;
+		
+		public void startTag(String namespace, String name) {
+			tag = new Tag(namespace, name);
+		}
+		
+		public void value(Object value) {
+			if(value instanceof LazyLiteral)
+				tag.addLazyValue((LazyLiteral)value);
+			else
+				tag.addValue(value);
+		}
+		
+		public void attribute(String namespace, String key, Object value) {
+			if(value instanceof LazyLiteral)
+				tag.setLazyAttribute(namespace, key, (LazyLiteral)value);
+			else
+				tag.setAttribute(namespace, key, value);
+		}
+		
+		public void endTag() {
+		}
+	}
 
 	/**
 	 * Get a line as tokens.  This method handles line continuations both
@@ -367,87 +707,89 @@ class Parser {
 	 * @throws IOException
 	 */
 	List<Token> getLineTokens() throws SDLParseException, IOException {
-		line = readLine();
-		if(line==null)
-			return null;
-		toks = new ArrayList<Token>();
-		lineLength = line.length(); 
-		sb = null;
-		tokenStart=0;	
-		
-		for(;pos<lineLength; pos++) {
-			char c=line.charAt(pos);
+		// lines containing only comments have no tokens, in which case we
+		// try another line
+		do {
+			if(!readLine())
+				return null;
+			toks.clear();
+			sb = null;
+			tokenStart=0;	
+			
+			if(filter!=null && skipTag())
+				continue;
+			
+			for(;pos<lineLength; pos++) {
+				char c=buf[lineStart+pos];
 
-			if(sb!=null) {
-				toks.add(new Token(sb.toString(), lineNumber, tokenStart));
-				sb=null;
-			}
+				if(sb!=null) {
+					toks.add(new Token(sb.toString(), lineNumber, tokenStart));
+					sb=null;
+				}
 			
-			if(c=='"') {	
-				// handle "" style strings including line continuations
-				handleDoubleQuoteString();
-			} else if(c=='\'') {	
-				// handle character literals				
-				handleCharacterLiteral();
-			} else if("{}=:".indexOf(c)!=-1) {
-				// handle punctuation
-				toks.add(new Token(""+c, lineNumber, pos));
-				sb=null;
-			} else if(c=='#') {	
-				// handle hash comments
-				break;
-			} else if(c=='/') {	
-				// handle /**/ and // style comments
-				
-				if((pos+1)<lineLength &&
-						line.charAt(pos+1)=='/')
+				int cc = charClass(c);
+			
+				if(c=='"') {	
+					// handle "" style strings including line continuations
+					handleDoubleQuoteString();
+				} else if(c=='\'') {	
+					// handle character literals				
+					handleCharacterLiteral();
+				} else if((cc & PUNCTUATION)!=0) {
+					// handle punctuation
+					toks.add(new Token(PUNCTUATION_TEXT[c], lineNumber, pos));
+					sb=null;
+				} else if(c=='#') {	
+					// handle hash comments
 					break;
-				else
-					handleSlashComment();	
-			} else if(c=='`') {	
-				// handle multiline `` style strings				
-				handleBackQuoteString();
-			} else if(c=='[') {	
-				// handle binary literals
+				} else if(c=='/') {	
+					// handle /**/ and // style comments
+				
+					if((pos+1)<lineLength &&
+							charAt(pos+1)=='/')
+						break;
+					else
+						handleSlashComment();	
+				} else if(c=='`') {	
+					// handle multiline `` style strings				
+					handleBackQuoteString();
+				} else if(c=='[') {	
+					// handle binary literals
 				
-				handleBinaryLiteral();
+					handleBinaryLiteral();
 			
-			} else if(c==' ' || c=='\t') {
-				// eat whitespace
-				while((pos+1)<lineLength &&
-						" \t".indexOf(line.charAt(pos+1))!=-1)
-					pos++;	
-			} else if(c=='\\') {
-				// line continuations (outside a string literal)
+				} else if((cc & WHITESPACE)!=0) {
+					// eat whitespace
+					while((pos+1)<lineLength &&
+							(charClass(charAt(pos+1)) & WHITESPACE)!=0)
+						pos++;	
+				} else if(c=='\\') {
+					// line continuations (outside a string literal)
 				
-				// backslash line continuation outside of a String literal
-				// can only occur at the end of a line
-				handleLineContinuation();
-			} else if("0123456789-.".indexOf(c)!=-1) {
-				if(c=='-' && (pos+1)<lineLength &&
-						line.charAt(pos+1)=='-')
-					break;
+					// backslash line continuation outside of a String literal
+					// can only occur at the end of a line
+					handleLineContinuation();
+				} else if((cc & NUMBER_START)!=0) {
+					if(c=='-' && (pos+1)<lineLength &&
+							charAt(pos+1)=='-')
+						break;
 				
-				// handle numbers, dates, and time spans
-				handleNumberDateOrTimeSpan();
-			} else if(Character.isJavaIdentifierStart(c)) {
-				// handle identifiers
-				handleIdentifier();
-			} else {
-				parseException("Unexpected character \"" + c + "\".)",
-						lineNumber, pos);
+					// handle numbers, dates, and time spans
+					handleNumberDateOrTimeSpan();
+				} else if((cc & IDENTIFIER_START)!=0 || (c>=ASCII_SIZE &&
+						Character.isJavaIdentifierStart(c))) {
+					// handle identifiers
+					handleIdentifier();
+				} else {
+					parseException("Unexpected character \"" + c + "\".)",
+							lineNumber, pos);
+				}
 			}
-		}
 		
-		if(sb!=null) {
-			toks.add(new Token(sb.toString(), lineNumber, tokenStart));
-		}
-		
-		// if toks are empty, try another line
-		// this seems a bit dangerous, but eventually we should get a null line
-		// which serves as a termination condition for the recursion
-		while(toks!=null && toks.isEmpty())
-			toks=getLineTokens();
+			if(sb!=null) {
+				toks.add(new Token(sb.toString(), lineNumber, tokenStart));
+			}
+		} while(toks.isEmpty());
 		
 		return toks;
 	}
@@ -482,13 +824,13 @@ class Parser {
 		boolean escaped=false;
 		startEscapedQuoteLine=false;	
 		
-		sb = new StringBuilder("\"");
+		sb = emptyStringBuilder().append('"');
 		pos++;
 		
 		for(;pos<lineLength; pos++) {
-			char c=line.charAt(pos);
+			char c=buf[lineStart+pos];
 
-			if(" \t".indexOf(c)!=-1 && startEscapedQuoteLine)
+			if((charClass(c) & WHITESPACE)!=0 && startEscapedQuoteLine)
 				continue;
 			else
 				startEscapedQuoteLine=false;
@@ -499,7 +841,7 @@ class Parser {
 			} else if(c=='\\') {
 				// check for String broken across lines
 				if(pos==lineLength-1 || (pos+1<lineLength &&
-						" \t".indexOf(line.charAt(pos+1))!=-1)) {
+						(charClass(charAt(pos+1)) & WHITESPACE)!=0)) {
 					handleEscapedDoubleQuotedString();
 				} else {
 					escaped=true;
@@ -516,15 +858,14 @@ class Parser {
 		}
 		
 		if(sb!=null) {
-			String tokString = sb.toString();
-			if(tokString.length()>0 && tokString.charAt(0)=='"' &&
-					tokString.charAt(tokString.length()-1)!='"') {
-				parseException("String literal \"" + tokString +
+			int length = sb.length();
+			if(length>0 && sb.charAt(0)=='"' && sb.charAt(length-1)!='"') {
+				parseException("String literal \"" + sb +
 						"\" not terminated by end quote.", lineNumber,
-						line.length());	
-			} else if(tokString.length()==1 && tokString.charAt(0)=='"') {
+						lineLength);	
+			} else if(length==1 && sb.charAt(0)=='"') {
 				parseException("Orphan quote (unterminated " +
-						"string)", lineNumber, line.length());	
+						"string)", lineNumber, lineLength);	
 			}
 		}	
 	}
@@ -533,29 +874,25 @@ class Parser {
 		throws SDLParseException, IOException {
 		
 		if(pos==lineLength-1) {
-			line = readLine();
-			if(line==null) {
+			if(!readLine()) {
 				parseException("Escape at end of file.", lineNumber,
 						pos);
 			}
 			
-			lineLength = line.length(); 
 			pos=-1;
 			startEscapedQuoteLine=true;
 		} else {
 			// consume whitespace
 			int j=pos+1;
 			while(j<lineLength &&
-					" \t".indexOf(line.charAt(j))!=-1) j++;
+					(charClass(charAt(j)) & WHITESPACE)!=0) j++;
 			
 			if(j==lineLength) {
-				line = readLine();
-				if(line==null) {
+				if(!readLine()) {
 					parseException("Escape at end of file.",
 							lineNumber, pos);
 				}
 					
-				lineLength = line.length(); 
 				pos=-1;
 				startEscapedQuoteLine=true;
 	
@@ -569,59 +906,69 @@ class Parser {
 	}	
 	
 	private void handleCharacterLiteral() throws SDLParseException {
+		char c = scanCharacterLiteral();
+		toks.add(new Token("'" + c + "'", lineNumber, pos-1));
+	}
+	
+	/**
+	 * Check the character literal starting at pos, leaving pos at its closing
+	 * quote
+	 * 
+	 * @return The character
+	 */
+	private char scanCharacterLiteral() throws SDLParseException {
 		if(pos==lineLength-1)
 			parseException("Got ' at end of line", lineNumber, pos);
 		
 		pos++;
 		
-		char c2 = line.charAt(pos);
+		char c2 = charAt(pos);
 		if(c2=='\\') {
 			
 			if(pos==lineLength-1)
 				parseException("Got '\\ at end of line", lineNumber,
 						pos);
 			pos++;
-			char c3 = line.charAt(pos);
+			char c3 = charAt(pos);
 			
 			if(pos==lineLength-1)
 				parseException("Got '\\" + c3 + " at end of " + 
 						"line", lineNumber, pos);
 			
-			if(c3=='\\') {
-				toks.add(new Token("'\\'", lineNumber,
-						pos));
-			} else if(c3=='\'') {
-				toks.add(new Token("'''", lineNumber,
-						pos));
-			} else if(c3=='n') {
-				toks.add(new Token("'\n'", lineNumber,
-						pos));
-			} else if(c3=='r') {
-				toks.add(new Token("'\r'", lineNumber,
-						pos));
-			}  else if(c3=='t') {
-				toks.add(new Token("'\t'", lineNumber,
-						pos));
-			} else {
-				parseException("Illegal escape character " +
-						line.charAt(pos), lineNumber, pos);	
+			switch(c3) {
+				case '\\':
+				case '\'':
+					c2 = c3;
+					break;
+				case 'n':
+					c2 = '\n';
+					break;
+				case 'r':
+					c2 = '\r';
+					break;
+				case 't':
+					c2 = '\t';
+					break;
+				default:
+					parseException("Illegal escape character " +
+							charAt(pos), lineNumber, pos);	
 			}
 			
 			pos++;
-			if(line.charAt(pos)!='\'')
-				expectingButGot("single quote (')", "\"" + line.charAt(
+			if(charAt(pos)!='\'')
+				expectingButGot("single quote (')", "\"" + charAt(
 						pos) + "\"", lineNumber, pos);		
 		} else {
-			toks.add(new Token("'" +  c2 + "'", lineNumber,
-					pos));
 			if(pos==lineLength-1)
 				parseException("Got '" + c2 + " at end of " + 
 						"line", lineNumber, pos);
 			pos++;
-			if(line.charAt(pos)!='\'')
-				expectingButGot("quote (')", "\"" + line.charAt(pos) +
+			if(charAt(pos)!='\'')
+				expectingButGot("quote (')", "\"" + charAt(pos) +
 						"\"", lineNumber, pos);		
 		}
+		
+		return c2;
 	}
 	
 	private void handleSlashComment() throws SDLParseException,
@@ -631,31 +978,29 @@ class Parser {
 			parseException("Got slash (/) at end of line.", lineNumber,
 					pos);
 		
-		if(line.charAt(pos+1)=='*') {
+		if(charAt(pos+1)=='*') {
 	
-			int endIndex = line.indexOf("*/", pos+1);
+			int endIndex = indexOf('*', '/', pos+1);
 			if(endIndex!=-1) {
 				// handle comment on same line
 				pos=endIndex+1;
 			} else {
 				// handle multiline comments
 				inner: while(true) {
-					line = readRawLine();							
-					if(line==null) {
+					if(!readRawLine()) {
 						parseException("/* comment not terminated.",
 							lineNumber, -2);
 					}
 					
-					endIndex = line.indexOf("*/");
+					endIndex = indexOf('*', '/', 0);
 	
 					if(endIndex!=-1) {
-						lineLength = line.length(); 
 						pos=endIndex+1;
 						break inner;
 					}
 				}	
 			}
-		} else if(line.charAt(pos+1)=='/') {
+		} else if(charAt(pos+1)=='/') {
 			parseException("Got slash (/) in unexpected location.", 
 					lineNumber, pos);
 		}
@@ -664,39 +1009,138 @@ class Parser {
 	private void handleBackQuoteString() throws SDLParseException,
 		IOException {
 		
-		int endIndex = line.indexOf("`", pos+1);
+		handleDelimitedLiteral('`', "` quote not terminated.");
+	}
+
+	/**
+	 * Handle a [] binary literal which may span lines.  Unless the parser is
+	 * lazy (and needs the text) the literal is decoded directly from the
+	 * buffer.  Large literals are decoded into an SDLBinary (see
+	 * {@link SDL#setLargeBinaryThreshold(int)}).
+	 */
+	private void handleBinaryLiteral() throws SDLParseException,
+		IOException {
+		
+		if(lazy) {
+			handleDelimitedLiteral(']', "[base64] binary literal not " +
+					"terminated.");
+			return;
+		}
+		
+		int start = pos;
+		int endIndex = indexOf(']', pos+1);
+		Base64Decoder decoder = new Base64Decoder(
+				((endIndex==-1 ? lineLength : endIndex)-pos-1)*3/4);
+		
+		Object value = null;
+		try {
+			if(endIndex!=-1) {
+				decodeBinary(decoder, lineStart+pos+1, lineStart+endIndex);
+				pos=endIndex;
+			} else {
+				decodeBinary(decoder, lineStart+pos+1, lineStart+lineLength);
+				while(true) {
+					if(!readRawLine()) {
+						parseException("[base64] binary literal not " +
+								"terminated.", lineNumber, -2);
+					}
+					
+					endIndex = indexOf(']', 0);
+					if(endIndex!=-1) {
+						decodeBinary(decoder, lineStart, lineStart+endIndex);
+						
+						// see handleDelimitedLiteral()
+						trimLine();
+						
+						pos=endIndex;
+						break;
+					} else {
+						decodeBinary(decoder, lineStart, lineStart+lineLength);
+					}
+				}
+			}
+			
+			byte[] bytes = decoder.finish();
+			value = largeBinary==null ? bytes : largeBinary.toBinary();
+		} catch(Base64.EncodingException bee) {
+			// see parseBinary(String)
+		} catch(IllegalArgumentException iae) {
+			throw new SDLParseException(iae.getMessage(), lineNumber, start);
+		} finally {
+			if(largeBinary!=null) {
+				largeBinary.close();
+				largeBinary=null;
+			}
+		}
+		
+		toks.add(new Token(Type.BINARY, value, lineNumber, start));
+		sb=null;
+	}
+	
+	/**
+	 * Decode buf[start] to buf[end-1] as part of a binary literal.  The
+	 * decoder is moved to a LargeBinaryBuffer when the literal may become
+	 * larger than the threshold.
+	 */
+	private void decodeBinary(Base64Decoder decoder, int start, int end)
+		throws IOException {
+		
+		// at most 3 bytes for each 4 chars plus a final partial quad
+		int count = (end-start)/4*3+3;
+		
+		if(largeBinary!=null) {
+			decoder.setOutput(largeBinary.reserve(count));
+		} else {
+			int threshold = SDL.getLargeBinaryThreshold();
+			if(threshold>0 && (long)decoder.size()+count>threshold) {
+				largeBinary = new LargeBinaryBuffer(
+						SDL.getLargeBinaryDirectory());
+				decoder.setOutput(largeBinary.reserve(decoder.size()+count));
+			}
+		}
+		
+		decoder.decode(buf, start, end);
+	}
+	
+	/**
+	 * Handle a `` string or [] binary literal which may span lines.  New
+	 * lines within the literal are normalized to \n.
+	 */
+	private void handleDelimitedLiteral(char endChar,
+			String notTerminatedMessage) throws SDLParseException,
+		IOException {
+		
+		int endIndex = indexOf(endChar, pos+1);
 		
 		if(endIndex!=-1) {
 			// handle end quote on same line
-			toks.add(new Token(line.substring(pos, endIndex+1),
-					lineNumber, pos));
+			toks.add(new Token(new String(buf, lineStart+pos,
+					endIndex+1-pos), lineNumber, pos));
 			sb=null;					
 			
 			pos=endIndex;
 		} else {
-			
-			sb = new StringBuilder(line.substring(pos) +
-					"\n");
+			sb = emptyStringBuilder();
+			sb.append(buf, lineStart+pos, lineLength-pos).append('\n');
 			int start = pos;
 			// handle multiline quotes
 			inner: while(true) {
-				line = readRawLine();
-				if(line==null) {
-					parseException("` quote not terminated.",
-						lineNumber, -2);
+				if(!readRawLine()) {
+					parseException(notTerminatedMessage, lineNumber, -2);
 				}
 				
-				endIndex = line.indexOf("`");
+				endIndex = indexOf(endChar, 0);
 				if(endIndex!=-1) {
-					sb.append(line.substring(0, endIndex+1));
+					sb.append(buf, lineStart, endIndex+1);
 					
-					line=line.trim();
-					lineLength = line.length(); 
+					// Note: the rest of the line is trimmed but pos is left
+					// at the untrimmed position of the end character
+					trimLine();
 					
 					pos=endIndex;
 					break inner;
 				} else {
-					sb.append(line + "\n");
+					sb.append(buf, lineStart, lineLength).append('\n');
 				}
 			}	
 			
@@ -704,121 +1148,362 @@ class Parser {
 			sb=null;
 		}
 	}
-
-	private void handleBinaryLiteral() throws SDLParseException,
+	
+	/**
+	 * @return The parser's StringBuilder after removing its contents
+	 */
+	private StringBuilder emptyStringBuilder() {
+		stringBuilder.setLength(0);
+		return stringBuilder;
+	}
+	
+	// handle a line continuation (not inside a string)
+	private void handleLineContinuation() throws SDLParseException,
 		IOException {
 		
-		int endIndex = line.indexOf("]", pos+1);
+		if(!isBlank(pos+1)) {
+			parseException("Line continuation (\\) before end of line",
+					lineNumber, pos);
+		} else {
+			if(!readLine()) {
+				parseException("Line continuation at end of file.",
+					lineNumber, pos);
+			}
+				
+			pos=-1;				
+		}
+	}
+	
+	private void handleNumberDateOrTimeSpan() throws SDLParseException {
+		tokenStart=pos;
+		boolean number = scanNumberDateOrTimeSpan();
+		
+		Number n = number ? parseNumber(buf, lineStart+tokenStart,
+				pos-tokenStart) : null;
+		if(n!=null) {
+			toks.add(new Token(Type.NUMBER, n, lineNumber, tokenStart));
+		} else {
+			toks.add(new Token(new String(buf, lineStart+tokenStart,
+					pos-tokenStart), lineNumber, tokenStart));
+		}
+		pos--;
+		sb=null;
+	}
+	
+	private void handleIdentifier() throws SDLParseException {
+		tokenStart=pos;
+		scanIdentifier();
 		
-		if(endIndex!=-1) {
-			// handle end quote on same line
-			toks.add(new Token(line.substring(pos, endIndex+1),
-					lineNumber, pos));
-			sb=null;					
+		toks.add(new Token(SymbolTable.SHARED.get(buf, lineStart+tokenStart,
+				pos-tokenStart), lineNumber, tokenStart));
+		pos--;
+		sb=null;
+	}
+	
+	/**
+	 * Move pos past the number, date or time span starting at pos
+	 * 
+	 * @return true if the literal cannot be a date or time
+	 */
+	private boolean scanNumberDateOrTimeSpan() {
+		boolean number=true;
+		
+		for(;pos<lineLength; ++pos) {
+			char c=buf[lineStart+pos];
 			
-			pos=endIndex;
-		} else {					
-			sb = new StringBuilder(line.substring(pos) +
-					"\n");
-			int start = pos;
-			// handle multiline quotes
-			inner: while(true) {
-				line = readRawLine();
-				if(line==null) {
-					parseException("[base64] binary literal not " +
-							"terminated.", lineNumber, -2);
-				}
-				
-				endIndex = line.indexOf("]");
-				if(endIndex!=-1) {
-					sb.append(line.substring(0, endIndex+1));
-					
-					line=line.trim();
-					lineLength = line.length(); 
-					
-					pos=endIndex;
-					break inner;
+			if(c<ASCII_SIZE ? (CHAR_CLASSES[c] & NUMBER_PART)!=0 :
+					NUMBER_CHARS.indexOf(Character.toLowerCase(c))!=-1) {
+				// part of the literal
+				if(c==':')
+					number=false;
+			} else if(c=='/' && !((pos+1)<lineLength &&
+					charAt(pos+1)=='*')) {
+				// part of a date
+				number=false;
+			} else {
+				break;
+			}
+		}
+		
+		return number;
+	}
+	
+	/**
+	 * Move pos past the identifier starting at pos
+	 */
+	private void scanIdentifier() {
+		for(;pos<lineLength; ++pos) {
+			char c=buf[lineStart+pos];
+			
+			if(!(c<ASCII_SIZE ? (CHAR_CLASSES[c] & IDENTIFIER_PART)!=0 :
+					Character.isJavaIdentifierPart(c))) {
+				break;
+			}
+		}
+	}
+	
+	private static boolean isIdentifierStart(char c) {
+		return (charClass(c) & IDENTIFIER_START)!=0 || (c>=ASCII_SIZE &&
+				Character.isJavaIdentifierStart(c));
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	// Skipping filtered tags
+	////////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * If the line just read starts a tag the filter does not accept, skip the
+	 * rest of the tag and its block.  Only lines which begin with a tag name
+	 * are checked.  Anything else is left for getLineTokens() and
+	 * {@link #parse()}.
+	 * 
+	 * @return true if the tag was skipped
+	 */
+	private boolean skipTag() throws SDLParseException, IOException {
+		while(pos<lineLength && (charClass(buf[lineStart+pos]) &
+				WHITESPACE)!=0)
+			pos++;
+		
+		if(pos==lineLength || !isIdentifierStart(buf[lineStart+pos])) {
+			pos = 0;
+			return false;
+		}
+		
+		int start = pos;
+		scanIdentifier();
+		String namespace = "";
+		String name = SymbolTable.SHARED.get(buf, lineStart+start, pos-start);
+		if(isKeyword(name)) {
+			pos = 0;
+			return false;
+		}
+		
+		while(pos<lineLength && (charClass(buf[lineStart+pos]) &
+				WHITESPACE)!=0)
+			pos++;
+		
+		if(pos<lineLength) {
+			char c = buf[lineStart+pos];
+			if(c==':') {
+				pos++;
+				while(pos<lineLength && (charClass(buf[lineStart+pos]) &
+						WHITESPACE)!=0)
+					pos++;
+				
+				if(pos<lineLength && isIdentifierStart(buf[lineStart+pos])) {
+					start = pos;
+					scanIdentifier();
+					namespace = name;
+					name = SymbolTable.SHARED.get(buf, lineStart+start, pos-start);
 				} else {
-					sb.append(line + "\n");
+					name = null;
 				}
-			}	
+			} else if(c=='\\' || c=='/') {
+				// a continuation or comment could hide a namespace
+				name = null;
+			}
+		}
+		
+		if(name==null || filter.accept(namespace, name)) {
+			pos = 0;
+			return false;
+		}
+		
+		skipLine();
+		if(opensBlock)
+			skipBlock();
+		return true;
+	}
+	
+	private static boolean isKeyword(String identifier) {
+		return identifier.equals("true") || identifier.equals("false") ||
+			identifier.equals("on") || identifier.equals("off") ||
+			identifier.equals("null");
+	}
+	
+	/**
+	 * Skip the lines up to and including the one which closes the block
+	 * opened by the current line
+	 */
+	private void skipBlock() throws SDLParseException, IOException {
+		int depth=1;
+		
+		while(depth>0) {
+			if(!readLine())
+				// see parse()
+				parseException("No close block (}).", lineNumber, -2);
 			
-			toks.add(new Token(sb.toString(), lineNumber, start));
-			sb=null;
+			skipLine();
+			
+			// the same rules used by parse()
+			if(closesBlock)
+				depth--;
+			else if(opensBlock)
+				depth++;
 		}
 	}
 	
-	// handle a line continuation (not inside a string)
-	private void handleLineContinuation() throws SDLParseException,
-		IOException {
+	/**
+	 * Scan the rest of the logical line following the rules used by
+	 * getLineTokens() without creating tokens or decoding literals.
+	 * opensBlock is set if the last token is { and closesBlock is set if the
+	 * first token scanned is }.
+	 */
+	private void skipLine() throws SDLParseException, IOException {
+		boolean firstToken=true;
+		opensBlock=false;
+		closesBlock=false;
 		
-		if(line.substring(pos+1).trim().length()!=0) {
-			parseException("Line continuation (\\) before end of line",
-					lineNumber, pos);
-		} else {
-			line = readLine();
-			if(line==null) {
-				parseException("Line continuation at end of file.",
-					lineNumber, pos);
+		for(;pos<lineLength; pos++) {
+			char c=buf[lineStart+pos];
+			int cc = charClass(c);
+			
+			if((cc & WHITESPACE)!=0) {
+				continue;
+			} else if(c=='#') {
+				break;
+			} else if(c=='/') {
+				if((pos+1)<lineLength && charAt(pos+1)=='/')
+					break;
+				handleSlashComment();
+				continue;
+			} else if(c=='\\') {
+				handleLineContinuation();
+				continue;
+			} else if(c=='-' && (pos+1)<lineLength && charAt(pos+1)=='-') {
+				break;
+			}
+			
+			// c starts a token
+			opensBlock = c=='{';
+			if(firstToken) {
+				closesBlock = c=='}';
+				firstToken=false;
+			}
+			
+			if(c=='"') {
+				skipDoubleQuoteString();
+			} else if(c=='\'') {
+				scanCharacterLiteral();
+			} else if((cc & PUNCTUATION)!=0) {
+				// a single character
+			} else if(c=='`') {
+				skipDelimitedLiteral('`', "` quote not terminated.");
+			} else if(c=='[') {
+				skipDelimitedLiteral(']', "[base64] binary literal not " +
+						"terminated.");
+			} else if((cc & NUMBER_START)!=0) {
+				scanNumberDateOrTimeSpan();
+				pos--;
+			} else if(isIdentifierStart(c)) {
+				scanIdentifier();
+				pos--;
+			} else {
+				parseException("Unexpected character \"" + c + "\".)",
+						lineNumber, pos);
 			}
-				
-			lineLength = line.length(); 
-			pos=-1;				
 		}
 	}
 	
-	private void handleNumberDateOrTimeSpan() throws SDLParseException {
-		tokenStart=pos;
-		sb=new StringBuilder();
-		char c;
-	
-		for(;pos<lineLength; ++pos) {
-			c=line.charAt(pos);
+	/**
+	 * Skip a "" string including line continuations, leaving pos at the
+	 * closing quote.  The same errors are reported as by
+	 * handleDoubleQuoteString().
+	 */
+	private void skipDoubleQuoteString() throws SDLParseException,
+		IOException {
+		
+		boolean escaped=false, empty=true;
+		startEscapedQuoteLine=false;
+		
+		// handleDoubleQuoteString() accepts an unterminated string whose
+		// last character is an escaped quote
+		boolean endsWithQuote=false;
+		
+		for(pos++; pos<lineLength; pos++) {
+			char c=buf[lineStart+pos];
 			
-			if("0123456789.-+:abcdefghijklmnopqrstuvwxyz".indexOf(
-					Character.toLowerCase(c))!=-1) {
-				sb.append(c);
-			} else if(c=='/' && !((pos+1)<lineLength &&
-					line.charAt(pos+1)=='*')) {
-				
-				sb.append(c);
+			if((charClass(c) & WHITESPACE)!=0 && startEscapedQuoteLine)
+				continue;
+			else
+				startEscapedQuoteLine=false;
+			
+			if(escaped) {
+				if("\\\"nrt".indexOf(c)==-1)
+					parseException("Ellegal escape character in " +
+							"string literal: \"" + c + "\".",
+							lineNumber, pos);
+				endsWithQuote = c=='"';
+				empty=false;
+				escaped=false;
+			} else if(c=='\\') {
+				if(pos==lineLength-1 || (charClass(charAt(pos+1)) &
+						WHITESPACE)!=0) {
+					handleEscapedDoubleQuotedString();
+				} else {
+					escaped=true;
+				}
+			} else if(c=='"') {
+				return;
 			} else {
-				pos--;
-				break;
+				endsWithQuote=false;
+				empty=false;
 			}
 		}
 		
-		toks.add(new Token(sb.toString(), lineNumber, tokenStart));
-		sb=null;
+		if(empty)
+			parseException("Orphan quote (unterminated string)", lineNumber,
+					lineLength);
+		else if(!endsWithQuote)
+			parseException("String literal not terminated by end quote.",
+					lineNumber, lineLength);
+		pos--;
 	}
 	
-	private void handleIdentifier() throws SDLParseException {
-		tokenStart=pos;
-		sb=new StringBuilder();
-		char c;
+	/**
+	 * Skip a `` string or [] binary literal which may span lines, leaving pos
+	 * at the end character
+	 */
+	private void skipDelimitedLiteral(char endChar,
+			String notTerminatedMessage) throws SDLParseException,
+		IOException {
 		
-		for(;pos<lineLength; ++pos) {
-			c=line.charAt(pos);
+		int endIndex = indexOf(endChar, pos+1);
+		while(endIndex==-1) {
+			if(!readRawLine())
+				parseException(notTerminatedMessage, lineNumber, -2);
 			
-			if(Character.isJavaIdentifierPart(c) || c=='-') {
-				sb.append(c);
-			} else {
-				pos--;
-				break;
-			}
+			endIndex = indexOf(endChar, 0);
+			if(endIndex!=-1)
+				// see handleDelimitedLiteral()
+				trimLine();
 		}
 		
-		toks.add(new Token(sb.toString(), lineNumber, tokenStart));
-		sb=null;
+		pos=endIndex;
+	}
+	
+	/**
+	 * @return The zero based number of the last line read
+	 */
+	int getLineNumber() {
+		return lineNumber;
+	}
+	
+	/**
+	 * Close the underlying reader (if any)
+	 */
+	void close() throws IOException {
+		if(reader!=null)
+			reader.close();
 	}
 	
 	/**
 	 * Close the reader and throw a SDLParseException
 	 */
-	private void parseException(String description, int line, int position)
+	void parseException(String description, int line, int position)
 		throws SDLParseException {
 		try {
-			reader.close();
+			close();
 		} catch(IOException ioe) { /* no recourse */ }
 		
 		// We add one because editors typically start with line 1 and position 1
@@ -838,48 +1523,191 @@ class Parser {
 				String.valueOf(got), line, position);	
 	}	
 	
+	////////////////////////////////////////////////////////////////////////////
+	// Line buffer
+	////////////////////////////////////////////////////////////////////////////
+	
 	/**
 	 * Skips comment lines and blank lines.
 	 * 
-	 * @return the next line or null at the end of the file.
+	 * @return false at the end of the file
 	 */
-	String readLine() throws IOException {
-		String line = reader.readLine();
-		pos=0;
-
-		if(line==null)
-			return null;
-		lineNumber++;
-		
-		String tLine = line.trim();	
-
-		while(tLine.startsWith("#") || tLine.length()==0) {
-			line = reader.readLine();
-			if(line==null)
-				return null;
+	boolean readLine() throws IOException {
+		while(readRawLine()) {
+			int i = 0;
+			while(i<lineLength && buf[lineStart+i]<=' ')
+				i++;
 			
-			lineNumber++;
-			tLine = line.trim();	
+			if(i<lineLength && buf[lineStart+i]!='#')
+				return true;
 		}
 		
-		return line;
+		return false;
 	}
 	
 	/**
-	 * Reads a "raw" line including lines with comments and blank lines
+	 * Reads a "raw" line including lines with comments and blank lines.  The
+	 * line occupies buf[lineStart] to buf[lineStart+lineLength-1].  Line 
+	 * terminators are the same as those used by BufferedReader.readLine()
+	 * (\n, \r, or \r\n).
 	 * 
-	 * @return the next line or null at the end of the file.
+	 * @return false at the end of the file
 	 */
-	String readRawLine() throws IOException {
-		String line = reader.readLine();
+	boolean readRawLine() throws IOException {
 		pos=0;
-
-		if(line==null)
-			return null;
-		lineNumber++;
-		
-		return line;
-	}	
+		int scan = nextLineStart;
+		
+		while(true) {
+			for(;scan<bufEnd;scan++) {
+				char c = buf[scan];
+				if(c=='\n' || c=='\r') {
+					// we need to see the character after \r to know if it
+					// is part of a \r\n pair
+					if(c=='\r' && scan+1==bufEnd && !eof)
+						break;
+					
+					lineStart = nextLineStart;
+					lineLength = scan-nextLineStart;
+					if(c=='\r' && scan+1<bufEnd && buf[scan+1]=='\n')
+						scan++;
+					nextLineStart = scan+1;
+					lineNumber++;
+					return true;
+				}
+			}
+			
+			if(eof) {
+				if(nextLineStart==bufEnd)
+					return false;
+				
+				lineStart = nextLineStart;
+				lineLength = bufEnd-nextLineStart;
+				nextLineStart = bufEnd;
+				lineNumber++;
+				return true;
+			}
+			
+			// move the unread characters to the front of the buffer and fill
+			// the rest, growing the buffer for very long lines
+			int unread = bufEnd-nextLineStart;
+			if(nextLineStart>0) {
+				System.arraycopy(buf, nextLineStart, buf, 0, unread);
+				scan -= nextLineStart;
+				nextLineStart = 0;
+				bufEnd = unread;
+			}
+			
+			if(bufEnd==buf.length) {
+				char[] newBuf = new char[buf.length*2];
+				System.arraycopy(buf, 0, newBuf, 0, bufEnd);
+				buf = ownBuffer = newBuf;
+			}
+			
+			int read = reader.read(buf, bufEnd, buf.length-bufEnd);
+			if(read==-1)
+				eof=true;
+			else
+				bufEnd+=read;
+		}
+	}
+	
+	/**
+	 * Remove leading and trailing characters <= ' ' from the current line
+	 * (the same characters removed by String.trim())
+	 */
+	private void trimLine() {
+		while(lineLength>0 && buf[lineStart]<=' ') {
+			lineStart++;
+			lineLength--;
+		}
+		while(lineLength>0 && buf[lineStart+lineLength-1]<=' ')
+			lineLength--;
+	}
+	
+	private char charAt(int index) {
+		if(index>=lineLength)
+			throw new StringIndexOutOfBoundsException(index);
+		return buf[lineStart+index];
+	}
+	
+	/**
+	 * @return The index of the character in the current line starting at
+	 *         from or -1 if not found
+	 */
+	private int indexOf(char c, int from) {
+		int end = lineStart+lineLength;
+		for(int i=lineStart+from; i<end; i++)
+			if(buf[i]==c)
+				return i-lineStart;
+		return -1;
+	}
+	
+	/**
+	 * @return The index of the two character sequence c1c2 in the current
+	 *         line starting at from or -1 if not found
+	 */
+	private int indexOf(char c1, char c2, int from) {
+		int end = lineStart+lineLength-1;
+		for(int i=lineStart+from; i<end; i++)
+			if(buf[i]==c1 && buf[i+1]==c2)
+				return i-lineStart;
+		return -1;
+	}
+	
+	/**
+	 * @return true if the current line contains only characters <= ' ' from
+	 *         the given index onward
+	 */
+	private boolean isBlank(int from) {
+		for(int i=from; i<lineLength; i++)
+			if(buf[lineStart+i]>' ')
+				return false;
+		return true;
+	}
+	
+	static int charClass(char c) {
+		return c<ASCII_SIZE ? CHAR_CLASSES[c] : 0;
+	}
+	
+	// character classes used by the lexer
+	static final int ASCII_SIZE = 128;
+	static final int PUNCTUATION = 1;
+	static final int WHITESPACE = 2;
+	static final int NUMBER_START = 4;
+	static final int NUMBER_PART = 8;
+	static final int IDENTIFIER_START = 16;
+	static final int IDENTIFIER_PART = 32;
+	
+	static final String NUMBER_CHARS =
+		"0123456789.-+:abcdefghijklmnopqrstuvwxyz";
+	
+	private static final byte[] CHAR_CLASSES = makeCharClasses();
+	private static byte[] makeCharClasses() {
+		byte[] classes = new byte[ASCII_SIZE];
+		for(char c=0; c<ASCII_SIZE; c++) {
+			int cc = 0;
+			if("{}=:".indexOf(c)!=-1)
+				cc|=PUNCTUATION;
+			if(" \t".indexOf(c)!=-1)
+				cc|=WHITESPACE;
+			if("0123456789-.".indexOf(c)!=-1)
+				cc|=NUMBER_START;
+			if(NUMBER_CHARS.indexOf(Character.toLowerCase(c))!=-1)
+				cc|=NUMBER_PART;
+			if(Character.isJavaIdentifierStart(c))
+				cc|=IDENTIFIER_START;
+			if(Character.isJavaIdentifierPart(c) || c=='-')
+				cc|=IDENTIFIER_PART;
+			classes[c]=(byte)cc;
+		}
+		return classes;
+	}
+	
+	private static final String[] PUNCTUATION_TEXT = new String[ASCII_SIZE];
+	static {
+		for(char c:"{}=:".toCharArray())
+			PUNCTUATION_TEXT[c]=String.valueOf(c);
+	}
 	
 	enum Type {
 		IDENTIFIER,
@@ -892,42 +1720,138 @@ class Parser {
 	}
 	
 	/**
-	 * Combine a date only calendar with a TimeSpanWithZone to create a 
-	 * date-time calendar 
+	 * Combine a date with a TimeSpanWithZone to create a date-time calendar 
 	 */
-	private static Calendar combine(Calendar dc, TimeSpanWithZone tswz) {		
+	private static Calendar combine(DateFields date, TimeSpanWithZone tswz) {
 		TimeZone tz = tswz.getTimeZone();
 		if(tz==null)
 			tz=TimeZone.getDefault();
 		
-		Calendar cc = new GregorianCalendar(tz);
+		return date.toCalendar(tz, tswz.getHours(), tswz.getMinutes(),
+				tswz.getSeconds(), tswz.getMilliseconds());
+	}
+	
+	/**
+	 * Create a calendar in the given zone with all of its fields computed.
+	 * The calendar is cloned from a cleared prototype for the zone and the
+	 * default locale.  This is much cheaper than constructing a
+	 * GregorianCalendar, which computes all of its fields for the current
+	 * time before we set them.
+	 */
+	private static Calendar newCalendar(TimeZone tz, int year, int month,
+			int day, int hour, int minute, int second, int millisecond) {
+		
+		// the locale sets the first day of the week and the minimal days in
+		// the first week, so the prototypes are replaced when it changes
+		Locale locale = Locale.getDefault();
+		Prototypes prototypes = Parser.prototypes;
+		if(!prototypes.locale.equals(locale)) {
+			prototypes = new Prototypes(locale);
+			Parser.prototypes = prototypes;
+		}
+		
+		Calendar prototype = prototypes.calendars.get(tz);
+		if(prototype==null) {
+			prototype = new GregorianCalendar((TimeZone)tz.clone(), locale);
+			prototype.clear();
+			if(prototypes.calendars.size()<MAX_ZONES)
+				prototypes.calendars.putIfAbsent(prototype.getTimeZone(),
+						prototype);
+		}
 		
-		cc.set(Calendar.YEAR, dc.get(Calendar.YEAR));
-		cc.set(Calendar.MONTH, dc.get(Calendar.MONTH));
-		cc.set(Calendar.DAY_OF_MONTH, dc.get(Calendar.DAY_OF_MONTH));
+		// Calendar.clone() also clones the zone
+		Calendar cal = (Calendar)prototype.clone();
+		cal.set(year, month, day, hour, minute, second);
+		cal.set(Calendar.MILLISECOND, millisecond);
 		
-		cc.set(Calendar.HOUR_OF_DAY, tswz.getHours());					
-		cc.set(Calendar.MINUTE, tswz.getMinutes());
-		cc.set(Calendar.SECOND, tswz.getSeconds());					
-		cc.set(Calendar.MILLISECOND, tswz.getMilliseconds());
+		// compute the time and all the fields (this also marks the fields as
+		// set)
+		cal.get(Calendar.YEAR);
 		
-		// deal with calendar bug where fields are not
-		// marked as set unless you fetch that particular
-		// field
-		cc.get(Calendar.YEAR);
-		cc.get(Calendar.MONTH);
-		cc.get(Calendar.DAY_OF_MONTH);
+		return cal;
+	}
+	
+	// Time zones by ID and cleared calendars by time zone.
+	// TimeZone.getTimeZone is synchronized and searches the zone data on
+	// every call.  Zones and prototypes are never modified once they are
+	// cached.  Clones are handed out because TimeZone and Calendar are
+	// mutable.  Zone IDs come from documents so the caches are bounded.
+	private static final int MAX_ZONES = 256;
+	private static final ConcurrentMap<String,TimeZone> ZONES =
+		new ConcurrentHashMap<String,TimeZone>();
+	private static volatile Prototypes prototypes =
+		new Prototypes(Locale.getDefault());
+	
+	/**
+	 * Cleared calendars by time zone for one default locale
+	 */
+	private static class Prototypes {
+		final Locale locale;
+		final ConcurrentMap<TimeZone,Calendar> calendars =
+			new ConcurrentHashMap<TimeZone,Calendar>();
 		
-		cc.get(Calendar.HOUR_OF_DAY);
-		cc.get(Calendar.MINUTE);
-		cc.get(Calendar.SECOND);
-		cc.get(Calendar.MILLISECOND);
-				
-		if(tz!=null)
-			cc.setTimeZone(tz);
+		Prototypes(Locale locale) {
+			this.locale = locale;
+		}
+	}
+	
+	/**
+	 * @return The same zone as TimeZone.getTimeZone(id)
+	 */
+	static TimeZone getTimeZone(String id) {
+		TimeZone tz = ZONES.get(id);
+		if(tz==null) {
+			tz = TimeZone.getTimeZone(id);
+			if(ZONES.size()<MAX_ZONES)
+				ZONES.putIfAbsent(id, tz);
+		}
+		return (TimeZone)tz.clone();
+	}
+	
+	/**
+	 * The year, month (starting with 0), and day of a date literal.  DATE
+	 * tokens hold this rather than a Calendar because a date followed by a
+	 * time is combined into a single date-time Calendar.
+	 */
+	static class DateFields {
 		
-		return cc;		
-	}	
+		final int year, month, day;
+		
+		DateFields(int year, int month, int day) {
+			this.year=year;
+			this.month=month;
+			this.day=day;
+		}
+		
+		/**
+		 * @return A date only Calendar in the default time zone
+		 */
+		Calendar toCalendar() {
+			return newCalendar(TimeZone.getDefault(), year, month, day, 0, 0,
+					0, 0);
+		}
+		
+		/**
+		 * @return A date-time Calendar in the given time zone
+		 */
+		Calendar toCalendar(TimeZone tz, int hour, int minute, int second,
+				int millisecond) {
+			
+			int y=year, m=month, d=day;
+			if(y<1 || m<0 || d<1) {
+				// A lenient calendar moves these dates into the BC era.
+				// Date-times have always taken the normalized year, month,
+				// and day of the date in the AD era.
+				Calendar dc = toCalendar();
+				y = dc.get(Calendar.YEAR);
+				m = dc.get(Calendar.MONTH);
+				d = dc.get(Calendar.DAY_OF_MONTH);
+			}
+			
+			return newCalendar(tz, y, m, d, hour, minute, second,
+					millisecond);
+		}
+	}
 	
 	/**
 	 * An SDL token.  
@@ -972,11 +1896,13 @@ class Parser {
 					object=false;
 				} else if(text.startsWith("[")) {
 					type=Type.BINARY;
-					object=parseBinary(text);
+					object=lazy ? new LazyLiteral(text, null, line, position) :
+						parseBinary(text);
 				} else if(text.charAt(0)!='/' && text.indexOf('/')!=-1 &&
 						text.indexOf(':')==-1) {
 					type=Type.DATE;
-					object=Parser.parseDateTime(text);
+					object=lazy ? new LazyLiteral(text, null, line, position) :
+						parseDateFields(text);
 				} else if(text.charAt(0)!=':' && text.indexOf(':')!=-1) {
 					type=Type.TIME;
 					object=parseTimeSpanWithZone(text);
@@ -1005,12 +1931,27 @@ class Parser {
 			literal =  type!=Type.IDENTIFIER && !punctuation;
 		}
 		
+		/**
+		 * Create a literal token whose value has already been decoded.  The
+		 * text of the token is null.
+		 */
+		Token(Type type, Object object, int line, int position) {
+			this.type=type;
+			this.object=object;
+			this.line=line;
+			this.position=position;
+			literal=true;
+		}
+		
 		Object getObjectForLiteral() {
+			if(object instanceof DateFields)
+				return ((DateFields)object).toCalendar();
 			return object;
 		}
 		
 		public String toString() {
-			return type + " " + text + " pos:" + position;
+			return type + " " + (text==null ? object : text) + " pos:" +
+				position;
 		}
 		
 		// This special parse method is used only by the Token class for
@@ -1143,6 +2084,45 @@ class Parser {
 		return 0-val;
 	}
 
+	/**
+	 * The raw text of a date, date/time, or binary literal whose decoding
+	 * has been deferred.  See {@link Parser#setLazy(boolean)}.
+	 */
+	static class LazyLiteral {
+		
+		private String text;
+		private TimeSpanWithZone time;
+		private int line, position;
+		
+		LazyLiteral(String text, TimeSpanWithZone time, int line,
+				int position) {
+			this.text=text;
+			this.time=time;
+			this.line=line;
+			this.position=position;
+		}
+		
+		/**
+		 * @return The value described by the literal
+		 * @throws IllegalArgumentException If the literal is malformed
+		 */
+		Object decode() {
+			try {
+				if(text.charAt(0)=='[')
+					return parseBinary(text);
+				
+				if(time==null)
+					return parseDateTime(text);
+				return combine(parseDateFields(text), time);
+			} catch(IllegalArgumentException iae) {
+				// line and position start with 1 to be consistent with
+				// SDLParseException
+				throw new IllegalArgumentException(iae.getMessage() +
+						" Line " + (line+1) + ", Position " + (position+1));
+			}
+		}
+	}
+	
 	// An intermediate object used to store a time span or the time
 	// component of a date/time instance.  The types are disambiguated at
 	// a later stage.
@@ -1161,7 +2141,7 @@ class Parser {
 			this.milliseconds=milliseconds;
 			
 			if(timeZone!=null)
-				this.timeZone=TimeZone.getTimeZone(timeZone);
+				this.timeZone=Parser.getTimeZone(timeZone);
 		}			
 		
 		int getDays() { return days; }
@@ -1252,12 +2232,108 @@ class Parser {
 				">");
 	}	
 	
+	/**
+	 * Decode the number literal chars[start] to chars[start+length-1]
+	 * without creating intermediate Strings.  Only the common forms are
+	 * handled: an optional minus sign, digits with an optional fraction, and
+	 * an optional L, F, D, or BD suffix.  Floats and doubles are only decoded
+	 * when dividing the digits by a power of ten gives the same (correctly
+	 * rounded) result as Float.valueOf or Double.valueOf.  Ints and longs use
+	 * the cached boxes.
+	 * 
+	 * @return The number or null if the literal must be parsed by
+	 *         {@link #parseNumber(String)}
+	 */
+	static Number parseNumber(char[] chars, int start, int length) {
+		int i=start, end=start+length;
+		boolean negative = i<end && chars[i]=='-';
+		if(negative)
+			i++;
+		
+		long digits=0;
+		int digitCount=0, fractionDigits=0;
+		boolean hasDot=false;
+		
+		for(;i<end;i++) {
+			char c=chars[i];
+			if(c>='0' && c<='9') {
+				// 18 digits always fit in a long
+				if(++digitCount>18)
+					return null;
+				digits = digits*10 + (c-'0');
+				if(hasDot)
+					fractionDigits++;
+			} else if(c=='.' && !hasDot) {
+				hasDot=true;
+			} else {
+				break;
+			}
+		}
+		
+		if(digitCount==0 || (hasDot && fractionDigits==0))
+			return null;
+		
+		long value = negative ? -digits : digits;
+		int suffixLength = end-i;
+		
+		if(suffixLength==0) {
+			if(hasDot)
+				return toDouble(digits, fractionDigits, negative);
+			if(value<Integer.MIN_VALUE || value>Integer.MAX_VALUE)
+				return null;
+			return Integer.valueOf((int)value);
+		} else if(suffixLength==1) {
+			switch(chars[i]) {
+				case 'L': case 'l':
+					return hasDot ? null : Long.valueOf(value);
+				case 'F': case 'f':
+					return toFloat(digits, fractionDigits, negative);
+				case 'D': case 'd':
+					return toDouble(digits, fractionDigits, negative);
+			}
+		} else if(suffixLength==2 && (chars[i]=='B' || chars[i]=='b') &&
+				(chars[i+1]=='D' || chars[i+1]=='d')) {
+			return new BigDecimal(chars, start, length-2);
+		}
+		
+		return null;
+	}
+	
+	private static Double toDouble(long digits, int fractionDigits,
+			boolean negative) {
+		
+		// integers below 10^15 and powers of ten up to 10^22 are exact
+		if(digits>=1000000000000000L)
+			return null;
+		double d = digits / DOUBLE_POWERS_OF_TEN[fractionDigits];
+		return Double.valueOf(negative ? -d : d);
+	}
+	
+	private static Float toFloat(long digits, int fractionDigits,
+			boolean negative) {
+		
+		// integers up to 2^24 and powers of ten up to 10^10 are exact
+		if(digits>(1<<24) || fractionDigits>10)
+			return null;
+		float f = digits / FLOAT_POWERS_OF_TEN[fractionDigits];
+		return Float.valueOf(negative ? -f : f);
+	}
+	
+	private static final double[] DOUBLE_POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+		1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+	};
+	
+	private static final float[] FLOAT_POWERS_OF_TEN = {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+	};
+	
 	static Calendar parseDateTime(String literal) {
 		int spaceIndex = literal.indexOf(' ');
 		if(spaceIndex==-1) {
 			return parseDate(literal);
 		} else {
-			Calendar dc = parseDate(literal.substring(0,spaceIndex));
+			DateFields date = parseDateFields(literal.substring(0,spaceIndex));
 			String timeString = literal.substring(spaceIndex+1);
 			
 			int dashIndex = timeString.indexOf('-');
@@ -1307,26 +2383,48 @@ class Parser {
 			}
 			
 			TimeZone tz = (tzString==null) ? TimeZone.getDefault() :
-				TimeZone.getTimeZone(tzString);
-			
-			GregorianCalendar gc = new GregorianCalendar(tz);
-			gc.set(dc.get(Calendar.YEAR), dc.get(Calendar.MONTH),
-					dc.get(Calendar.DAY_OF_MONTH), hour, minute, second);
-			gc.set(Calendar.MILLISECOND, millisecond);
-			gc.getTime();
+				getTimeZone(tzString);
 			
-			return gc;
+			return date.toCalendar(tz, hour, minute, second, millisecond);
 		}
 	}
 	
 	static Calendar parseDate(String literal) {
+		return parseDateFields(literal).toCalendar();
+	}
+	
+	/**
+	 * Parse the year, month, and day of a date literal.  Literals made of
+	 * three groups of ASCII digits are decoded without creating Strings.
+	 */
+	static DateFields parseDateFields(String literal) {
+		int[] fields = new int[3];
+		int field=0, digits=0, length=literal.length();
+		
+		for(int i=0; i<length; i++) {
+			char c = literal.charAt(i);
+			if(c>='0' && c<='9' && digits<9) {
+				fields[field] = fields[field]*10 + (c-'0');
+				digits++;
+			} else if(c=='/' && digits>0 && field<2) {
+				field++;
+				digits=0;
+			} else {
+				field=-1;
+				break;
+			}
+		}
+		
+		if(field==2 && digits>0)
+			return new DateFields(fields[0], fields[1]-1, fields[2]);
+		
 		String[] comps = literal.split("/");
 		if(comps.length!=3)
 			throw new IllegalArgumentException("Malformed Date <" +
 				literal + ">");
 		
 		try {
-			return new GregorianCalendar(
+			return new DateFields(
 					Integer.parseInt(comps[0]),
 					Integer.parseInt(comps[1])-1,
 					Integer.parseInt(comps[2])
@@ -1339,18 +2437,13 @@ class Parser {
 	}
 	
 	static byte[] parseBinary(String literal) {
-		String stripped = literal.substring(1, literal.length()-1);
-		StringBuilder sb = new StringBuilder();
-		int btLength = stripped.length();
-		for(int i=0; i<btLength; i++) {
-			char c = stripped.charAt(i);
-			if("\n\r\t ".indexOf(c)==-1)
-				sb.append(c);
-		}
-				
+		int end = literal.length()-1;
+		Base64Decoder decoder = new Base64Decoder((end-1)*3/4);
+		decoder.decode(literal, 1, end);
+		
 		byte[] bytes = null;
 		try {
-			bytes=Base64.decode(sb.toString());
+			bytes=decoder.finish();
 		} catch(Base64.EncodingException bee) {
 			new IllegalArgumentException(bee.getMessage());
 		}
@@ -0,0 +1,156 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Decides which tags are read by a parser given a set of paths such as
+ * "server/database/*".  Each path is a list of segments separated by slashes
+ * starting at the top level of the document.  A segment is a tag name (which
+ * matches tags with that name in any namespace), "namespace:name", or "*"
+ * (which matches any tag).  "namespace:*" matches any tag in the
+ * namespace.</p>
+ *
+ * <p>A tag whose path matches a filter is accepted along with all of its
+ * descendants.  A tag whose path is a prefix of a filter is also accepted
+ * because it leads to tags that may match.  Everything else is skipped.</p>
+ *
+ * <p>The filter tracks the blocks opened by accepted tags, so one instance
+ * can only be used by one parser.</p>
+ */
+class PathFilter {
+
+	// the segments of each path (null matches anything)
+	private String[][] namespaces;
+	private String[][] names;
+
+	// the tags whose blocks are open, outermost first
+	private List<String> openNamespaces = new ArrayList<String>();
+	private List<String> openNames = new ArrayList<String>();
+
+	// the number of open blocks when a tag matching a whole path was opened
+	// or -1 if there is no such tag
+	private int matchDepth=-1;
+
+	/**
+	 * @param paths The paths to accept
+	 * @throws IllegalArgumentException If a path is null, empty, or has an
+	 *         empty segment
+	 */
+	PathFilter(String... paths) {
+		namespaces = new String[paths.length][];
+		names = new String[paths.length][];
+
+		for(int i=0; i<paths.length; i++) {
+			String path = paths[i];
+			if(path==null || path.length()==0)
+				throw new IllegalArgumentException("Path cannot be null or " +
+						"empty");
+
+			String[] segments = path.split("/", -1);
+			namespaces[i] = new String[segments.length];
+			names[i] = new String[segments.length];
+
+			for(int j=0; j<segments.length; j++) {
+				String segment = segments[j];
+				String namespace = "*";
+
+				int colon = segment.indexOf(':');
+				if(colon!=-1) {
+					namespace = segment.substring(0, colon);
+					segment = segment.substring(colon+1);
+				}
+
+				if(namespace.length()==0 || segment.length()==0)
+					throw new IllegalArgumentException("Empty segment in " +
+							"path \"" + path + "\"");
+
+				namespaces[i][j] = namespace.equals("*") ? null : namespace;
+				names[i][j] = segment.equals("*") ? null : segment;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the tag with the given namespace and name, appearing
+	 *         at the current position in the document, should be read
+	 */
+	boolean accept(String namespace, String name) {
+		if(matchDepth!=-1)
+			return true;
+
+		for(int i=0; i<names.length; i++)
+			if(matches(i, namespace, name))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Called when an accepted tag opens a block
+	 */
+	void push(String namespace, String name) {
+		int depth = openNames.size();
+
+		if(matchDepth==-1) {
+			for(int i=0; i<names.length; i++) {
+				if(names[i].length==depth+1 && matches(i, namespace, name)) {
+					matchDepth=depth;
+					break;
+				}
+			}
+		}
+
+		openNamespaces.add(namespace);
+		openNames.add(name);
+	}
+
+	/**
+	 * Called when the block of an accepted tag is closed
+	 */
+	void pop() {
+		int depth = openNames.size()-1;
+		openNamespaces.remove(depth);
+		openNames.remove(depth);
+
+		if(matchDepth==depth)
+			matchDepth=-1;
+	}
+
+	/**
+	 * @return true if the open blocks followed by the given tag match the
+	 *         start of path i
+	 */
+	private boolean matches(int i, String namespace, String name) {
+		int depth = openNames.size();
+		if(names[i].length<=depth)
+			return false;
+
+		for(int j=0; j<depth; j++)
+			if(!matches(i, j, openNamespaces.get(j), openNames.get(j)))
+				return false;
+
+		return matches(i, depth, namespace, name);
+	}
+
+	private boolean matches(int i, int j, String namespace, String name) {
+		return (namespaces[i][j]==null || namespaces[i][j].equals(namespace))
+			&& (names[i][j]==null || names[i][j].equals(name));
+	}
+}
@@ -16,13 +16,17 @@
  */
 package org.ikayzo.sdl;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import org.ikayzo.codec.Base64;
 
 /**
@@ -56,6 +60,13 @@ public class SDL {
 	public static final String DATE_TIME_FORMAT = DATE_FORMAT + " " +
 		TIME_FORMAT;	
 	
+	// see setCacheSize(int)
+	private static volatile LiteralCache cache;
+	
+	// see setLargeBinaryThreshold(int)
+	private static volatile int largeBinaryThreshold;
+	private static volatile File largeBinaryDirectory;
+	
 	/**
 	 * Create an SDL string representation for an object (note: Strings and 
 	 * Characters will be surrounded by quotes)
@@ -95,8 +106,20 @@ public class SDL {
 			return object.toString() + "L";
 		} else if(object instanceof byte[]) {
 			return "[" + Base64.encode((byte[])object) + "]";
+		} else if(object instanceof SDLBinary) {
+			SDLBinary binary = (SDLBinary)object;
+			StringBuilder sb = new StringBuilder((binary.length()+2)/3*4+2);
+			try {
+				binary.appendBase64(sb.append('['));
+			} catch(IOException ioe) {
+				// Cannot happen
+				throw new InternalError("IOException appending to a " +
+						"StringBuilder");
+			}
+			return sb.append(']').toString();
 		} else if(object instanceof Calendar) {
 			Calendar c = (Calendar)object;
+			CalendarFormatter formatter = CalendarFormatter.get();
 
 			if(c.isSet(Calendar.HOUR_OF_DAY)) {
 				
@@ -108,19 +131,12 @@ public class SDL {
 					c.get(Calendar.SECOND)==0 &&
 					c.get(Calendar.MILLISECOND)==0
 					) {
-					SimpleDateFormat sdf = new SimpleDateFormat(
-							DATE_FORMAT);	
-					return sdf.format(c.getTime());		
-				} else {				
-					SimpleDateFormat sdf = new SimpleDateFormat(
-							DATE_TIME_FORMAT);	
-					sdf.setTimeZone(c.getTimeZone());	
-					return sdf.format(c.getTime());
+					return formatter.formatDate(c);
+				} else {
+					return formatter.formatDateTime(c);
 				}
 			} else {
-				SimpleDateFormat sdf = new SimpleDateFormat(
-						DATE_FORMAT);	
-				return sdf.format(c.getTime());					
+				return formatter.formatDate(c);
 			}
 		}
 		
@@ -172,7 +188,7 @@ public class SDL {
 	 * <p>Coercion table</p>
 	 * <pre>
 	 *     String, Character, Integer, Long, Float, Double, BigDecimal,
-	 *         Boolean, Calendar, SDLTimeSpan -> No change
+	 *         Boolean, Calendar, SDLTimeSpan, SDLBinary -> No change
 	 *     Byte[] -> byte[]
 	 *     Byte, Short -> Integer
 	 *     Date -> Calendar
@@ -192,7 +208,8 @@ public class SDL {
 		   obj instanceof Integer || obj instanceof Boolean ||
 		   obj instanceof BigDecimal || obj instanceof Long ||
 		   obj instanceof Character || obj instanceof Float ||
-		   obj instanceof Calendar || obj instanceof SDLTimeSpan) {
+		   obj instanceof Calendar || obj instanceof SDLTimeSpan ||
+		   obj instanceof SDLBinary) {
 			
 			return obj;
 		}
@@ -258,6 +275,91 @@ public class SDL {
 						"letters, digits, underscores (_), or dashes (-)");					
 	}
 
+	/**
+	 * <p>Cache the results of {@link #value(String)}, {@link #list(String)},
+	 * and {@link #map(String)} for up to maxSize different strings.  This
+	 * helps applications which parse the same text repeatedly, such as
+	 * values from request headers.  The least recently used strings are
+	 * evicted when the cache is full.  See {@link LiteralCache}.</p>
+	 * 
+	 * <p>Each call replaces the cache (and its statistics) with an empty
+	 * one.  A size of zero turns caching off, which is the default.</p>
+	 * 
+	 * @param maxSize The maximum number of strings cached or 0 for no cache
+	 * @throws IllegalArgumentException If maxSize is negative
+	 */
+	public static void setCacheSize(int maxSize) {
+		if(maxSize<0)
+			throw new IllegalArgumentException("Cache size cannot be " +
+					"negative");
+		
+		cache = maxSize==0 ? null : new LiteralCache(maxSize);
+	}
+	
+	/**
+	 * @return The cache used by {@link #value(String)}, {@link #list(String)},
+	 *         and {@link #map(String)} or null if caching is off (see
+	 *         {@link #setCacheSize(int)})
+	 */
+	public static LiteralCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * <p>Read binary literals larger than the threshold (in bytes) as
+	 * {@link SDLBinary} values stored outside the heap rather than as byte[].
+	 * This keeps documents with many large embedded blobs, such as images,
+	 * from filling the heap.  The parser decides while decoding, so a literal
+	 * containing whitespace may be stored outside the heap when it is
+	 * slightly smaller than the threshold.</p>
+	 * 
+	 * <p>The bytes are stored in direct memory unless a directory is set
+	 * with {@link #setLargeBinaryDirectory(File)}.  Lazy reads and
+	 * {@link #value(String)} always return byte[].  A threshold of zero,
+	 * the default, turns this off.</p>
+	 * 
+	 * @param threshold The size above which binary literals are stored
+	 *        outside the heap or 0 to always use byte[]
+	 * @throws IllegalArgumentException If threshold is negative
+	 */
+	public static void setLargeBinaryThreshold(int threshold) {
+		if(threshold<0)
+			throw new IllegalArgumentException("Large binary threshold " +
+					"cannot be negative");
+		largeBinaryThreshold = threshold;
+	}
+	
+	/**
+	 * @return The size above which binary literals are stored outside the
+	 *         heap or 0 if they are always read as byte[] (see
+	 *         {@link #setLargeBinaryThreshold(int)})
+	 */
+	public static int getLargeBinaryThreshold() {
+		return largeBinaryThreshold;
+	}
+	
+	/**
+	 * Store large binary literals (see {@link #setLargeBinaryThreshold(int)})
+	 * in memory mapped temporary files in the given directory.  The files are
+	 * deleted as soon as they are mapped (or when the VM exits on systems
+	 * which do not allow deleting open files).
+	 * 
+	 * @param directory The directory for the temporary files or null to
+	 *        store large binary literals in direct memory
+	 */
+	public static void setLargeBinaryDirectory(File directory) {
+		largeBinaryDirectory = directory;
+	}
+	
+	/**
+	 * @return The directory for large binary literals or null if they are
+	 *         stored in direct memory (see
+	 *         {@link #setLargeBinaryDirectory(File)})
+	 */
+	public static File getLargeBinaryDirectory() {
+		return largeBinaryDirectory;
+	}
+	
 	/**
 	 * Get the value represented by a string containing an SDL literal.
 	 * 
@@ -272,6 +374,11 @@ public class SDL {
 			throw new IllegalArgumentException("literal argument to " +
 					"SDL.value(String) cannot be null");
 		
+		LiteralCache cache = SDL.cache;
+		return cache==null ? parseValue(literal) : cache.value(literal);
+	}
+	
+	static Object parseValue(String literal) {
 		if(literal.startsWith("\"") || literal.startsWith("`"))
 			return Parser.parseString(literal);
 		if(literal.startsWith("'"))
@@ -325,9 +432,29 @@ public class SDL {
 			throw new IllegalArgumentException("valueList argument to " +
 					"SDL.list(String) cannot be null");
 		
-		try {	
+		LiteralCache cache = SDL.cache;
+		return cache==null ? parseList(valueList) : cache.list(valueList);
+	}
+	
+	static List<Object> parseList(String valueList) {
+		try {
+			// a single line of literals is read without creating Tags
+			Parser parser = Parser.obtain(valueList);
+			try {
+				List<Object> values = parser.parseValueList();
+				if(values!=null)
+					return values;
+			} catch(SDLParseException spe) {
+				// read it as a document below to report the error
+			} finally {
+				parser.release();
+			}
+			
 			return new Tag("root").read(valueList).getChild("content")
 				.getValues();
+		} catch(IOException ioe) {
+			// Cannot happen
+			throw new InternalError("IOException reading a String");
 		} catch(SDLParseException spe) {
 			throw new IllegalArgumentException(spe.getMessage());
 		}
@@ -365,11 +492,69 @@ public class SDL {
 			throw new IllegalArgumentException("attributeString argument to " +
 					"SDL.map(String) cannot be null");
 		
-		try {	
-			return new Tag("root").read("atts " + attributeString)
-				.getChild("atts").getAttributes();
+		LiteralCache cache = SDL.cache;
+		return cache==null ? parseMap(attributeString) :
+			cache.map(attributeString);
+	}
+	
+	static SortedMap<String,Object> parseMap(String attributeString) {
+		try {
+			// a single line of attributes is read without creating Tags
+			Parser parser = Parser.obtain(attributeString);
+			try {
+				SortedMap<String,Object> attributes =
+					parser.parseAttributeList();
+				if(attributes!=null)
+					return attributes;
+			} catch(SDLParseException spe) {
+				// read it as a document below to report the error
+			} finally {
+				parser.release();
+			}
+			
+			// a copy, as the tag's view is not safe to share between threads
+			return Collections.unmodifiableSortedMap(new TreeMap<String,Object>(
+					new Tag("root").read("atts " + attributeString)
+					.getChild("atts").getAttributes()));
+		} catch(IOException ioe) {
+			// Cannot happen
+			throw new InternalError("IOException reading a String");
 		} catch(SDLParseException spe) {
 			throw new IllegalArgumentException(spe.getMessage());
 		}
 	}	
+
+	/**
+	 * <p>Parse an SDL document reporting each tag, value, and attribute to
+	 * the given handler rather than building Tags.  This is the most
+	 * efficient way to copy SDL data into your own data structures.</p>
+	 * 
+	 * <p>Example
+	 * <pre>
+	 *     SDL.parse(new FileReader("data.sdl"), new SDLHandler() {
+	 *         public void startTag(String namespace, String name) { ... }
+	 *         public void value(Object value) { ... }
+	 *         public void attribute(String namespace, String key,
+	 *             Object value) { ... }
+	 *         public void endTag() { ... }
+	 *     });
+	 * </pre>
+	 * </p>
+	 * 
+	 * @param reader A reader containing SDL source (closed when parsing
+	 *     completes)
+	 * @param handler The handler to which parse events are reported
+	 * @throws IOException If there is an IO problem reading the source 
+	 * @throws SDLParseException If the SDL input is malformed
+	 */
+	public static void parse(Reader reader, SDLHandler handler)
+		throws IOException, SDLParseException {
+		
+		Parser parser = Parser.obtain(reader);
+		try {
+			parser.parse(handler);
+		} finally {
+			parser.release();
+		}
+	}
 }
@@ -0,0 +1,146 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import org.ikayzo.codec.Base64;
+
+/**
+ * <p>An immutable binary value whose bytes are held in a ByteBuffer rather
+ * than a byte[].  The parser creates SDLBinary values for binary literals
+ * larger than {@link SDL#setLargeBinaryThreshold(int)} so large blobs are
+ * stored in direct memory or a memory mapped temporary file instead of the
+ * heap.  Smaller binary literals are still read as byte[].</p>
+ *
+ * <p>SDLBinary values are written as base64 literals the same way as byte[]
+ * values.  The base64 text is produced from the buffer in small pieces.</p>
+ */
+public final class SDLBinary implements Serializable {
+
+	private static final long serialVersionUID = 6285940375619283710L;
+
+	// read only with the bytes between 0 and the limit
+	private transient ByteBuffer bytes;
+
+	/**
+	 * Create a binary value for the bytes between the buffer's position and
+	 * limit.  The bytes are not copied, so they must not be changed through
+	 * the given buffer.
+	 *
+	 * @param bytes The bytes of this value
+	 * @throws IllegalArgumentException If bytes is null
+	 */
+	public SDLBinary(ByteBuffer bytes) {
+		if(bytes==null)
+			throw new IllegalArgumentException("Bytes cannot be null");
+		this.bytes = bytes.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return The number of bytes
+	 */
+	public int length() {
+		return bytes.limit();
+	}
+
+	/**
+	 * @return A read only buffer containing the bytes with its position at
+	 *         0 (each call returns a new buffer sharing the same bytes)
+	 */
+	public ByteBuffer getBuffer() {
+		return bytes.duplicate();
+	}
+
+	/**
+	 * @return A copy of the bytes in an array
+	 */
+	public byte[] toByteArray() {
+		byte[] array = new byte[bytes.limit()];
+		bytes.duplicate().get(array);
+		return array;
+	}
+
+	/**
+	 * Append the base64 encoding of the bytes (without brackets) to out.
+	 *
+	 * @throws IOException If out throws an IOException
+	 */
+	public void appendBase64(Appendable out) throws IOException {
+		Base64.encode(bytes, out);
+	}
+
+	/**
+	 * @return true if o is an SDLBinary with the same bytes
+	 */
+	public boolean equals(Object o) {
+		return o instanceof SDLBinary && ((SDLBinary)o).bytes.equals(bytes);
+	}
+
+	/**
+	 * @return A hash of the bytes
+	 */
+	public int hashCode() {
+		return bytes.hashCode();
+	}
+
+	/**
+	 * @return An SDL binary literal
+	 */
+	public String toString() {
+		return SDL.format(this);
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+
+		ByteBuffer source = bytes.duplicate();
+		out.writeInt(source.remaining());
+
+		byte[] chunk = new byte[Math.min(source.remaining(), 8192)];
+		while(source.hasRemaining()) {
+			int length = Math.min(chunk.length, source.remaining());
+			source.get(chunk, 0, length);
+			out.write(chunk, 0, length);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+		ClassNotFoundException {
+
+		in.defaultReadObject();
+
+		int length = in.readInt();
+		ByteBuffer target = ByteBuffer.allocateDirect(length);
+
+		byte[] chunk = new byte[Math.min(length, 8192)];
+		while(target.hasRemaining()) {
+			int count = in.read(chunk, 0, Math.min(chunk.length,
+					target.remaining()));
+			if(count==-1)
+				throw new IOException("Unexpected end of binary value");
+			target.put(chunk, 0, count);
+		}
+
+		target.flip();
+		bytes = target.asReadOnlyBuffer();
+	}
+}
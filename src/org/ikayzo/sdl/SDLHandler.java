@@ -0,0 +1,62 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+/**
+ * <p>A callback interface for receiving the contents of an SDL document as it
+ * is parsed.  No Tag objects are created, making this the cheapest way to
+ * copy SDL data into application specific structures.  See
+ * {@link SDL#parse(java.io.Reader, SDLHandler)}.</p>
+ *
+ * <p>For each tag the parser calls startTag, then value for each value in
+ * order, then attribute for each attribute in the order they appear in the
+ * source.  Children (if any) follow, and endTag is called when the tag
+ * (including its body) is complete.</p>
+ *
+ * <p>Values are passed as the same types used by {@link Tag#getValue()}.</p>
+ */
+public interface SDLHandler {
+
+	/**
+	 * Called at the start of a tag
+	 *
+	 * @param namespace The tag's namespace (never null but may be empty)
+	 * @param name The tag's name ("content" for anonymous tags)
+	 */
+	public void startTag(String namespace, String name);
+
+	/**
+	 * Called for each value of the current tag
+	 *
+	 * @param value The value (may be null)
+	 */
+	public void value(Object value);
+
+	/**
+	 * Called for each attribute of the current tag
+	 *
+	 * @param namespace The attribute's namespace (never null but may be empty)
+	 * @param key The attribute key
+	 * @param value The attribute value (may be null)
+	 */
+	public void attribute(String namespace, String key, Object value);
+
+	/**
+	 * Called at the end of a tag after all its children have been reported
+	 */
+	public void endTag();
+}
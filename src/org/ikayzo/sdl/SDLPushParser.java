@@ -0,0 +1,551 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A non-blocking parser for SDL documents which arrive in pieces, for
+ * example from a network connection.  UTF8 bytes are passed to
+ * {@link #feed(ByteBuffer)} as they are received and each call returns the
+ * top level tags completed by those bytes.  {@link #endOfInput()} returns the
+ * remaining tags and reports a document which ends in the middle of a tag.
+ * The parser never waits for input, so no thread is tied up by a connection
+ * whose document is incomplete.</p>
+ *
+ * <p>Chunks may end anywhere, including in the middle of a UTF8 sequence,
+ * a string, a `` string, a binary literal, or a comment.  Each line is
+ * scanned once as it is completed and the lexer's state (for example whether
+ * a multiline literal is open) is kept between lines.  Only the text of the
+ * top level tag currently being received is held in memory.</p>
+ *
+ * <p>Example (ignoring exceptions):</p>
+ * <pre>
+ *     SDLPushParser parser = new SDLPushParser();
+ *
+ *     // as data arrives
+ *     for(Tag tag:parser.feed(buffer))
+ *         process(tag);
+ *
+ *     // when the connection is closed
+ *     for(Tag tag:parser.endOfInput())
+ *         process(tag);
+ * </pre>
+ *
+ * <p>If a handler is given the tags are reported to it as events rather than
+ * being returned.  See {@link SDLHandler}.</p>
+ */
+public class SDLPushParser {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	// the lexer's state at the start of a line
+	private static final int NORMAL = 0;
+	private static final int STRING = 1;
+	private static final int COMMENT = 2;
+	private static final int DELIMITED = 3;
+
+	private SDLHandler handler;
+	private CharsetDecoder decoder = Charset.forName("UTF8").newDecoder()
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	// the bytes of a UTF8 sequence split between chunks
+	private ByteBuffer partial = ByteBuffer.allocate(8);
+
+	// text[0] to text[end-1] has been decoded.  Tags from regionStart to
+	// boundary are complete.  Lines from boundary to scanned have been
+	// scanned.
+	private char[] text = new char[BUFFER_SIZE];
+	private int end, regionStart, boundary, scanned;
+
+	// the zero based line numbers of regionStart, boundary and scanned
+	private int regionLine, boundaryLine, scannedLine;
+
+	private boolean done;
+
+	private int mode=NORMAL;
+	private char endChar;
+	private boolean continued;
+	private boolean firstToken=true, opensBlock, closesBlock;
+	private boolean stringEmpty, stringEndsWithQuote;
+	private int depth;
+
+	/**
+	 * Create a push parser which returns the tags it reads
+	 */
+	public SDLPushParser() {
+	}
+
+	/**
+	 * Create a push parser which reports the tags it reads to the given
+	 * handler.  {@link #feed(ByteBuffer)} and {@link #endOfInput()} return
+	 * empty lists.
+	 *
+	 * @param handler The handler which receives the document's contents
+	 */
+	public SDLPushParser(SDLHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Parse the next chunk of the document.  All the remaining bytes in the
+	 * buffer are consumed.
+	 *
+	 * @param bytes The next chunk of the UTF8 encoded document
+	 * @return The top level tags completed by this chunk in document order
+	 *         (empty if there are none or a handler was given)
+	 * @throws SDLParseException If the document is malformed
+	 * @throws IllegalStateException If {@link #endOfInput()} has been called
+	 *         or a SDLParseException has been thrown
+	 */
+	public List<Tag> feed(ByteBuffer bytes) throws SDLParseException {
+		checkNotDone();
+
+		decode(bytes, false);
+		scanLines();
+
+		if(boundary==regionStart)
+			return Collections.emptyList();
+
+		List<Tag> tags = parse(boundary);
+		regionStart = boundary;
+		regionLine = boundaryLine;
+		return tags;
+	}
+
+	/**
+	 * Signal the end of the document
+	 *
+	 * @return The remaining top level tags in document order (empty if there
+	 *         are none or a handler was given)
+	 * @throws SDLParseException If the document is malformed, including a
+	 *         document which ends in the middle of a tag
+	 * @throws IllegalStateException If this method has already been called or
+	 *         a SDLParseException has been thrown
+	 */
+	public List<Tag> endOfInput() throws SDLParseException {
+		checkNotDone();
+
+		decode(ByteBuffer.allocate(0), true);
+		done = true;
+		return parse(end);
+	}
+
+	private void checkNotDone() {
+		if(done)
+			throw new IllegalStateException("The end of the input has been " +
+					"reached.");
+	}
+
+	/**
+	 * Parse the text from regionStart to regionEnd
+	 */
+	private List<Tag> parse(int regionEnd) throws SDLParseException {
+
+		Parser parser = Parser.obtain(text, regionStart, regionEnd,
+				regionLine);
+		try {
+			if(handler==null)
+				return parser.parse();
+			parser.parse(handler);
+			return Collections.emptyList();
+		} catch(IOException ioe) {
+			// Cannot happen
+			throw new InternalError("IOException reading a char array");
+		} catch(SDLParseException spe) {
+			done = true;
+			throw spe;
+		} finally {
+			parser.release();
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Decoding
+	////////////////////////////////////////////////////////////////////////////
+
+	private void decode(ByteBuffer bytes, boolean endOfInput) {
+		compact();
+
+		// a UTF8 sequence never has more chars than bytes
+		ensureCapacity(bytes.remaining() + partial.position() + 1);
+		CharBuffer chars = CharBuffer.wrap(text, end, text.length-end);
+
+		// finish a sequence split between chunks one byte at a time
+		while(partial.position()>0 && bytes.hasRemaining()) {
+			partial.put(bytes.get());
+			partial.flip();
+			decoder.decode(partial, chars, false);
+			partial.compact();
+		}
+
+		if(endOfInput) {
+			partial.flip();
+			decoder.decode(partial, chars, true);
+			decoder.flush(chars);
+		} else {
+			decoder.decode(bytes, chars, false);
+			partial.put(bytes);
+		}
+
+		end = chars.position();
+	}
+
+	/**
+	 * Move the text of unparsed tags to the start of the buffer
+	 */
+	private void compact() {
+		if(regionStart==0)
+			return;
+
+		System.arraycopy(text, regionStart, text, 0, end-regionStart);
+		end -= regionStart;
+		boundary -= regionStart;
+		scanned -= regionStart;
+		regionStart = 0;
+	}
+
+	private void ensureCapacity(int free) {
+		if(text.length-end>=free)
+			return;
+
+		char[] newText = new char[Math.max(text.length*2, end+free)];
+		System.arraycopy(text, 0, newText, 0, end);
+		text = newText;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Scanning (see Parser.getLineTokens())
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Scan the complete lines which have not been scanned, moving boundary to
+	 * the end of the last top level tag
+	 */
+	private void scanLines() throws SDLParseException {
+		while(true) {
+			int lineEnd = scanned;
+			while(lineEnd<end && text[lineEnd]!='\n' && text[lineEnd]!='\r')
+				lineEnd++;
+
+			// the same line terminators as Parser.readRawLine()
+			if(lineEnd==end || (text[lineEnd]=='\r' && lineEnd+1==end))
+				return;
+			int next = lineEnd+1;
+			if(text[lineEnd]=='\r' && text[next]=='\n')
+				next++;
+
+			if(!scanLine(scanned, lineEnd))
+				reject(next);
+
+			scanned = next;
+			scannedLine++;
+
+			if(mode==NORMAL && !continued) {
+				// the same rules used by Parser.parse()
+				if(depth>0 && closesBlock)
+					depth--;
+				else if(opensBlock)
+					depth++;
+
+				firstToken = true;
+				opensBlock = false;
+				closesBlock = false;
+
+				if(depth==0) {
+					boundary = scanned;
+					boundaryLine = scannedLine;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parse up to the end of a line the lexer would reject so the parser
+	 * reports the error
+	 */
+	private void reject(int lineEnd) throws SDLParseException {
+		parse(lineEnd);
+
+		done = true;
+		throw new SDLParseException("Malformed line.", scannedLine+1, -1);
+	}
+
+	/**
+	 * Scan text[lineStart] to text[lineEnd-1] starting in the current mode
+	 *
+	 * @return false if the lexer would reject the line
+	 */
+	private boolean scanLine(int lineStart, int lineEnd) {
+		int pos;
+
+		if(mode==NORMAL || mode==STRING) {
+			// blank and comment lines are skipped by Parser.readLine()
+			int i = lineStart;
+			while(i<lineEnd && text[i]<=' ')
+				i++;
+			if(i==lineEnd || text[i]=='#')
+				return true;
+		}
+
+		if(mode==COMMENT) {
+			int endIndex = indexOf('*', '/', lineStart, lineEnd);
+			if(endIndex==-1)
+				return true;
+			mode = NORMAL;
+			pos = endIndex+2;
+		} else if(mode==DELIMITED) {
+			int endIndex = indexOf(endChar, lineStart, lineEnd);
+			if(endIndex==-1)
+				return true;
+			mode = NORMAL;
+
+			// The lexer trims the line containing the end character but
+			// continues from the untrimmed position of the end character
+			int trimmedStart = lineStart;
+			while(trimmedStart<lineEnd && text[trimmedStart]<=' ')
+				trimmedStart++;
+			while(lineEnd>trimmedStart && text[lineEnd-1]<=' ')
+				lineEnd--;
+			pos = trimmedStart + endIndex-lineStart + 1;
+		} else if(mode==STRING) {
+			pos = scanString(lineStart, lineEnd, true);
+			if(pos==-2)
+				return false;
+			if(pos==-1)
+				return true;
+			pos++;
+		} else {
+			continued = false;
+			pos = lineStart;
+		}
+
+		return scanTokens(pos, lineEnd);
+	}
+
+	private boolean scanTokens(int pos, int lineEnd) {
+		for(; pos<lineEnd; pos++) {
+			char c=text[pos];
+			int cc=Parser.charClass(c);
+
+			if((cc & Parser.WHITESPACE)!=0) {
+				continue;
+			} else if(c=='#') {
+				return true;
+			} else if(c=='/') {
+				if(pos+1==lineEnd)
+					return false;
+				if(text[pos+1]=='/')
+					return true;
+				if(text[pos+1]=='*') {
+					int endIndex = indexOf('*', '/', pos+1, lineEnd);
+					if(endIndex==-1) {
+						mode = COMMENT;
+						return true;
+					}
+					pos = endIndex+1;
+				}
+				// otherwise the lexer ignores the slash
+				continue;
+			} else if(c=='\\') {
+				for(int i=pos+1; i<lineEnd; i++)
+					if(text[i]>' ')
+						return false;
+				continued = true;
+				return true;
+			} else if(c=='-' && pos+1<lineEnd && text[pos+1]=='-') {
+				return true;
+			}
+
+			// c starts a token
+			opensBlock = c=='{';
+			if(firstToken) {
+				closesBlock = c=='}';
+				firstToken = false;
+			}
+
+			if(c=='"') {
+				pos = scanString(pos+1, lineEnd, false);
+				if(pos==-2)
+					return false;
+				if(pos==-1)
+					return true;
+			} else if(c=='\'') {
+				pos = scanCharacterLiteral(pos, lineEnd);
+				if(pos==-1)
+					return false;
+			} else if(c=='`' || c=='[') {
+				endChar = (c=='`') ? '`' : ']';
+				int endIndex = indexOf(endChar, pos+1, lineEnd);
+				if(endIndex==-1) {
+					mode = DELIMITED;
+					return true;
+				}
+				pos = endIndex;
+			} else if((cc & Parser.PUNCTUATION)!=0) {
+				// a single character
+			} else if((cc & Parser.NUMBER_START)!=0) {
+				pos = skipNumberDateOrTimeSpan(pos, lineEnd)-1;
+			} else if((cc & Parser.IDENTIFIER_START)!=0 ||
+					(c>=Parser.ASCII_SIZE &&
+					Character.isJavaIdentifierStart(c))) {
+				pos = skipIdentifier(pos, lineEnd)-1;
+			} else {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Scan a "" string (see Parser.handleDoubleQuoteString())
+	 *
+	 * @param pos The index after the opening quote or the start of a line
+	 *        continuing a string
+	 * @return The index of the closing quote, -1 if the string continues on
+	 *         the next line or -2 if the lexer would reject the string
+	 */
+	private int scanString(int pos, int lineEnd, boolean continuing) {
+		boolean escaped=false, startOfLine=continuing;
+		mode = NORMAL;
+		if(!continuing) {
+			stringEmpty = true;
+			stringEndsWithQuote = false;
+		}
+
+		for(; pos<lineEnd; pos++) {
+			char c=text[pos];
+
+			if((Parser.charClass(c) & Parser.WHITESPACE)!=0 && startOfLine)
+				continue;
+			startOfLine = false;
+
+			if(escaped) {
+				if("\\\"nrt".indexOf(c)==-1)
+					return -2;
+				stringEndsWithQuote = c=='"';
+				stringEmpty = false;
+				escaped = false;
+			} else if(c=='\\') {
+				// check for String broken across lines
+				if(pos+1==lineEnd || (Parser.charClass(text[pos+1]) &
+						Parser.WHITESPACE)!=0) {
+					for(int i=pos+1; i<lineEnd; i++)
+						if((Parser.charClass(text[i]) & Parser.WHITESPACE)==0)
+							return -2;
+					mode = STRING;
+					return -1;
+				}
+				escaped = true;
+			} else if(c=='"') {
+				return pos;
+			} else {
+				stringEndsWithQuote = false;
+				stringEmpty = false;
+			}
+		}
+
+		// the lexer accepts an unterminated string ending with an escaped
+		// quote
+		if(stringEmpty || !stringEndsWithQuote)
+			return -2;
+		return lineEnd;
+	}
+
+	/**
+	 * Scan a character literal (see Parser.scanCharacterLiteral())
+	 *
+	 * @return The index of the closing quote or -1 if the lexer would reject
+	 *         the literal
+	 */
+	private int scanCharacterLiteral(int pos, int lineEnd) {
+		if(pos+1==lineEnd)
+			return -1;
+		pos++;
+
+		if(text[pos]=='\\') {
+			if(pos+2>=lineEnd || "\\'nrt".indexOf(text[pos+1])==-1)
+				return -1;
+			pos+=2;
+		} else {
+			if(pos+1==lineEnd)
+				return -1;
+			pos++;
+		}
+
+		return (text[pos]=='\'') ? pos : -1;
+	}
+
+	private int skipNumberDateOrTimeSpan(int pos, int lineEnd) {
+		for(;pos<lineEnd; pos++) {
+			char c=text[pos];
+
+			if(c<Parser.ASCII_SIZE ?
+					(Parser.charClass(c) & Parser.NUMBER_PART)!=0 :
+					Parser.NUMBER_CHARS.indexOf(Character.toLowerCase(c))!=-1) {
+				// part of the literal
+			} else if(c=='/' && !(pos+1<lineEnd && text[pos+1]=='*')) {
+				// part of a date
+			} else {
+				break;
+			}
+		}
+		return pos;
+	}
+
+	private int skipIdentifier(int pos, int lineEnd) {
+		for(;pos<lineEnd; pos++) {
+			char c=text[pos];
+
+			if(!(c<Parser.ASCII_SIZE ?
+					(Parser.charClass(c) & Parser.IDENTIFIER_PART)!=0 :
+					Character.isJavaIdentifierPart(c)))
+				break;
+		}
+		return pos;
+	}
+
+	/**
+	 * @return The index of c in text[from] to text[lineEnd-1] or -1
+	 */
+	private int indexOf(char c, int from, int lineEnd) {
+		for(int i=from; i<lineEnd; i++)
+			if(text[i]==c)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return The index of the two character sequence c1c2 in text[from] to
+	 *         text[lineEnd-1] or -1
+	 */
+	private int indexOf(char c1, char c2, int from, int lineEnd) {
+		for(int i=from; i<lineEnd-1; i++)
+			if(text[i]==c1 && text[i+1]==c2)
+				return i;
+		return -1;
+	}
+}
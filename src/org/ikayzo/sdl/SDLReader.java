@@ -0,0 +1,303 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Map.Entry;
+
+/**
+ * <p>A pull parser for SDL documents.  Rather than reading an entire document
+ * into a tree of Tags, SDLReader returns a stream of events that can be
+ * consumed one at a time.  Only one logical line of the document is held in
+ * memory, so documents of any size can be processed.  Reading can stop at any
+ * point by calling {@link #close()}.</p>
+ *
+ * <p>For the SDL code:</p>
+ * <pre>
+ *     person "Akiko" age=32 {
+ *         hobby "surfing"
+ *     }
+ * </pre>
+ *
+ * <p>the reader will return:</p>
+ * <pre>
+ *     START_TAG (person)
+ *     VALUE ("Akiko")
+ *     ATTRIBUTE (age=32)
+ *     START_TAG (hobby)
+ *     VALUE ("surfing")
+ *     END_TAG (hobby)
+ *     END_TAG (person)
+ * </pre>
+ *
+ * <p>Example (ignoring exceptions):</p>
+ * <pre>
+ *     SDLReader reader = new SDLReader(new FileReader("big.sdl"));
+ *     while(reader.hasNext()) {
+ *         if(reader.nextEvent()==SDLReader.Event.START_TAG &&
+ *                 reader.getName().equals("database")) {
+ *             ...
+ *         }
+ *     }
+ *     reader.close();
+ * </pre>
+ */
+public class SDLReader {
+
+	/**
+	 * The events returned by {@link SDLReader#nextEvent()}
+	 */
+	public enum Event {
+		START_TAG, VALUE, ATTRIBUTE, END_TAG
+	}
+
+	private Parser parser;
+
+	// names of the tags with open blocks (namespace, name pairs)
+	private List<String> openTags = new ArrayList<String>();
+
+	// the tag for the current logical line (no children)
+	private Tag tag;
+	private int tagLine;
+	private boolean tagStarted;
+	private boolean tagHasBlock;
+	private int valueIndex;
+	private Iterator<Entry<String,Object>> attributeIterator;
+
+	private Event event;
+	private Event nextEvent;
+	private boolean done;
+
+	private String namespace;
+	private String name;
+	private String attributeNamespace;
+	private String attributeKey;
+	private Object value;
+	private int line = -1;
+	private int depth;
+
+	// details of the event returned by the next call to nextEvent()
+	private String nextNamespace;
+	private String nextName;
+	private String nextAttributeNamespace;
+	private String nextAttributeKey;
+	private Object nextValue;
+	private int nextLine;
+
+	/**
+	 * Create an SDL pull parser
+	 *
+	 * @param reader A reader containing SDL source
+	 */
+	public SDLReader(Reader reader) {
+		parser = new Parser(reader);
+	}
+
+	/**
+	 * @return true if there are more events
+	 * @throws IOException If there is an IO problem reading the source
+	 * @throws SDLParseException If the SDL input is malformed
+	 */
+	public boolean hasNext() throws IOException, SDLParseException {
+		if(nextEvent==null && !done)
+			nextEvent = advance();
+		return nextEvent!=null;
+	}
+
+	/**
+	 * Move to the next event.  The details of the event are available from
+	 * the getter methods until the next call to nextEvent().
+	 *
+	 * @return The next event
+	 * @throws IOException If there is an IO problem reading the source
+	 * @throws SDLParseException If the SDL input is malformed
+	 * @throws NoSuchElementException If there are no more events
+	 */
+	public Event nextEvent() throws IOException, SDLParseException {
+		if(!hasNext())
+			throw new NoSuchElementException("No more SDL events.");
+
+		event = nextEvent;
+		nextEvent = null;
+
+		namespace = nextNamespace;
+		name = nextName;
+		attributeNamespace = nextAttributeNamespace;
+		attributeKey = nextAttributeKey;
+		value = nextValue;
+		line = nextLine;
+		depth = openTags.size()/2;
+		return event;
+	}
+
+	private Event advance() throws IOException, SDLParseException {
+		nextAttributeNamespace = null;
+		nextAttributeKey = null;
+		nextValue = null;
+
+		if(tag!=null) {
+			if(!tagStarted) {
+				tagStarted=true;
+				nextNamespace=tag.getNamespace();
+				nextName=tag.getName();
+				nextLine=tagLine;
+				return Event.START_TAG;
+			}
+
+			List<Object> values = tag.getValues();
+			if(valueIndex<values.size()) {
+				nextValue=values.get(valueIndex++);
+				return Event.VALUE;
+			}
+
+			if(attributeIterator.hasNext()) {
+				Entry<String,Object> e = attributeIterator.next();
+				nextAttributeKey=e.getKey();
+				nextAttributeNamespace=tag.getAttributeNamespace(
+						nextAttributeKey);
+				nextValue=e.getValue();
+				return Event.ATTRIBUTE;
+			}
+
+			Tag finished = tag;
+			tag = null;
+			if(tagHasBlock) {
+				openTags.add(finished.getNamespace());
+				openTags.add(finished.getName());
+			} else {
+				return Event.END_TAG;
+			}
+		}
+
+		List<Parser.Token> toks = parser.getLineTokens();
+		if(toks==null) {
+			done=true;
+			parser.close();
+			if(!openTags.isEmpty())
+				// we have to use -2 for position rather than -1 for unknown
+				// because the parseException method adds 1 to line and
+				// position
+				parser.parseException("No close block (}).",
+						parser.getLineNumber(), -2);
+			return null;
+		}
+
+		int size = toks.size();
+		Parser.Token t0 = toks.get(0);
+		if(t0.type==Parser.Type.END_BLOCK) {
+			if(openTags.isEmpty())
+				parser.parseException("No opening block ({) for close block " +
+						"(}).", t0.line, t0.position);
+
+			int top = openTags.size();
+			nextNamespace=openTags.remove(top-2);
+			nextName=openTags.remove(top-2);
+			nextLine=t0.line+1;
+			return Event.END_TAG;
+		}
+
+		tagHasBlock = toks.get(size-1).type==Parser.Type.START_BLOCK;
+		tag = parser.constructTag(tagHasBlock ? toks.subList(0, size-1) :
+			toks);
+		tagLine = t0.line+1;
+		tagStarted = false;
+		valueIndex = 0;
+		attributeIterator = tag.getAttributes().entrySet().iterator();
+
+		return advance();
+	}
+
+	/**
+	 * @return The type of the current event or null if
+	 *         {@link #nextEvent()} has not been called
+	 */
+	public Event getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return The name of the current tag.  For VALUE and ATTRIBUTE events
+	 *         this is the name of the tag to which the value or attribute
+	 *         belongs.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The namespace of the current tag (never null but may be empty)
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * @return The value for a VALUE or ATTRIBUTE event, null for other events
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * @return The attribute key for an ATTRIBUTE event, null for other events
+	 */
+	public String getAttributeKey() {
+		return attributeKey;
+	}
+
+	/**
+	 * @return The attribute namespace for an ATTRIBUTE event (may be empty),
+	 *         null for other events
+	 */
+	public String getAttributeNamespace() {
+		return attributeNamespace;
+	}
+
+	/**
+	 * @return The number of tags with open blocks enclosing the current tag.
+	 *         Top level tags have a depth of 0.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return The line (starting with 1) on which the current tag starts or
+	 *         the line containing the close block (}) for END_TAG events of
+	 *         tags with bodies
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Stop reading and close the underlying reader.
+	 *
+	 * @throws IOException If there is an IO problem closing the reader
+	 */
+	public void close() throws IOException {
+		done=true;
+		nextEvent=null;
+		tag=null;
+		parser.close();
+	}
+}
@@ -272,7 +272,7 @@ public class SDLTimeSpan implements Serializable {
 	 * @return an SDL representation of this time span
 	 */
 	public String toString() {
-		StringBuilder sb=new StringBuilder();
+		StringBuilder sb=new StringBuilder(16);
 		
 		int days = getDays();
 		int hours = getHours();
@@ -282,29 +282,26 @@ public class SDLTimeSpan implements Serializable {
 
 		if(days!=0) {
 			sb.append(days);
-			sb.append("d");
-			sb.append(":");
+			sb.append("d:");
 			
-			sb.append(padTo2((int)Math.abs(hours)));
+			appendPadTo2(sb, (int)Math.abs(hours));
 		} else {		
-			sb.append(padTo2(hours));
+			appendPadTo2(sb, hours);
 		}
 		
-		sb.append(":");
-		
-		sb.append(padTo2((int)Math.abs(minutes)));
-		sb.append(":");
-		
-		sb.append(padTo2((int)Math.abs(seconds)));
+		sb.append(':');
+		appendPadTo2(sb, (int)Math.abs(minutes));
+		sb.append(':');
+		appendPadTo2(sb, (int)Math.abs(seconds));
 		
 		if(milliseconds!=0) {
-			sb.append(".");	
+			sb.append('.');	
 			
-			String millis = "" + (int)Math.abs(milliseconds);
-			if(millis.length()==1)
-				millis="00"+millis;
-			else if(millis.length()==2)
-				millis="0"+millis;
+			int millis = (int)Math.abs(milliseconds);
+			if(millis>=0 && millis<10)
+				sb.append("00");
+			else if(millis>=10 && millis<100)
+				sb.append('0');
 			
 			sb.append(millis);
 		}
@@ -312,13 +309,13 @@ public class SDLTimeSpan implements Serializable {
 		return sb.toString();
 	}
 	
-	private String padTo2(int val) {
+	private static void appendPadTo2(StringBuilder sb, int val) {
 		if(val>-10 && val<0) {
-			return "-0" + (int)Math.abs(val);
+			sb.append("-0").append((int)Math.abs(val));
 		} else if(val>-1 && val<10) {
-			return "0" + val;
+			sb.append('0').append(val);
+		} else {
+			sb.append(val);
 		}
-		
-		return "" + val;
 	}
 }
@@ -0,0 +1,601 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.ikayzo.codec.Base64;
+
+/**
+ * <p>Writes an SDL document from a series of calls without creating Tag
+ * objects.  The calls mirror the events of {@link SDLHandler}: startTag,
+ * then the tag's values, then its attributes, then its children, then
+ * endTag.  The output is formatted the same way as
+ * {@link Tag#write(Writer, boolean)}.</p>
+ *
+ * <pre>
+ *     SDLWriter writer = new SDLWriter(out);
+ *     for(Row row:rows) {
+ *         writer.startTag("row");
+ *         writer.value(row.getName());
+ *         writer.attribute("id", row.getId());
+ *         writer.attribute("score", row.getScore());
+ *         writer.endTag();
+ *     }
+ *     writer.close();
+ * </pre>
+ *
+ * <p>The int, long, float, double, boolean, and char overloads of value and
+ * attribute write their arguments without boxing them.  Other values can be
+ * any type accepted by {@link Tag#addValue(Object)}.  Strings are escaped as
+ * they are written and binary values are base64 encoded directly to the
+ * output.  Output is collected in a buffer which is passed to the
+ * underlying writer when it fills, so memory use does not grow with the
+ * size of the document.  Attributes are written in the order given.</p>
+ *
+ * <p>Names, namespaces, and attribute keys are checked with
+ * {@link SDL#validateIdentifier(String)}.  Calls made out of order, such
+ * as a value after an attribute or an endTag with no open tag, throw an
+ * IllegalStateException.  An SDLWriter is not thread safe.</p>
+ */
+public class SDLWriter implements Closeable, Flushable {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Writer writer;
+	private final String newLine = System.getProperty("line.separator");
+
+	// output not yet passed to the writer and the array used to pass it
+	private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE*2);
+	private final char[] chars = new char[BUFFER_SIZE*2];
+
+	// receives base64 text, which may be longer than the buffer
+	private final Appendable bufferAppender = new Appendable() {
+		public Appendable append(CharSequence csq) throws IOException {
+			return append(csq, 0, csq.length());
+		}
+
+		public Appendable append(CharSequence csq, int start, int end)
+			throws IOException {
+
+			buffer.append(csq, start, end);
+			flushIfFull();
+			return this;
+		}
+
+		public Appendable append(char c) throws IOException {
+			buffer.append(c);
+			flushIfFull();
+			return this;
+		}
+	};
+
+	// the number of open tags
+	private int depth;
+
+	// true for each open tag whose block ({) has been written
+	private boolean[] blocks = new boolean[16];
+
+	// true while the line of the innermost open tag can still receive
+	// values and attributes
+	private boolean lineOpen;
+	private boolean hasAttributes;
+
+	// true if the next value is the first of an anonymous tag
+	private boolean skipValueSpace;
+
+	// the last identifier which passed validation (identifiers are usually
+	// the same String instances over and over)
+	private String lastIdentifier;
+
+	/**
+	 * @param writer The writer receiving the SDL
+	 */
+	public SDLWriter(Writer writer) {
+		if(writer==null)
+			throw new IllegalArgumentException("Writer cannot be null");
+		this.writer = writer;
+	}
+
+	/**
+	 * @param out The stream receiving the SDL, which is encoded as UTF-8
+	 */
+	public SDLWriter(OutputStream out) {
+		if(out==null)
+			throw new IllegalArgumentException("Output stream cannot be " +
+					"null");
+		writer = new OutputStreamWriter(out, UTF8);
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Tags
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Start a tag with no namespace.
+	 *
+	 * @param name The tag's name ("content" for an anonymous tag)
+	 * @throws IOException If the writer throws an IOException
+	 */
+	public void startTag(String name) throws IOException {
+		startTag("", name);
+	}
+
+	/**
+	 * Start a tag.  If the enclosing tag has no children yet its block is
+	 * opened.
+	 *
+	 * @param namespace The tag's namespace (null or empty for none)
+	 * @param name The tag's name ("content" for an anonymous tag)
+	 * @throws IllegalArgumentException If the namespace or name is not a
+	 *         legal SDL identifier
+	 * @throws IOException If the writer throws an IOException
+	 */
+	public void startTag(String namespace, String name) throws IOException {
+		if(namespace==null)
+			namespace="";
+		if(namespace.length()!=0)
+			validate(namespace);
+		validate(name);
+
+		if(lineOpen) {
+			buffer.append(" {").append(newLine);
+			blocks[depth-1]=true;
+		}
+
+		buffer.append(Indentation.NONE.get(depth));
+		skipValueSpace = name.equals("content") && namespace.length()==0;
+		if(!skipValueSpace) {
+			if(namespace.length()!=0)
+				buffer.append(namespace).append(':');
+			buffer.append(name);
+		}
+
+		if(depth==blocks.length) {
+			boolean[] larger = new boolean[depth*2];
+			System.arraycopy(blocks, 0, larger, 0, depth);
+			blocks = larger;
+		}
+		blocks[depth++]=false;
+		lineOpen=true;
+		hasAttributes=false;
+	}
+
+	/**
+	 * End the innermost open tag.
+	 *
+	 * @throws IllegalStateException If no tag is open
+	 * @throws IOException If the writer throws an IOException
+	 */
+	public void endTag() throws IOException {
+		if(depth==0)
+			throw new IllegalStateException("No tag is open");
+
+		depth--;
+		if(blocks[depth])
+			buffer.append(Indentation.NONE.get(depth)).append('}');
+		buffer.append(newLine);
+		lineOpen=false;
+		flushIfFull();
+	}
+
+	/**
+	 * @return The number of tags which have been started but not ended
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Values
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Write a value of the current tag.
+	 *
+	 * @param value A value of any type accepted by
+	 *        {@link Tag#addValue(Object)}
+	 * @throws IllegalArgumentException If the value is not a legal SDL type
+	 * @throws IllegalStateException If no tag is open, the tag's children
+	 *         have started, or the tag has attributes
+	 * @throws IOException If the writer throws an IOException
+	 */
+	public void value(Object value) throws IOException {
+		Object sdlValue = SDL.coerceOrFail(value);
+		startValue();
+		appendValue(sdlValue);
+		flushIfFull();
+	}
+
+	/**
+	 * Write an int value of the current tag.
+	 *
+	 * @see #value(Object)
+	 */
+	public void value(int value) throws IOException {
+		startValue();
+		buffer.append(value);
+	}
+
+	/**
+	 * Write a long value of the current tag.
+	 *
+	 * @see #value(Object)
+	 */
+	public void value(long value) throws IOException {
+		startValue();
+		buffer.append(value).append('L');
+	}
+
+	/**
+	 * Write a float value of the current tag.
+	 *
+	 * @see #value(Object)
+	 */
+	public void value(float value) throws IOException {
+		startValue();
+		buffer.append(value).append('F');
+	}
+
+	/**
+	 * Write a double value of the current tag.
+	 *
+	 * @see #value(Object)
+	 */
+	public void value(double value) throws IOException {
+		startValue();
+		buffer.append(value);
+	}
+
+	/**
+	 * Write a boolean value of the current tag.
+	 *
+	 * @see #value(Object)
+	 */
+	public void value(boolean value) throws IOException {
+		startValue();
+		buffer.append(value);
+	}
+
+	/**
+	 * Write a character value of the current tag.
+	 *
+	 * @see #value(Object)
+	 */
+	public void value(char value) throws IOException {
+		startValue();
+		appendCharacter(value);
+	}
+
+	private void startValue() {
+		checkLineOpen();
+		if(hasAttributes)
+			throw new IllegalStateException("Values must be written before " +
+					"attributes");
+
+		if(skipValueSpace)
+			skipValueSpace=false;
+		else
+			buffer.append(' ');
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Attributes
+	////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Write an attribute with no namespace.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String key, Object value) throws IOException {
+		attribute("", key, value);
+	}
+
+	/**
+	 * Write an attribute of the current tag.
+	 *
+	 * @param namespace The attribute's namespace (null or empty for none)
+	 * @param key The attribute key
+	 * @param value A value of any type accepted by
+	 *        {@link Tag#addValue(Object)}
+	 * @throws IllegalArgumentException If the namespace or key is not a legal
+	 *         SDL identifier or the value is not a legal SDL type
+	 * @throws IllegalStateException If no tag is open or the tag's children
+	 *         have started
+	 * @throws IOException If the writer throws an IOException
+	 */
+	public void attribute(String namespace, String key, Object value)
+		throws IOException {
+
+		Object sdlValue = SDL.coerceOrFail(value);
+		startAttribute(namespace, key);
+		appendValue(sdlValue);
+		flushIfFull();
+	}
+
+	/**
+	 * Write an int attribute with no namespace.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String key, int value) throws IOException {
+		attribute("", key, value);
+	}
+
+	/**
+	 * Write an int attribute.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String namespace, String key, int value)
+		throws IOException {
+
+		startAttribute(namespace, key);
+		buffer.append(value);
+	}
+
+	/**
+	 * Write a long attribute with no namespace.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String key, long value) throws IOException {
+		attribute("", key, value);
+	}
+
+	/**
+	 * Write a long attribute.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String namespace, String key, long value)
+		throws IOException {
+
+		startAttribute(namespace, key);
+		buffer.append(value).append('L');
+	}
+
+	/**
+	 * Write a float attribute with no namespace.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String key, float value) throws IOException {
+		attribute("", key, value);
+	}
+
+	/**
+	 * Write a float attribute.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String namespace, String key, float value)
+		throws IOException {
+
+		startAttribute(namespace, key);
+		buffer.append(value).append('F');
+	}
+
+	/**
+	 * Write a double attribute with no namespace.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String key, double value) throws IOException {
+		attribute("", key, value);
+	}
+
+	/**
+	 * Write a double attribute.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String namespace, String key, double value)
+		throws IOException {
+
+		startAttribute(namespace, key);
+		buffer.append(value);
+	}
+
+	/**
+	 * Write a boolean attribute with no namespace.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String key, boolean value) throws IOException {
+		attribute("", key, value);
+	}
+
+	/**
+	 * Write a boolean attribute.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String namespace, String key, boolean value)
+		throws IOException {
+
+		startAttribute(namespace, key);
+		buffer.append(value);
+	}
+
+	/**
+	 * Write a character attribute with no namespace.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String key, char value) throws IOException {
+		attribute("", key, value);
+	}
+
+	/**
+	 * Write a character attribute.
+	 *
+	 * @see #attribute(String, String, Object)
+	 */
+	public void attribute(String namespace, String key, char value)
+		throws IOException {
+
+		startAttribute(namespace, key);
+		appendCharacter(value);
+	}
+
+	private void startAttribute(String namespace, String key) {
+		if(namespace==null)
+			namespace="";
+		if(namespace.length()!=0)
+			validate(namespace);
+		validate(key);
+		checkLineOpen();
+
+		buffer.append(' ');
+		if(namespace.length()!=0)
+			buffer.append(namespace).append(':');
+		buffer.append(key).append('=');
+		hasAttributes=true;
+	}
+
+	////////////////////////////////////////////////////////////////////////////
+	// Output
+	////////////////////////////////////////////////////////////////////////////
+
+	private void checkLineOpen() {
+		if(!lineOpen)
+			throw new IllegalStateException(depth==0 ? "No tag is open" :
+				"Values and attributes must be written before children");
+	}
+
+	private void validate(String identifier) {
+		if(identifier!=lastIdentifier) {
+			SDL.validateIdentifier(identifier);
+			lastIdentifier = identifier;
+		}
+	}
+
+	/**
+	 * Append a value which has been checked with SDL.coerceOrFail
+	 */
+	private void appendValue(Object value) throws IOException {
+		if(value instanceof String) {
+			appendString((String)value);
+		} else if(value instanceof Integer) {
+			buffer.append(((Integer)value).intValue());
+		} else if(value instanceof Long) {
+			buffer.append(((Long)value).longValue()).append('L');
+		} else if(value instanceof Float) {
+			buffer.append(((Float)value).floatValue()).append('F');
+		} else if(value instanceof Double) {
+			buffer.append(((Double)value).doubleValue());
+		} else if(value instanceof Character) {
+			appendCharacter(((Character)value).charValue());
+		} else if(value instanceof Boolean) {
+			buffer.append(((Boolean)value).booleanValue());
+		} else if(value instanceof byte[]) {
+			buffer.append('[');
+			Base64.encode(ByteBuffer.wrap((byte[])value), bufferAppender);
+			buffer.append(']');
+		} else if(value instanceof SDLBinary) {
+			buffer.append('[');
+			((SDLBinary)value).appendBase64(bufferAppender);
+			buffer.append(']');
+		} else {
+			buffer.append(SDL.format(value));
+		}
+	}
+
+	/**
+	 * Append a quoted String escaped the same way as
+	 * {@link SDL#format(Object)}
+	 */
+	private void appendString(String s) {
+		buffer.append('"');
+		for(int i=0, length=s.length(); i<length; i++) {
+			char c = s.charAt(i);
+			switch(c) {
+				case '\\': buffer.append("\\\\"); break;
+				case '"': buffer.append("\\\""); break;
+				case '\t': buffer.append("\\t"); break;
+				case '\r': buffer.append("\\r"); break;
+				case '\n': buffer.append("\\n"); break;
+				default: buffer.append(c);
+			}
+		}
+		buffer.append('"');
+	}
+
+	/**
+	 * Append a quoted character escaped the same way as
+	 * {@link SDL#format(Object)}
+	 */
+	private void appendCharacter(char c) {
+		buffer.append('\'');
+		switch(c) {
+			case '\\': buffer.append("\\\\"); break;
+			case '\'': buffer.append("\\'"); break;
+			case '\t': buffer.append("\\t"); break;
+			case '\r': buffer.append("\\r"); break;
+			case '\n': buffer.append("\\n"); break;
+			default: buffer.append(c);
+		}
+		buffer.append('\'');
+	}
+
+	private void flushIfFull() throws IOException {
+		if(buffer.length()>=BUFFER_SIZE)
+			flushBuffer();
+	}
+
+	private void flushBuffer() throws IOException {
+		int length = buffer.length();
+		for(int start=0; start<length; start+=chars.length) {
+			int end = Math.min(length, start+chars.length);
+			buffer.getChars(start, end, chars, 0);
+			writer.write(chars, 0, end-start);
+		}
+		buffer.setLength(0);
+	}
+
+	/**
+	 * Pass the output written so far to the writer and flush it.
+	 *
+	 * @throws IOException If the writer throws an IOException
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		writer.flush();
+	}
+
+	/**
+	 * Pass the output written so far to the writer and close it.  Tags
+	 * which are still open are not ended.
+	 *
+	 * @throws IOException If the writer throws an IOException
+	 */
+	public void close() throws IOException {
+		flushBuffer();
+		writer.close();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+/**
+ * <p>Maps identifiers read by the parser (tag names, namespaces, and
+ * attribute keys) to canonical String instances.  A document with ten
+ * million "row" tags holds one "row" String rather than ten million, and
+ * comparisons such as those in {@link Tag#getChild(String)} succeed on the
+ * identity check in String.equals.</p>
+ *
+ * <p>The table has a fixed number of slots, so its memory use is bounded no
+ * matter how many different identifiers are seen.  Each identifier hashes to
+ * a pair of slots holding the last two identifiers which hashed there, so
+ * two frequent identifiers sharing a pair are both kept.  A miss only costs
+ * a new String.  Slots are read and written without locking.  This is safe
+ * because Strings are immutable and a reader which sees a stale slot simply
+ * creates its own String.  One table is shared by all parsers
+ * ({@link #SHARED}).</p>
+ */
+class SymbolTable {
+
+	/**
+	 * The table used by all parsers
+	 */
+	static final SymbolTable SHARED = new SymbolTable(4096);
+
+	/**
+	 * Identifiers longer than this are not stored
+	 */
+	static final int MAX_LENGTH = 64;
+
+	private final String[] symbols;
+	private final int mask;
+
+	/**
+	 * @param size The number of slots (rounded up to a power of two of at
+	 *        least two)
+	 */
+	SymbolTable(int size) {
+		int capacity = 2;
+		while(capacity<size)
+			capacity<<=1;
+
+		symbols = new String[capacity];
+		mask = capacity-1;
+	}
+
+	/**
+	 * @return The canonical String for the characters chars[start] to
+	 *         chars[start+length-1]
+	 */
+	String get(char[] chars, int start, int length) {
+		if(length>MAX_LENGTH)
+			return new String(chars, start, length);
+
+		// the same hash as String.hashCode()
+		int hash = 0;
+		for(int i=start, end=start+length; i<end; i++)
+			hash = 31*hash + chars[i];
+
+		// the first slot of the pair holds the most recently added
+		// identifier, which moves to the second slot when it is replaced
+		int index = (hash ^ (hash>>>16)) & mask & ~1;
+		String symbol = symbols[index];
+		if(symbol!=null && matches(symbol, chars, start, length))
+			return symbol;
+		String older = symbols[index+1];
+		if(older!=null && matches(older, chars, start, length))
+			return older;
+
+		String added = new String(chars, start, length);
+		symbols[index+1] = symbol;
+		symbols[index] = added;
+		return added;
+	}
+
+	private static boolean matches(String symbol, char[] chars, int start,
+			int length) {
+
+		if(symbol.length()!=length)
+			return false;
+		for(int i=0; i<length; i++)
+			if(symbol.charAt(i)!=chars[start+i])
+				return false;
+		return true;
+	}
+}
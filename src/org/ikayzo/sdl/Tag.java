@@ -16,19 +16,25 @@
  */
 package org.ikayzo.sdl;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Serializable;
-import java.io.StringReader;
 import java.io.Writer;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+
+import org.ikayzo.codec.Base64;
 
 /**
  * <p>SDL (Simple Declarative Language) documents are made up of Tags.  Tags
@@ -336,20 +342,65 @@ public class Tag implements Serializable {
 	
 	private static final long serialVersionUID = 8283229161742794620L;
 	
+	// The serialized form is the one used by earlier versions, which
+	// allocated every collection when the tag was created (see writeObject)
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("namespace", String.class),
+		new ObjectStreamField("name", String.class),
+		new ObjectStreamField("values", List.class),
+		new ObjectStreamField("valuesView", List.class),
+		new ObjectStreamField("attributeToNamespace", Map.class),
+		new ObjectStreamField("attributeToNamespaceView", Map.class),
+		new ObjectStreamField("attributes", SortedMap.class),
+		new ObjectStreamField("attributesView", SortedMap.class),
+		new ObjectStreamField("children", List.class),
+		new ObjectStreamField("childrenView", List.class)
+	};
+	
+	// marks a tag with no values (null is a legal value)
+	private static final Object NO_VALUES = new Object();
+	
+	private static final SortedMap<String,Object> NO_ATTRIBUTES =
+		Collections.unmodifiableSortedMap(new TreeMap<String,Object>());
+	
 	private String namespace = "";
 	private String name;
 	
-	private List values = new ArrayList();
-	private List valuesView = Collections.unmodifiableList(values);
-	private Map<String,String> attributeToNamespace =
-		new HashMap<String,String>(); 
-	private Map<String,String> attributeToNamespaceView =
-		Collections.unmodifiableMap(attributeToNamespace);
-	private SortedMap<String,Object> attributes = new TreeMap<String,Object>();
-	private SortedMap<String,Object> attributesView =
-		Collections.unmodifiableSortedMap(attributes);
-	private List<Tag> children = new ArrayList<Tag>();	
-	private List<Tag> childrenView = Collections.unmodifiableList(children);
+	// Collections are only allocated when they are needed because most tags
+	// in large documents have a single value and no attributes or children.
+	
+	// NO_VALUES, the only value, or a ValueList holding any number of values
+	private Object values = NO_VALUES;
+	
+	// null until the first attribute is set
+	private AttributeMap attributes;
+	
+	// null until the first child is added
+	private List<Tag> children;
+	
+	// null unless the children are indexed (see setChildrenIndexed(boolean))
+	private volatile ChildIndex childIndex;
+	
+	// the state of the ChildIndex of each parent indexing this tag (null,
+	// an IndexState or a List<IndexState>), made stale when this tag is
+	// renamed
+	private Object parentIndexes;
+	
+	// shared by the tags of a tree so a change to any of them makes the
+	// cached hashes of the others stale (null until the tag has a parent or
+	// a child)
+	private TreeStamp stamp;
+	
+	// the hash of this tag and its descendants (null if not computed)
+	private HashCache hashCache;
+	
+	// true if values or attributes may contain undecoded literals from a
+	// lazy parse (see Parser.setLazy(boolean))
+	private transient boolean lazyValues;
+	private transient boolean lazyAttributes;
+	
+	// null until a view of the values, attributes, or children is requested
+	private transient Views views;
 	
 	/**
 	 * Creates an empty tag.
@@ -392,17 +443,279 @@ public class Tag implements Serializable {
 	 * @param child The child to add
 	 */
 	public void addChild(Tag child) {
+		allocateChildren();
 		children.add(child);
+		joinTree(child);
+		invalidateHash();
+		
+		ChildIndex childIndex = this.childIndex;
+		if(childIndex!=null) {
+			child.addParentIndex(childIndex);
+			childIndex.add(child);
+		}
+	}
+	
+	private void allocateChildren() {
+		if(children==null)
+			children = new ArrayList<Tag>();
+	}
+	
+	/**
+	 * Insert a child at the given position.
+	 * 
+	 * @param index The position of the child
+	 * @param child The child to add
+	 * @throws IndexOutOfBoundsException If index is less than 0 or greater
+	 *         than the number of children
+	 */
+	public void addChild(int index, Tag child) {
+		allocateChildren();
+		children.add(index, child);
+		joinTree(child);
+		invalidateHash();
+		
+		ChildIndex childIndex = this.childIndex;
+		if(childIndex!=null) {
+			child.addParentIndex(childIndex);
+			childIndex.state.stale=true;
+		}
+	}
+	
+	/**
+	 * Replace the child at the given position.
+	 * 
+	 * @param index The position of the child
+	 * @param child The new child
+	 * @return The child which was replaced
+	 * @throws IndexOutOfBoundsException If index is less than 0 or not less
+	 *         than the number of children
+	 */
+	public Tag setChild(int index, Tag child) {
+		if(children==null)
+			throw new IndexOutOfBoundsException("Index: " + index +
+					", Size: 0");
+		
+		Tag replaced = children.set(index, child);
+		joinTree(child);
+		invalidateHash();
+		
+		ChildIndex childIndex = this.childIndex;
+		if(childIndex!=null) {
+			replaced.removeParentIndex(childIndex);
+			child.addParentIndex(childIndex);
+			childIndex.state.stale=true;
+		}
+		return replaced;
 	}
 	
 	/**
-	 * Remove a child from this Tag
+	 * Remove a child from this Tag.  The first child equal to the given tag
+	 * (see {@link #equals(Object)}) is removed.  Use
+	 * {@link #removeChildInstance(Tag)} to remove a particular tag.
 	 * 
 	 * @param child The child to remove
 	 * @return true if the child exists and is removed
 	 */
 	public boolean removeChild(Tag child) {
-		return children.remove(child);
+		int index = children==null ? -1 : children.indexOf(child);
+		if(index<0)
+			return false;
+		
+		removeChild(index);
+		return true;
+	}
+	
+	/**
+	 * Remove the given instance from the children of this Tag.  Children are
+	 * compared with ==, so no other children are examined beyond checking
+	 * whether they are the same object.
+	 * 
+	 * @param child The child to remove
+	 * @return true if the child exists and is removed
+	 */
+	public boolean removeChildInstance(Tag child) {
+		int index = indexOfChild(child);
+		if(index<0)
+			return false;
+		
+		removeChild(index);
+		return true;
+	}
+	
+	/**
+	 * Remove the child at the given position.
+	 * 
+	 * @param index The position of the child
+	 * @return The child which was removed
+	 * @throws IndexOutOfBoundsException If index is less than 0 or not less
+	 *         than the number of children
+	 */
+	public Tag removeChild(int index) {
+		if(children==null)
+			throw new IndexOutOfBoundsException("Index: " + index +
+					", Size: 0");
+		
+		Tag removed = children.remove(index);
+		invalidateHash();
+		
+		ChildIndex childIndex = this.childIndex;
+		if(childIndex!=null) {
+			removed.removeParentIndex(childIndex);
+			
+			// the index can only remove the first occurrence of a tag
+			int first = indexOfChild(removed);
+			if(first!=-1 && first<index)
+				childIndex.state.stale=true;
+			else
+				childIndex.remove(removed);
+		}
+		return removed;
+	}
+	
+	/**
+	 * Get the position of the given instance among the children of this
+	 * Tag.  Children are compared with ==.
+	 * 
+	 * @param child The child to find
+	 * @return The position of the first occurrence of the child or -1 if it
+	 *         is not a child of this Tag
+	 */
+	public int indexOfChild(Tag child) {
+		if(children!=null) {
+			for(int i=0, count=children.size(); i<count; i++) {
+				if(children.get(i)==child)
+					return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Remove the children accepted by the given filter.  The search is not
+	 * recursive.
+	 * 
+	 * @param filter Selects the children to remove
+	 * @return The number of children removed
+	 */
+	public int removeChildren(TagFilter filter) {
+		return removeChildren(filter, false);
+	}
+	
+	/**
+	 * <p>Remove the children accepted by the given filter, optionally
+	 * searching descendants recursively.  The descendants of a removed tag
+	 * are not passed to the filter.</p>
+	 * 
+	 * <p>The children of each tag are compacted in a single pass, so pruning
+	 * many tags costs no more than pruning one.  The filter must not change
+	 * the tags being searched.</p>
+	 * 
+	 * @param filter Selects the tags to remove
+	 * @param recursive If true search all descendants
+	 * @return The number of tags removed (not counting the descendants of
+	 *         removed tags)
+	 */
+	public int removeChildren(TagFilter filter, boolean recursive) {
+		int removed = 0;
+		
+		// the tags whose children have not yet been searched (an explicit
+		// stack is used so trees of any depth can be searched)
+		List<Tag> stack = new ArrayList<Tag>();
+		stack.add(this);
+		while(!stack.isEmpty()) {
+			Tag tag = stack.remove(stack.size()-1);
+			removed+=tag.removeAcceptedChildren(filter);
+			
+			if(recursive && tag.children!=null) {
+				for(int i=tag.children.size()-1; i>=0; i--)
+					stack.add(tag.children.get(i));
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Remove the children accepted by the filter, moving each kept child
+	 * down over the removed ones
+	 * 
+	 * @return The number of children removed
+	 */
+	private int removeAcceptedChildren(TagFilter filter) {
+		if(children==null)
+			return 0;
+		
+		ChildIndex childIndex = this.childIndex;
+		int count = children.size();
+		int kept = 0;
+		int next = 0;
+		try {
+			for(; next<count; next++) {
+				Tag child = children.get(next);
+				if(!filter.accept(child)) {
+					if(kept!=next)
+						children.set(kept, child);
+					kept++;
+				} else if(childIndex!=null) {
+					child.removeParentIndex(childIndex);
+				}
+			}
+		} finally {
+			// if the filter throws an exception keep the unsearched children
+			for(; next<count; next++)
+				children.set(kept++, children.get(next));
+			
+			if(kept!=count) {
+				children.subList(kept, count).clear();
+				invalidateHash();
+				if(childIndex!=null)
+					childIndex.state.stale=true;
+			}
+		}
+		return count-kept;
+	}
+	
+	/**
+	 * Clear the cached hash of this tag and make the cached hashes of the
+	 * other tags in its tree stale.  Called whenever this tag changes.
+	 */
+	private void invalidateHash() {
+		hashCache = null;
+		if(stamp!=null)
+			stamp.compress().modCount++;
+	}
+	
+	/**
+	 * Put a new child in the same tree as this tag, so the hashes of this
+	 * tag and its ancestors are made stale when the child changes
+	 */
+	private void joinTree(Tag child) {
+		if(stamp==null)
+			stamp = child.stamp!=null ? child.stamp : new TreeStamp();
+		
+		if(child.stamp==null) {
+			child.stamp = stamp;
+		} else {
+			TreeStamp root = stamp.compress();
+			TreeStamp childRoot = child.stamp.compress();
+			if(root!=childRoot)
+				childRoot.parent = root;
+		}
+	}
+	
+	/**
+	 * @return The cached hash of this tag if it is current, otherwise null
+	 */
+	private HashCache currentHash() {
+		HashCache cache = hashCache;
+		TreeStamp root = stamp==null ? null : stamp.root();
+		if(cache!=null && cache.root==root &&
+				cache.modCount==(root==null ? 0 : root.modCount))
+			return cache;
+		return null;
+	}
+	
+	private boolean hasChildren() {
+		return children!=null && !children.isEmpty();
 	}
 	
 	/**
@@ -413,9 +726,12 @@ public class Tag implements Serializable {
 	 * @throws IllegalArgumentException if the value is not a legal SDL type
 	 */
 	public void setValue(Object value) {
-		if(values.isEmpty())
+		if(valueCount()==0) {
 			addValue(value);
-		else values.set(0, SDL.coerceOrFail(value));
+		} else {
+			setValueAt(0, SDL.coerceOrFail(value));
+			invalidateHash();
+		}
 	}
 
 	/**
@@ -424,10 +740,92 @@ public class Tag implements Serializable {
 	 * @return The first value
 	 */
 	public Object getValue() {
-		if(values.isEmpty())
+		if(valueCount()==0)
 			return null;
+		
+		Object value = valueAt(0);
+		if(value instanceof Parser.LazyLiteral) {
+			value = ((Parser.LazyLiteral)value).decode();
+			setValueAt(0, value);
+		}
+		return value;
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	// Value storage
+	////////////////////////////////////////////////////////////////////////////
+	
+	private int valueCount() {
+		if(values==NO_VALUES)
+			return 0;
+		if(values instanceof ValueList)
+			return ((ValueList)values).size();
+		return 1;
+	}
+	
+	/**
+	 * @param index An index less than valueCount()
+	 */
+	private Object valueAt(int index) {
+		if(values instanceof ValueList)
+			return ((ValueList)values).get(index);
+		return values;
+	}
+	
+	/**
+	 * @param index An index less than valueCount()
+	 */
+	private void setValueAt(int index, Object value) {
+		if(values instanceof ValueList)
+			((ValueList)values).set(index, value);
 		else
-			return values.get(0);
+			values = value;
+	}
+	
+	/**
+	 * Add a value which has already been checked
+	 */
+	private void addRawValue(Object value) {
+		invalidateHash();
+		if(values==NO_VALUES) {
+			values = value;
+		} else if(values instanceof ValueList) {
+			((ValueList)values).add(value);
+		} else {
+			ValueList list = new ValueList();
+			list.add(values);
+			list.add(value);
+			values = list;
+		}
+	}
+	
+	/**
+	 * Holds the values of a tag with more than one value.  A distinct class
+	 * is used so it cannot be mistaken for a single value.
+	 */
+	@SuppressWarnings("serial")
+	private static class ValueList extends ArrayList<Object> {
+		ValueList() {
+			super(4);
+		}
+	}
+	
+	/**
+	 * An unmodifiable view of the values which reflects later changes
+	 */
+	private class ValuesView extends AbstractList<Object>
+		implements RandomAccess {
+		
+		public Object get(int index) {
+			if(index<0 || index>=valueCount())
+				throw new IndexOutOfBoundsException("Index: " + index +
+						", Size: " + valueCount());
+			return valueAt(index);
+		}
+		
+		public int size() {
+			return valueCount();
+		}
 	}
 	
 	////////////////////////////////////////////////////////////////////////////
@@ -461,6 +859,33 @@ public class Tag implements Serializable {
 		return ((Number)getValue()).intValue();
 	}
 	
+	/**
+	 * A convenience method that returns the first value as a long
+	 * 
+	 * @return The value assuming a long
+	 */
+	public long longValue() {
+		return ((Number)getValue()).longValue();
+	}
+	
+	/**
+	 * A convenience method that returns the first value as a float
+	 * 
+	 * @return The value assuming a float
+	 */
+	public float floatValue() {
+		return ((Number)getValue()).floatValue();
+	}
+	
+	/**
+	 * A convenience method that returns the first value as a double
+	 * 
+	 * @return The value assuming a double
+	 */
+	public double doubleValue() {
+		return ((Number)getValue()).doubleValue();
+	}
+	
 	/**
 	 * Get the first child with the given name.  The search is not recursive.
 	 * 
@@ -481,15 +906,16 @@ public class Tag implements Serializable {
 	 *         child exists
 	 */
 	public Tag getChild(String childName, boolean recursive) {
-		for(Tag t:children) {
+		if(!recursive) {
+			ChildIndex index = childIndex();
+			if(index!=null)
+				return index.first(index.byName, childName);
+		}
+		
+		for(Iterator<Tag> i=childIterator(recursive); i.hasNext();) {
+			Tag t = i.next();
 			if(t.getName().equals(childName))
 				return t;
-			
-			if(recursive) {
-				Tag rc = t.getChild(childName, true);
-				if(rc!=null)
-					return rc;
-			}
 		}
 		
 		return null;
@@ -515,12 +941,18 @@ public class Tag implements Serializable {
 	 */
 	public List<Tag> getChildren(String childName, boolean recursive) {
 		List<Tag> kids = new ArrayList<Tag>();
-		for(Tag t:children) {
+		if(!recursive) {
+			ChildIndex index = childIndex();
+			if(index!=null) {
+				index.addAll(index.byName, childName, kids);
+				return kids;
+			}
+		}
+		
+		for(Iterator<Tag> i=childIterator(recursive); i.hasNext();) {
+			Tag t = i.next();
 			if(t.getName().equals(childName))
 				kids.add(t);
-
-			if(recursive)
-				kids.addAll(t.getChildren(childName, true));
 		}
 		
 		return kids;
@@ -550,12 +982,18 @@ public class Tag implements Serializable {
 			boolean recursive) {
 		
 		List<Tag> kids = new ArrayList<Tag>();
-		for(Tag t:children) {
+		if(!recursive) {
+			ChildIndex index = childIndex();
+			if(index!=null) {
+				index.addAll(index.byNamespace, namespace, kids);
+				return kids;
+			}
+		}
+		
+		for(Iterator<Tag> i=childIterator(recursive); i.hasNext();) {
+			Tag t = i.next();
 			if(t.getNamespace().equals(namespace))
 				kids.add(t);
-			
-			if(recursive)
-				kids.addAll(t.getChildrenForNamespace(namespace, true));
 		}
 		
 		return kids;
@@ -589,15 +1027,15 @@ public class Tag implements Serializable {
 	
 	/**
 	 * Add a value to this Tag.  The allowable types are String, Number,
-	 * Boolean, Character, byte[], Byte[] (coerced to byte[]), Calendar,
-	 * Date (coerced to Calendar), and null.  Passing any other type will
+	 * Boolean, Character, byte[], Byte[] (coerced to byte[]), SDLBinary,
+	 * Calendar, Date (coerced to Calendar), and null.  Passing any other type will
 	 * result in an IllegalArgumentException.
 	 * 
 	 * @param value The value to add
 	 * @throws IllegalArgumentException if the value is not a legal SDL type
 	 */
 	public void addValue(Object value) {
-		values.add(SDL.coerceOrFail(value));
+		addRawValue(SDL.coerceOrFail(value));
 	}	
 	
 	/**
@@ -607,7 +1045,19 @@ public class Tag implements Serializable {
 	 * @return true If the value exists and is removed
 	 */
 	public boolean removeValue(Object value) {
-		return values.remove(value);
+		decodeLazyValues();
+		if(values instanceof ValueList) {
+			if(!((ValueList)values).remove(value))
+				return false;
+		} else if(values!=NO_VALUES && (value==null ? values==null :
+				value.equals(values))) {
+			values = NO_VALUES;
+		} else {
+			return false;
+		}
+		
+		invalidateHash();
+		return true;
 	}	
 	
 	/**
@@ -616,7 +1066,12 @@ public class Tag implements Serializable {
 	 * @return An immutable view of the values.
 	 */
 	public List<Object> getValues() {
-		return valuesView;
+		decodeLazyValues();
+		
+		Views views = views();
+		if(views.values==null)
+			views.values = new ValuesView();
+		return views.values;
 	}	
 	
 	/**
@@ -628,7 +1083,8 @@ public class Tag implements Serializable {
 	 *     which are not legal SDL types
 	 */
 	public void setValues(Collection values) {
-		this.values.clear();
+		this.values = NO_VALUES;
+		invalidateHash();
 		if(values!=null) {
 			// this is required to ensure validation of types
 			for(Object o:values)
@@ -671,8 +1127,138 @@ public class Tag implements Serializable {
 			SDL.validateIdentifier(namespace);
 		SDL.validateIdentifier(key);
 		
-		attributeToNamespace.put(key, namespace);
-		attributes.put(key, SDL.coerceOrFail(value));
+		putAttribute(namespace, key, SDL.coerceOrFail(value));
+	}
+	
+	/**
+	 * Set an attribute whose namespace, key, and value have already been
+	 * checked
+	 */
+	private void putAttribute(String namespace, String key, Object value) {
+		invalidateHash();
+		if(attributes==null)
+			attributes = new AttributeMap();
+		attributes.put(namespace, key, value);
+	}
+	
+	/**
+	 * Add a value whose decoding is deferred until it is accessed.  Used by
+	 * the parser in lazy mode.
+	 */
+	void addLazyValue(Parser.LazyLiteral value) {
+		addRawValue(value);
+		lazyValues=true;
+	}
+	
+	/**
+	 * Set an attribute whose decoding is deferred until it is accessed.  Used
+	 * by the parser in lazy mode.  The namespace and key are assumed to be
+	 * legal SDL identifiers.
+	 */
+	void setLazyAttribute(String namespace, String key,
+			Parser.LazyLiteral value) {
+		putAttribute(namespace, key, value);
+		lazyAttributes=true;
+	}
+	
+	private void decodeLazyValues() {
+		if(!lazyValues)
+			return;
+		
+		for(int i=0, count=valueCount(); i<count; i++) {
+			Object value = valueAt(i);
+			if(value instanceof Parser.LazyLiteral)
+				setValueAt(i, ((Parser.LazyLiteral)value).decode());
+		}
+		lazyValues=false;
+	}
+	
+	private void decodeLazyAttributes() {
+		if(!lazyAttributes || attributes==null)
+			return;
+		
+		for(int i=0, count=attributes.size(); i<count; i++) {
+			Object value = attributes.valueAt(i);
+			if(value instanceof Parser.LazyLiteral)
+				attributes.setValueAt(i, ((Parser.LazyLiteral)value).decode());
+		}
+		lazyAttributes=false;
+	}
+	
+	/**
+	 * Write the serialized form of earlier versions (see
+	 * serialPersistentFields).  Lazily parsed literals are decoded first.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		decodeLazyValues();
+		decodeLazyAttributes();
+		
+		int valueCount = valueCount();
+		List<Object> valueList = new ArrayList<Object>(valueCount);
+		for(int i=0; i<valueCount; i++)
+			valueList.add(valueAt(i));
+		
+		SortedMap<String,Object> attributeMap = new TreeMap<String,Object>();
+		Map<String,String> namespaceMap = new HashMap<String,String>();
+		if(attributes!=null) {
+			for(int i=0, count=attributes.size(); i<count; i++) {
+				attributeMap.put(attributes.keyAt(i), attributes.valueAt(i));
+				namespaceMap.put(attributes.keyAt(i),
+						attributes.namespaceAt(i));
+			}
+		}
+		
+		List<Tag> childList = children==null ? new ArrayList<Tag>() :
+			new ArrayList<Tag>(children);
+		
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("namespace", namespace);
+		fields.put("name", name);
+		fields.put("values", valueList);
+		fields.put("valuesView", Collections.unmodifiableList(valueList));
+		fields.put("attributeToNamespace", namespaceMap);
+		fields.put("attributeToNamespaceView", Collections.unmodifiableMap(
+				namespaceMap));
+		fields.put("attributes", attributeMap);
+		fields.put("attributesView", Collections.unmodifiableSortedMap(
+				attributeMap));
+		fields.put("children", childList);
+		fields.put("childrenView", Collections.unmodifiableList(childList));
+		out.writeFields();
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException,
+		ClassNotFoundException {
+		
+		ObjectInputStream.GetField fields = in.readFields();
+		namespace = (String)fields.get("namespace", "");
+		name = (String)fields.get("name", null);
+		
+		values = NO_VALUES;
+		List<?> valueList = (List<?>)fields.get("values", null);
+		if(valueList!=null) {
+			for(Object value:valueList)
+				addRawValue(value);
+		}
+		
+		SortedMap<String,Object> attributeMap =
+			(SortedMap<String,Object>)fields.get("attributes", null);
+		Map<String,String> namespaceMap =
+			(Map<String,String>)fields.get("attributeToNamespace", null);
+		if(attributeMap!=null) {
+			for(Entry<String,Object> e:attributeMap.entrySet()) {
+				String namespace = namespaceMap==null ? null :
+					namespaceMap.get(e.getKey());
+				putAttribute(namespace==null ? "" : namespace, e.getKey(),
+						e.getValue());
+			}
+		}
+		
+		List<Tag> childList = (List<Tag>)fields.get("children", null);
+		if(childList!=null) {
+			for(Tag child:childList)
+				addChild(child);
+		}
 	}
 	
 	/**
@@ -681,7 +1267,16 @@ public class Tag implements Serializable {
 	 * @return The value for the key if such a key exists
 	 */
 	public Object getAttribute(String key) {
-		return attributes.get(key);
+		int index = attributes==null ? -1 : attributes.indexOf(key);
+		if(index<0)
+			return null;
+		
+		Object value = attributes.valueAt(index);
+		if(value instanceof Parser.LazyLiteral) {
+			value = ((Parser.LazyLiteral)value).decode();
+			attributes.setValueAt(index, value);
+		}
+		return value;
 	}	
 	
 	/**
@@ -691,7 +1286,10 @@ public class Tag implements Serializable {
 	 * @return The value for the attribute key if the key exists
 	 */
 	public Object removeAttribute(String attributeKey) {
-		return attributes.remove(attributeKey);
+		Object value = getAttribute(attributeKey);
+		if(attributes!=null && attributes.remove(attributeKey))
+			invalidateHash();
+		return value;
 	}
 	
 	/**
@@ -700,7 +1298,12 @@ public class Tag implements Serializable {
 	 * @return An immutable view of the attributes.
 	 */
 	public SortedMap<String, Object> getAttributes() {
-		return attributesView;
+		decodeLazyAttributes();
+		
+		Views views = views();
+		if(views.attributes==null)
+			views.attributes = AttributeMap.view(this, null);
+		return views.attributes;
 	}
 	
 	/**
@@ -713,7 +1316,9 @@ public class Tag implements Serializable {
 	 *     is not a legal SDL type
 	 */
 	public void setAttributes(Map<String,Object> attributes) {
-		this.attributes.clear();
+		if(this.attributes!=null)
+			this.attributes.clear();
+		invalidateHash();
 		
 		if(attributes!=null) {
 			
@@ -724,36 +1329,53 @@ public class Tag implements Serializable {
 	}
 	
 	/**
-	 * Returns an immutable view of the map from attribute keys to their
-	 * namespace.  Keys not in a namespace will be mapped to an empty String.
+	 * Returns an immutable map from attribute keys to their namespace.  Keys
+	 * not in a namespace will be mapped to an empty String.
 	 * 
-	 * @return An immutable view of the namespace to attribute key map.
+	 * @return An immutable namespace to attribute key map.
 	 */
 	public Map<String,String> getAttributeNamespaces() {
-		return attributeToNamespace;
-	}	
+		Views views = views();
+		if(views.attributeNamespaces==null)
+			views.attributeNamespaces = AttributeMap.namespaceMap(this);
+		return views.attributeNamespaces;
+	}
+	
+	/**
+	 * @return The attributes read by the views from {@link AttributeMap},
+	 *         or null if no attribute has been set
+	 */
+	AttributeMap attributeMap() {
+		return attributes;
+	}
+	
+	/**
+	 * Get the namespace of the attribute with the given key.
+	 * 
+	 * @param key The attribute key
+	 * @return The namespace, which is an empty String if the attribute is
+	 *         not in a namespace, or null if there is no such attribute
+	 */
+	public String getAttributeNamespace(String key) {
+		int index = attributes==null ? -1 : attributes.indexOf(key);
+		return index<0 ? null : attributes.namespaceAt(index);
+	}
 	
 	/**
 	 * Returns an immutable view of all the attributes in the given
-	 * namespace.
+	 * namespace.  The view reflects later changes to the attributes.
 	 * 
+	 * @param namespace The namespace ("" for attributes not in a namespace)
 	 * @return An immutable view of all the attributes in the given
 	 *         namespace.
 	 */
 	public SortedMap<String, Object> getAttributesForNamespace(
 			String namespace) {
 		
-		TreeMap<String,Object> atts = new TreeMap<String,Object>();
-		
-		for(Entry<String,String> e:attributeToNamespace.entrySet()) {
-
-			if(e.getValue().equals(namespace)) {
-				String key = e.getKey();
-				atts.put(key, getAttribute(key));
-			}
-		}
-		
-		return Collections.unmodifiableSortedMap(atts);
+		decodeLazyAttributes();
+		if(namespace==null)
+			return NO_ATTRIBUTES;
+		return AttributeMap.view(this, namespace);
 	}
 
 	/**
@@ -762,7 +1384,53 @@ public class Tag implements Serializable {
 	 * @return An immutable view of the children.
 	 */
 	public List<Tag> getChildren() {
-		return childrenView;
+		Views views = views();
+		if(views.children==null)
+			views.children = new ChildrenView();
+		return views.children;
+	}
+	
+	private Views views() {
+		Views views = this.views;
+		if(views==null) {
+			views = new Views();
+			this.views = views;
+		}
+		return views;
+	}
+	
+	/**
+	 * <p>The views returned by getValues(), getAttributes(),
+	 * getAttributeNamespaces() and getChildren().  Each is created the first
+	 * time it is requested and then returned by every call.</p>
+	 * 
+	 * <p>The views keep no state of their own that can be seen half written
+	 * (see AttributeMap), so two threads racing to create one only waste an
+	 * allocation.</p>
+	 */
+	private static class Views {
+		List<Object> values;
+		SortedMap<String,Object> attributes;
+		Map<String,String> attributeNamespaces;
+		List<Tag> children;
+	}
+	
+	/**
+	 * An unmodifiable view of the children which reflects later changes
+	 */
+	private class ChildrenView extends AbstractList<Tag>
+		implements RandomAccess {
+		
+		public Tag get(int index) {
+			if(index<0 || index>=size())
+				throw new IndexOutOfBoundsException("Index: " + index +
+						", Size: " + size());
+			return children.get(index);
+		}
+		
+		public int size() {
+			return children==null ? 0 : children.size();
+		}
 	}
 	
 	/**
@@ -774,23 +1442,294 @@ public class Tag implements Serializable {
 	 */
 	public List<Tag> getChildren(boolean recursively) {
 		if(!recursively)
-			return childrenView;
+			return getChildren();
 		
-		ArrayList<Tag> kids = new ArrayList();
-		for(Tag t:children) {
-			kids.add(t);
-			
-			if(recursively)
-				kids.addAll(t.getChildren(true));
-		}
+		ArrayList<Tag> kids = new ArrayList<Tag>();
+		for(Iterator<Tag> i=new DescendantIterator(this); i.hasNext();)
+			kids.add(i.next());
 		
 		return Collections.unmodifiableList(kids);
 	}
-
+	
 	/**
-	 * Get the name of this Tag.
-	 * 
-	 * @return This Tag's name
+	 * @return An iterator over the children or, if recursive is true, all
+	 *         the descendants of this tag
+	 */
+	private Iterator<Tag> childIterator(boolean recursive) {
+		if(recursive)
+			return new DescendantIterator(this);
+		return children==null ? Collections.<Tag>emptyList().iterator() :
+			children.iterator();
+	}
+	
+	/**
+	 * <p>Index the children by name and namespace, so
+	 * {@link #getChild(String)}, {@link #getChildren(String)} and
+	 * {@link #getChildrenForNamespace(String)} find them without searching
+	 * the list.  This is worthwhile for tags with many children which are
+	 * looked up repeatedly.  The index is built by the first lookup and is
+	 * kept up to date as children are added, removed and renamed.</p>
+	 * 
+	 * <p>Several threads may look up children at once as long as none of
+	 * them changes this tag or its children.</p>
+	 * 
+	 * <p>Each child holds only a small flag shared with the index, so a child
+	 * kept after it is removed or after this tag is discarded does not keep
+	 * this tag's other children in memory.</p>
+	 * 
+	 * @param indexed true to index the children, false to discard the index
+	 */
+	public void setChildrenIndexed(boolean indexed) {
+		ChildIndex childIndex = this.childIndex;
+		if(indexed==(childIndex!=null))
+			return;
+		
+		if(indexed)
+			childIndex = new ChildIndex();
+		
+		if(children!=null) {
+			for(Tag child:children) {
+				if(indexed)
+					child.addParentIndex(childIndex);
+				else
+					child.removeParentIndex(childIndex);
+			}
+		}
+		this.childIndex = indexed ? childIndex : null;
+	}
+	
+	/**
+	 * @return true if the children are indexed (see
+	 *         {@link #setChildrenIndexed(boolean)})
+	 */
+	public boolean isChildrenIndexed() {
+		return childIndex!=null;
+	}
+	
+	/**
+	 * @return The index of the children, rebuilt if it is stale, or null if
+	 *         the children are not indexed
+	 */
+	private ChildIndex childIndex() {
+		ChildIndex index = childIndex;
+		if(index!=null)
+			index.update(children);
+		return index;
+	}
+	
+	private void addParentIndex(ChildIndex index) {
+		IndexState state = index.state;
+		if(parentIndexes==null) {
+			parentIndexes = state;
+		} else if(parentIndexes instanceof IndexState) {
+			List<IndexState> list = new ArrayList<IndexState>(2);
+			list.add((IndexState)parentIndexes);
+			list.add(state);
+			parentIndexes = list;
+		} else {
+			((List<IndexState>)parentIndexes).add(state);
+		}
+	}
+	
+	/**
+	 * Remove one occurrence of the index (a tag added to a parent twice is
+	 * registered twice)
+	 */
+	private void removeParentIndex(ChildIndex index) {
+		IndexState state = index.state;
+		if(parentIndexes==state) {
+			parentIndexes = null;
+		} else if(parentIndexes instanceof List) {
+			List<IndexState> list = (List<IndexState>)parentIndexes;
+			list.remove(state);
+			if(list.size()==1)
+				parentIndexes = list.get(0);
+		}
+	}
+	
+	/**
+	 * Called when the name or namespace of this tag changes
+	 */
+	private void makeParentIndexesStale() {
+		if(parentIndexes instanceof IndexState) {
+			((IndexState)parentIndexes).stale=true;
+		} else if(parentIndexes!=null) {
+			for(IndexState state:(List<IndexState>)parentIndexes)
+				state.stale=true;
+		}
+	}
+	
+	/**
+	 * Whether a ChildIndex is stale.  Held by the children instead of the
+	 * index itself, which refers to all the children.
+	 */
+	private static class IndexState {
+		
+		// true until the maps are built and whenever they no longer match
+		// the children.  The maps are written before stale is cleared, so a
+		// thread which reads stale as false sees the current maps.
+		volatile boolean stale = true;
+	}
+	
+	/**
+	 * <p>Maps the names and namespaces of a tag's children to the children,
+	 * in document order, so children can be found without searching the
+	 * list.  The maps are kept up to date as children are added to the end
+	 * or removed.  Other changes to the children, and renaming a child, make
+	 * the index stale and it is rebuilt by the next lookup.</p>
+	 * 
+	 * <p>Each child holds the IndexState of its indexed parents (a tag may
+	 * have more than one parent) so renaming it makes only those indexes
+	 * stale.  Lookups never change the maps of an index which is not stale,
+	 * and a stale index is rebuilt while holding its lock, so concurrent
+	 * lookups are safe when nothing else changes the tags.</p>
+	 */
+	private static class ChildIndex {
+		
+		final IndexState state = new IndexState();
+		
+		// keys to a single Tag or an ArrayList<Tag> of two or more tags
+		Map<String,Object> byName;
+		Map<String,Object> byNamespace;
+		
+		/**
+		 * Rebuild the maps if the index is stale
+		 */
+		void update(List<Tag> children) {
+			if(!state.stale)
+				return;
+			
+			synchronized(this) {
+				if(!state.stale)
+					return;
+				
+				Map<String,Object> names = new HashMap<String,Object>();
+				Map<String,Object> namespaces = new HashMap<String,Object>();
+				if(children!=null) {
+					for(Tag child:children) {
+						put(names, child.name, child);
+						put(namespaces, child.namespace, child);
+					}
+				}
+				byName = names;
+				byNamespace = namespaces;
+				state.stale = false;
+			}
+		}
+		
+		void add(Tag child) {
+			if(!state.stale) {
+				put(byName, child.name, child);
+				put(byNamespace, child.namespace, child);
+			}
+		}
+		
+		void remove(Tag child) {
+			if(!state.stale) {
+				remove(byName, child.name, child);
+				remove(byNamespace, child.namespace, child);
+			}
+		}
+		
+		private static void put(Map<String,Object> map, String key, Tag child) {
+			Object tags = map.get(key);
+			if(tags==null) {
+				map.put(key, child);
+			} else if(tags instanceof Tag) {
+				List<Tag> list = new ArrayList<Tag>(4);
+				list.add((Tag)tags);
+				list.add(child);
+				map.put(key, list);
+			} else {
+				((List<Tag>)tags).add(child);
+			}
+		}
+		
+		/**
+		 * Remove the first occurrence of the given instance (children are
+		 * kept in the same order as the parent's list)
+		 */
+		private static void remove(Map<String,Object> map, String key,
+				Tag child) {
+			
+			Object tags = map.get(key);
+			if(tags==child) {
+				map.remove(key);
+			} else if(tags instanceof List) {
+				List<Tag> list = (List<Tag>)tags;
+				for(int i=0; i<list.size(); i++) {
+					if(list.get(i)==child) {
+						list.remove(i);
+						break;
+					}
+				}
+				if(list.size()==1)
+					map.put(key, list.get(0));
+			}
+		}
+		
+		Tag first(Map<String,Object> map, String key) {
+			Object tags = map.get(key);
+			if(tags instanceof List)
+				return ((List<Tag>)tags).get(0);
+			return (Tag)tags;
+		}
+		
+		void addAll(Map<String,Object> map, String key, List<Tag> kids) {
+			Object tags = map.get(key);
+			if(tags instanceof List)
+				kids.addAll((List<Tag>)tags);
+			else if(tags!=null)
+				kids.add((Tag)tags);
+		}
+	}
+	
+	/**
+	 * Iterates over the descendants of a tag in document order (each tag is
+	 * returned before its children).  An explicit stack is used rather than
+	 * recursion so trees of any depth can be searched.
+	 */
+	private static class DescendantIterator implements Iterator<Tag> {
+		
+		// iterators over the children of the tags being visited
+		private List<Iterator<Tag>> stack = new ArrayList<Iterator<Tag>>();
+		
+		DescendantIterator(Tag tag) {
+			push(tag);
+		}
+		
+		private void push(Tag tag) {
+			if(tag.hasChildren())
+				stack.add(tag.children.iterator());
+		}
+		
+		public boolean hasNext() {
+			while(!stack.isEmpty()) {
+				if(stack.get(stack.size()-1).hasNext())
+					return true;
+				stack.remove(stack.size()-1);
+			}
+			return false;
+		}
+		
+		public Tag next() {
+			if(!hasNext())
+				throw new NoSuchElementException();
+			
+			Tag tag = stack.get(stack.size()-1).next();
+			push(tag);
+			return tag;
+		}
+		
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Get the name of this Tag.
+	 * 
+	 * @return This Tag's name
 	 */
 	public String getName() {
 		return name;
@@ -805,7 +1744,10 @@ public class Tag implements Serializable {
 	 */
 	public void setName(String name) {
 		SDL.validateIdentifier(name);
+		if(!name.equals(this.name))
+			makeParentIndexesStale();
 		this.name = name;
+		invalidateHash();
 	}
 
 	/**
@@ -831,7 +1773,10 @@ public class Tag implements Serializable {
 		if(namespace.length()!=0)
 			SDL.validateIdentifier(namespace);
 		
+		if(!namespace.equals(this.namespace))
+			makeParentIndexesStale();
 		this.namespace = namespace;
+		invalidateHash();
 	}
 	
 	/**
@@ -847,7 +1792,9 @@ public class Tag implements Serializable {
 	}	
 	
 	/**
-	 * Add all the tags specified in the given file to this Tag.
+	 * Add all the tags specified in the given file to this Tag.  The file is
+	 * mapped into memory and its UTF8 bytes are decoded directly into the
+	 * parser's buffer.
 	 * 
 	 * @param file A UTF8 encoded .sdl file
 	 * @throws IOException If there is an IO problem reading the source 
@@ -855,7 +1802,7 @@ public class Tag implements Serializable {
 	 * @return This tag after adding all the children read from the reader
 	 */
 	public Tag read(File file) throws IOException, SDLParseException {
-		return read(new InputStreamReader(new FileInputStream(file), "UTF8"));
+		return read(file, false);
 	}	
 	
 	/**
@@ -866,11 +1813,58 @@ public class Tag implements Serializable {
 	 * @return This tag after adding all the children read from the reader
 	 */
 	public Tag read(String text) throws SDLParseException {
+		return read((CharSequence)text);
+	}
+	
+	/**
+	 * Add all the tags specified in the given text to this Tag.  The text is
+	 * copied into the parser's buffer and scanned without a Reader.
+	 * 
+	 * @param text SDL source such as a String or StringBuilder
+	 * @throws ParseException If the SDL input is malformed
+	 * @return This tag after adding all the children read from the text
+	 */
+	public Tag read(CharSequence text) throws SDLParseException {
+		Parser parser = Parser.obtain(text);
+		try {
+			return addChildren(parser.parse());
+		} catch(IOException ioe) {
+			// Cannot happen
+			throw new InternalError("IOException reading a CharSequence");
+		} finally {
+			parser.release();
+		}
+	}
+	
+	/**
+	 * Add all the tags specified in the characters text[offset] to
+	 * text[offset+length-1] to this Tag.  The array is scanned in place, so
+	 * it must not be modified until this method returns.  Line numbers in
+	 * error messages count from the start of the range.
+	 * 
+	 * @param text An array containing SDL source
+	 * @param offset The index of the first character to read
+	 * @param length The number of characters to read
+	 * @throws ParseException If the SDL input is malformed
+	 * @throws IndexOutOfBoundsException If the range is not within the array
+	 * @return This tag after adding all the children read from the text
+	 */
+	public Tag read(char[] text, int offset, int length)
+		throws SDLParseException {
+		
+		if(offset<0 || length<0 || length>text.length-offset)
+			throw new IndexOutOfBoundsException("Range " + offset + "+" +
+					length + " is not within an array of length " +
+					text.length);
+		
+		Parser parser = Parser.obtain(text, offset, offset+length, 0);
 		try {
-			return read(new StringReader(text));
+			return addChildren(parser.parse());
 		} catch(IOException ioe) {
 			// Cannot happen
-			throw new InternalError("IOExceptio reading a String");
+			throw new InternalError("IOException reading a char array");
+		} finally {
+			parser.release();
 		}
 	}
 	
@@ -883,7 +1877,175 @@ public class Tag implements Serializable {
 	 * @return This tag after adding all the children read from the reader
 	 */
 	public Tag read(Reader reader) throws IOException, SDLParseException {
-		List<Tag> tags = new Parser(reader).parse();
+		return read(reader, false);
+	}
+	
+	/**
+	 * Add all the tags specified in the given file to this Tag, optionally
+	 * deferring the decoding of literals.  See {@link #read(Reader, boolean)}.
+	 * 
+	 * @param file A UTF8 encoded .sdl file
+	 * @param lazy If true date, date/time, and binary literals are decoded
+	 *        when first accessed
+	 * @throws IOException If there is an IO problem reading the source 
+	 * @throws ParseException If the SDL input is malformed
+	 * @return This tag after adding all the children read from the reader
+	 */
+	public Tag read(File file, boolean lazy) throws IOException,
+		SDLParseException {
+		
+		return read(new MappedUTF8Reader(file), lazy);
+	}
+	
+	/**
+	 * <p>Add all the tags specified in the given Reader to this Tag, optionally
+	 * deferring the decoding of literals.</p>
+	 * 
+	 * <p>If lazy is true, date, date/time, and binary literals are stored as
+	 * text and decoded the first time they are accessed through a method such
+	 * as {@link #getValue()} or {@link #getAttribute(String)}.  This saves a
+	 * great deal of work when a large document is read and only a few values
+	 * are used.  Because these literals are not checked until they are used,
+	 * a malformed date or binary literal will cause the accessor to throw an
+	 * IllegalArgumentException rather than causing this method to throw a
+	 * SDLParseException.</p>
+	 * 
+	 * @param reader A reader containing SDL source
+	 * @param lazy If true date, date/time, and binary literals are decoded
+	 *        when first accessed
+	 * @throws IOException If there is an IO problem reading the source 
+	 * @throws ParseException If the SDL input is malformed
+	 * @return This tag after adding all the children read from the reader
+	 */
+	public Tag read(Reader reader, boolean lazy) throws IOException,
+		SDLParseException {
+		
+		Parser parser = Parser.obtain(reader);
+		try {
+			parser.setLazy(lazy);
+			return addChildren(parser.parse());
+		} finally {
+			parser.release();
+		}
+	}
+	
+	/**
+	 * Add all the tags specified in the given Reader to this Tag, limiting
+	 * the number of nested blocks.  This protects against documents (for
+	 * example from untrusted sources) which would otherwise create
+	 * arbitrarily deep trees.
+	 * 
+	 * @param reader A reader containing SDL source
+	 * @param maxDepth The maximum number of nested blocks
+	 * @throws IOException If there is an IO problem reading the source 
+	 * @throws ParseException If the SDL input is malformed or blocks are
+	 *         nested more than maxDepth levels deep
+	 * @return This tag after adding all the children read from the reader
+	 */
+	public Tag read(Reader reader, int maxDepth) throws IOException,
+		SDLParseException {
+		
+		Parser parser = Parser.obtain(reader);
+		try {
+			parser.setMaxDepth(maxDepth);
+			return addChildren(parser.parse());
+		} finally {
+			parser.release();
+		}
+	}
+	
+	/**
+	 * Add the tags in the given file which match any of the given paths to
+	 * this Tag.  See {@link #read(Reader, String...)}.
+	 * 
+	 * @param file A UTF8 encoded .sdl file
+	 * @param paths Paths such as "server/database/*"
+	 * @throws IOException If there is an IO problem reading the source 
+	 * @throws ParseException If the SDL input is malformed
+	 * @throws IllegalArgumentException If a path is empty or has an empty
+	 *         segment
+	 * @return This tag after adding all the children read from the reader
+	 */
+	public Tag read(File file, String... paths) throws IOException,
+		SDLParseException {
+		
+		return read(new MappedUTF8Reader(file), paths);
+	}
+	
+	/**
+	 * <p>Add the tags in the given Reader which match any of the given paths
+	 * to this Tag.  Each path is a list of tag names separated by slashes
+	 * starting at the top level of the document.  A name matches tags with
+	 * that name in any namespace.  "namespace:name" matches a name in a
+	 * specific namespace and "*" matches any tag.  For example,
+	 * "server/database" reads the database tags in each top level server tag
+	 * and "server/database/*" reads only their children.</p>
+	 * 
+	 * <p>Matching tags are read with all their descendants.  The tags
+	 * containing them are read with their values and attributes but only the
+	 * children leading to matches.  Other tags and their blocks are skipped by
+	 * a scanner which does not create Tags or decode literals, so reading one
+	 * section of a large document is much faster than reading all of it.
+	 * Skipped tags are only checked for errors which prevent finding the end
+	 * of their blocks, such as unterminated strings and missing close blocks.
+	 * Malformed literals and misplaced attributes in skipped tags are not
+	 * reported.</p>
+	 * 
+	 * @param reader A reader containing SDL source
+	 * @param paths Paths such as "server/database/*"
+	 * @throws IOException If there is an IO problem reading the source 
+	 * @throws ParseException If the SDL input is malformed
+	 * @throws IllegalArgumentException If a path is empty or has an empty
+	 *         segment
+	 * @return This tag after adding all the children read from the reader
+	 */
+	public Tag read(Reader reader, String... paths) throws IOException,
+		SDLParseException {
+		
+		PathFilter filter;
+		try {
+			filter = new PathFilter(paths);
+		} catch(IllegalArgumentException iae) {
+			reader.close();
+			throw iae;
+		}
+		
+		Parser parser = Parser.obtain(reader);
+		try {
+			parser.setFilter(filter);
+			return addChildren(parser.parse());
+		} finally {
+			parser.release();
+		}
+	}
+	
+	/**
+	 * <p>Add all the tags specified in the given Reader to this Tag, parsing
+	 * the document in parallel.  The source is read into memory and split into
+	 * chunks at the start of top level tags.  The chunks are parsed by tasks
+	 * submitted to the executor and their tags are added in document
+	 * order.</p>
+	 * 
+	 * <p>This is only worthwhile for large documents with many top level
+	 * tags.  Documents too small to split are parsed on the calling
+	 * thread.</p>
+	 * 
+	 * @param reader A reader containing SDL source
+	 * @param executor The executor used to parse the chunks
+	 * @throws IOException If there is an IO problem reading the source 
+	 * @throws ParseException If the SDL input is malformed
+	 * @return This tag after adding all the children read from the reader
+	 */
+	public Tag read(Reader reader, ExecutorService executor)
+		throws IOException, SDLParseException {
+		
+		return addChildren(new ParallelParser(reader, executor).parse());
+	}
+	
+	/**
+	 * @return This tag after adding the given tags as children
+	 */
+	private Tag addChildren(List<Tag> tags) {
 		for(Tag t:tags)
 			addChild(t);
 		return this;
@@ -908,12 +2070,19 @@ public class Tag implements Serializable {
 	 * @throws IOException If there is an IO problem during the write operation 
 	 */
 	public void write(File file, boolean includeRoot) throws IOException {
-		write(new OutputStreamWriter(new FileOutputStream(file),"UTF8"),
-				includeRoot);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF8");
+		try {
+			write(writer, includeRoot);
+		} finally {
+			writer.close();
+		}
 	}
 
 	/**
 	 * Write this tag out to the given writer (optionally clipping the root.)
+	 * The tag is written a line at a time through a buffer.  The writer is
+	 * flushed but not closed.
 	 * 
 	 * @param writer The writer to which we will write this tag
 	 * @param includeRoot If true this tag will be written out as the root
@@ -921,19 +2090,35 @@ public class Tag implements Serializable {
 	 * @throws IOException If there is an IO problem during the write operation 
 	 */
 	public void write(Writer writer, boolean includeRoot) throws IOException {
+		Writer out = writer instanceof BufferedWriter ? writer :
+			new BufferedWriter(writer, 8192);
+		write((Appendable)out, includeRoot);
+		out.flush();
+	}
+	
+	/**
+	 * Write this tag out to the given Appendable (optionally clipping the
+	 * root.)  The SDL is appended as it is produced, so no String holding
+	 * the whole document is built.  The output is the same as
+	 * {@link #toString()} when the root is included.
+	 * 
+	 * @param out The Appendable to which we will write this tag
+	 * @param includeRoot If true this tag will be written out as the root
+	 *        element, if false only the children will be written
+	 * @throws IOException If out throws an IOException
+	 */
+	public void write(Appendable out, boolean includeRoot) throws IOException {
 		String newLine = System.getProperty("line.separator");
 		
 		if(includeRoot) {
-			writer.write(toString());
+			writeSDL(out, Indentation.NONE, newLine);
 		} else {
-			for(Iterator i=children.iterator();i.hasNext();) {
-				writer.write(String.valueOf(i.next()));
+			for(Iterator<Tag> i=childIterator(false); i.hasNext();) {
+				i.next().writeSDL(out, Indentation.NONE, newLine);
 				if(i.hasNext())
-					writer.write(newLine);
+					out.append(newLine);
 			}
 		}
-		
-		writer.close();
 	}
 
 	/**
@@ -954,78 +2139,387 @@ public class Tag implements Serializable {
 	 * TODO: break up long lines using the backslash
 	 */
 	String toString(String linePrefix) {
-		String newLine = System.getProperty("line.separator");
+		StringBuilder builder = new StringBuilder();
+		try {
+			writeSDL(builder, Indentation.forPrefix(linePrefix),
+					System.getProperty("line.separator"));
+		} catch(IOException ioe) {
+			// Cannot happen
+			throw new InternalError("IOException appending to a " +
+					"StringBuilder");
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Write this tag and its descendants using SDL.  An explicit stack is
+	 * used rather than recursion so trees of any depth can be written.
+	 */
+	private void writeSDL(Appendable out, Indentation indentation,
+			String newLine) throws IOException {
 		
-		if(linePrefix==null)
-			linePrefix="";
+		// iterators over the children of the tags whose blocks are open
+		List<Iterator<Tag>> stack = new ArrayList<Iterator<Tag>>();
 		
-		StringBuilder builder = new StringBuilder(linePrefix);
+		out.append(indentation.get(0));
+		appendSDL(out);
+		if(hasChildren()) {
+			out.append(" {").append(newLine);
+			stack.add(children.iterator());
+		}
+		
+		while(!stack.isEmpty()) {
+			int depth = stack.size();
+			Iterator<Tag> i = stack.get(depth-1);
+			
+			if(i.hasNext()) {
+				Tag t = i.next();
+				out.append(indentation.get(depth));
+				t.appendSDL(out);
+				
+				if(!t.hasChildren()) {
+					out.append(newLine);
+				} else {
+					out.append(" {").append(newLine);
+					stack.add(t.children.iterator());
+				}
+			} else {
+				stack.remove(depth-1);
+				out.append(indentation.get(depth-1)).append('}');
+				if(depth>1)
+					out.append(newLine);
+			}
+		}
+	}
+	
+	/**
+	 * Append the namespace, name, values, and attributes of this tag (but
+	 * not its children) using SDL
+	 */
+	private void appendSDL(Appendable out) throws IOException {
+		decodeLazyValues();
+		decodeLazyAttributes();
 		
 		boolean skipValueSpace=false;
 		if(name.equals("content") && namespace.equals("")) {
 			skipValueSpace=true;
 		} else {
 			if(!namespace.equals(""))
-				builder.append(namespace + ":");
-			builder.append(name);
+				out.append(namespace).append(':');
+			out.append(name);
 		}
 		// output values
-		if(!values.isEmpty()) {
-			for(Iterator i=values.iterator(); i.hasNext();) {
-				if(skipValueSpace)
-					skipValueSpace=false;
-				else
-					builder.append(" ");
-				builder.append(SDL.format(i.next()));
-			}
+		for(int i=0, count=valueCount(); i<count; i++) {
+			if(skipValueSpace)
+				skipValueSpace=false;
+			else
+				out.append(' ');
+			appendValue(out, valueAt(i));
 		}
 		
 		// output attributes
-		if(!attributes.isEmpty()) {
-			for(Iterator<Entry<String,Object>> i=
-				attributes.entrySet().iterator();i.hasNext();) {
+		if(attributes!=null) {
+			for(int i=0, count=attributes.size(); i<count; i++) {
 				
-				builder.append(" ");
+				out.append(' ');
 				
-				Entry<String,Object> e = i.next();
-				String key=e.getKey();
-				String attNamespace = attributeToNamespace.get(key);
+				String attNamespace = attributes.namespaceAt(i);
 			
 				if(!attNamespace.equals(""))
-					builder.append(attNamespace + ":");
-				builder.append(key + "=");
-				builder.append(SDL.format(attributes.get(key)));
-			}
-		}		
-		
-		// output children
-		if(!children.isEmpty()) {
-			builder.append(" {" + newLine);
-			for(Tag t:children) {
-				builder.append(t.toString(linePrefix + "    ") + newLine);
+					out.append(attNamespace).append(':');
+				out.append(attributes.keyAt(i)).append('=');
+				appendValue(out, attributes.valueAt(i));
 			}
-			builder.append(linePrefix + "}");
 		}
+	}
+	
+	/**
+	 * Append a value using SDL.  Binary values are encoded directly to out
+	 * rather than through a separate String.
+	 */
+	private static void appendValue(Appendable out, Object value)
+		throws IOException {
 		
-		return builder.toString();
+		if(value instanceof SDLBinary) {
+			((SDLBinary)value).appendBase64(out.append('['));
+			out.append(']');
+		} else if(value instanceof byte[]) {
+			Base64.encode(ByteBuffer.wrap((byte[])value), out.append('['));
+			out.append(']');
+		} else {
+			out.append(SDL.format(value));
+		}
 	}
 	
 	/**
 	 * Returns true if this tag (including all of its values, attributes, and
 	 * children) is equivalent to the given tag.
 	 * 
+	 * <p>Tags are equal when they would be written as the same SDL.  They are
+	 * compared field by field, stopping at the first difference, rather
+	 * than by writing them out.</p>
+	 * 
 	 * @return true if the tags are equivalet
 	 */
-	public boolean equals(Object o) {		
-		// this is safe because toString() dumps the full state
-		return o instanceof Tag && o.toString().equals(toString());
+	public boolean equals(Object o) {
+		if(o==this)
+			return true;
+		if(!(o instanceof Tag))
+			return false;
+		
+		// pairs of tags still to be compared (an explicit stack is used
+		// rather than recursion so trees of any depth can be compared)
+		List<Tag> left = new ArrayList<Tag>();
+		List<Tag> right = new ArrayList<Tag>();
+		left.add(this);
+		right.add((Tag)o);
+		
+		while(!left.isEmpty()) {
+			Tag a = left.remove(left.size()-1);
+			Tag b = right.remove(right.size()-1);
+			if(a==b)
+				continue;
+			if(!a.equalsIgnoringChildren(b))
+				return false;
+			
+			for(int i=a.childCount()-1; i>=0; i--) {
+				left.add(a.children.get(i));
+				right.add(b.children.get(i));
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return true if the namespaces, names, values, and attributes of the
+	 *         tags are equal and they have the same number of children
+	 */
+	private boolean equalsIgnoringChildren(Tag tag) {
+		HashCache cache = currentHash();
+		if(cache!=null) {
+			HashCache tagCache = tag.currentHash();
+			if(tagCache!=null && cache.hash!=tagCache.hash)
+				return false;
+		}
+		
+		if(!name.equals(tag.name) || !namespace.equals(tag.namespace) ||
+				childCount()!=tag.childCount())
+			return false;
+		
+		decodeLazyValues();
+		tag.decodeLazyValues();
+		int count = valueCount();
+		if(count!=tag.valueCount())
+			return false;
+		for(int i=0; i<count; i++) {
+			if(!valueEquals(valueAt(i), tag.valueAt(i)))
+				return false;
+		}
+		
+		decodeLazyAttributes();
+		tag.decodeLazyAttributes();
+		count = attributes==null ? 0 : attributes.size();
+		if(count!=(tag.attributes==null ? 0 : tag.attributes.size()))
+			return false;
+		for(int i=0; i<count; i++) {
+			if(!attributes.keyAt(i).equals(tag.attributes.keyAt(i)) ||
+					!attributes.namespaceAt(i).equals(
+							tag.attributes.namespaceAt(i)) ||
+					!valueEquals(attributes.valueAt(i),
+							tag.attributes.valueAt(i)))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private int childCount() {
+		return children==null ? 0 : children.size();
+	}
+	
+	/**
+	 * Compare values the way their SDL literals would compare.  Binary values
+	 * are equal if they have the same bytes whether they are byte arrays or
+	 * SDLBinary values.  Calendars are compared by their literals because
+	 * SDL.format uses fields and time zones Calendar.equals does not.
+	 */
+	private static boolean valueEquals(Object a, Object b) {
+		if(a==b)
+			return true;
+		if(a==null || b==null)
+			return false;
+		
+		if(a instanceof Calendar || b instanceof Calendar) {
+			return a instanceof Calendar && b instanceof Calendar &&
+				SDL.format(a).equals(SDL.format(b));
+		}
+		
+		ByteBuffer bytesA = binaryBuffer(a);
+		if(bytesA!=null) {
+			ByteBuffer bytesB = binaryBuffer(b);
+			return bytesB!=null && bytesA.equals(bytesB);
+		}
+		
+		return a.equals(b);
+	}
+	
+	/**
+	 * @return A hash consistent with valueEquals
+	 */
+	private static int valueHash(Object value) {
+		if(value==null)
+			return 0;
+		if(value instanceof Calendar)
+			return SDL.format(value).hashCode();
+		
+		ByteBuffer bytes = binaryBuffer(value);
+		return bytes!=null ? bytes.hashCode() : value.hashCode();
+	}
+	
+	/**
+	 * @return A buffer holding the bytes of a binary value or null if the
+	 *         value is not binary
+	 */
+	private static ByteBuffer binaryBuffer(Object value) {
+		if(value instanceof byte[])
+			return ByteBuffer.wrap((byte[])value);
+		if(value instanceof SDLBinary)
+			return ((SDLBinary)value).getBuffer();
+		return null;
 	}
 
 	/**
-	 * @return The hash (based on the output from toString())
+	 * <p>The hash is computed from the same fields as {@link #equals(Object)}
+	 * and is cached.  A change to any tag in a tree makes the cached hashes
+	 * of that tree stale, and they are recomputed when they are next needed.
+	 * Tags in other trees keep their hashes.  Changing a Calendar or byte[]
+	 * value in place is not seen as a change to the tag.</p>
+	 * 
+	 * @return The hash of this tag and its descendants
 	 */
 	public int hashCode() {
-		return toString().hashCode();
+		HashCache cache = currentHash();
+		if(cache!=null)
+			return cache.hash;
+		
+		// the descendants of this tag are in the same tree
+		TreeStamp root = stamp==null ? null : stamp.root();
+		int modCount = root==null ? 0 : root.modCount;
+		
+		// the tags whose hashes are being computed and iterators over their
+		// children.  Each tag's hash is computed after its children's.
+		List<Tag> tags = new ArrayList<Tag>();
+		List<Iterator<Tag>> stack = new ArrayList<Iterator<Tag>>();
+		tags.add(this);
+		stack.add(childIterator(false));
+		
+		while(!stack.isEmpty()) {
+			int depth = stack.size();
+			Iterator<Tag> i = stack.get(depth-1);
+			
+			if(i.hasNext()) {
+				Tag t = i.next();
+				cache = t.hashCache;
+				if(cache==null || cache.root!=root ||
+						cache.modCount!=modCount) {
+					tags.add(t);
+					stack.add(t.childIterator(false));
+				}
+			} else {
+				stack.remove(depth-1);
+				cache = tags.remove(depth-1).computeHash(root, modCount);
+			}
+		}
+		
+		return cache.hash;
+	}
+	
+	/**
+	 * Compute and cache the hash of this tag from its fields and the cached
+	 * hashes of its children, which are current
+	 * 
+	 * @return The new cached hash
+	 */
+	private HashCache computeHash(TreeStamp root, int modCount) {
+		decodeLazyValues();
+		decodeLazyAttributes();
+		
+		int h = 31*namespace.hashCode() + name.hashCode();
+		for(int i=0, count=valueCount(); i<count; i++)
+			h = 31*h + valueHash(valueAt(i));
+		
+		if(attributes!=null) {
+			for(int i=0, count=attributes.size(); i<count; i++) {
+				h = 31*h + attributes.keyAt(i).hashCode();
+				h = 31*h + attributes.namespaceAt(i).hashCode();
+				h = 31*h + valueHash(attributes.valueAt(i));
+			}
+		}
+		
+		for(int i=0, count=childCount(); i<count; i++)
+			h = 31*h + children.get(i).hashCache.hash;
+		
+		hashCache = new HashCache(h, root, modCount);
+		return hashCache;
+	}
+	
+	/**
+	 * <p>Counts the changes to the tags of a tree.  Each tag in a tree refers
+	 * to a TreeStamp, and adding a child joins the stamps of the two trees
+	 * by pointing the root of one at the root of the other.  Only the root's
+	 * modCount is used.  Changing any tag increments it, which makes the
+	 * cached hashes of all tags in the tree stale, including those of the
+	 * changed tag's ancestors.</p>
+	 * 
+	 * <p>A removed child stays in its old tree, so its changes make the
+	 * hashes of the old tree stale.  That costs rehashing but is never
+	 * wrong.</p>
+	 */
+	private static class TreeStamp {
+		
+		// the stamp this one was joined to, or null for the root
+		TreeStamp parent;
+		int modCount;
+		
+		/**
+		 * @return The root stamp (used when reading, as it changes nothing)
+		 */
+		TreeStamp root() {
+			TreeStamp s = this;
+			while(s.parent!=null)
+				s = s.parent;
+			return s;
+		}
+		
+		/**
+		 * @return The root stamp after pointing the stamps on the way to it
+		 *         directly at it, which keeps later searches short
+		 */
+		TreeStamp compress() {
+			TreeStamp root = root();
+			for(TreeStamp s=this; s!=root;) {
+				TreeStamp next = s.parent;
+				s.parent = root;
+				s = next;
+			}
+			return root;
+		}
+	}
+	
+	/**
+	 * A hash and the tree root and modCount it was computed for.  Its fields
+	 * are final so a hash cached by one thread is seen complete by others.
+	 */
+	private static class HashCache {
+		final int hash;
+		final TreeStamp root;
+		final int modCount;
+		
+		HashCache(int hash, TreeStamp root, int modCount) {
+			this.hash = hash;
+			this.root = root;
+			this.modCount = modCount;
+		}
 	}
 	
 	/**
@@ -1049,49 +2543,83 @@ public class Tag implements Serializable {
 		if(linePrefix==null)
 			linePrefix="";
 		
-		StringBuilder builder = new StringBuilder(linePrefix + "<");
+		StringBuilder builder = new StringBuilder(linePrefix);
+		appendXMLStartTag(builder);
+		if(!hasChildren())
+			return builder.append("/>").toString();
+		builder.append(">").append(newLine);
+		
+		Indentation indentation = Indentation.forPrefix(linePrefix);
+		
+		// the tags whose elements are open and iterators over their children
+		List<Tag> openTags = new ArrayList<Tag>();
+		List<Iterator<Tag>> stack = new ArrayList<Iterator<Tag>>();
+		openTags.add(this);
+		stack.add(children.iterator());
+		
+		while(!stack.isEmpty()) {
+			int depth = stack.size();
+			Iterator<Tag> i = stack.get(depth-1);
+			
+			if(i.hasNext()) {
+				Tag t = i.next();
+				builder.append(indentation.get(depth));
+				t.appendXMLStartTag(builder);
+				
+				if(!t.hasChildren()) {
+					builder.append("/>").append(newLine);
+				} else {
+					builder.append(">").append(newLine);
+					openTags.add(t);
+					stack.add(t.children.iterator());
+				}
+			} else {
+				stack.remove(depth-1);
+				Tag t = openTags.remove(depth-1);
+				
+				builder.append(indentation.get(depth-1)).append("</");
+				if(!t.namespace.equals(""))
+					builder.append(t.namespace + ":");
+				builder.append(t.name + ">");
+				if(depth>1)
+					builder.append(newLine);
+			}
+		}
+
+		return builder.toString();
+	}
+	
+	/**
+	 * Append the start of this tag's XML element including its values and
+	 * attributes but not the closing &gt; or /&gt;
+	 */
+	private void appendXMLStartTag(StringBuilder builder) {
+		decodeLazyValues();
+		decodeLazyAttributes();
+		
+		builder.append("<");
 		if(!namespace.equals(""))
 			builder.append(namespace + ":");
 		builder.append(name);
 		
 		// output values
-		if(!values.isEmpty()) {
-			int i=0;
-			for(Object val:values) {
-				builder.append(" ");
-				builder.append("_val" + i + "=\"" + SDL.format(val, false)
-						+ "\"");
-				i++;
-			}
+		for(int i=0, count=valueCount(); i<count; i++) {
+			builder.append(" ");
+			builder.append("_val" + i + "=\"" + SDL.format(valueAt(i), false)
+					+ "\"");
 		}
 		
 		// output attributes
-		if(!attributes.isEmpty()) {
-			for(String key:attributes.keySet()) {
+		if(attributes!=null) {
+			for(int i=0, count=attributes.size(); i<count; i++) {
 				builder.append(" ");
-				String attNamespace = attributeToNamespace.get(key);
+				String attNamespace = attributes.namespaceAt(i);
 				if(!attNamespace.equals(""))
 					builder.append(attNamespace + ":");
-				builder.append(key + "=");
-				builder.append("\"" + SDL.format(attributes.get(key), false)
+				builder.append(attributes.keyAt(i) + "=");
+				builder.append("\"" + SDL.format(attributes.valueAt(i), false)
 						+ "\"");			
 			}
-		}		
-
-		if(!children.isEmpty()) {
-			builder.append(">" + newLine);
-			for(Tag t:children) {
-				builder.append(t.toXMLString(linePrefix + "    ") + newLine);
-			}
-			
-			builder.append(linePrefix + "</");
-			if(!namespace.equals(""))
-				builder.append(namespace + ":");
-			builder.append(name + ">");
-		} else {
-			builder.append("/>");
 		}
-
-		return builder.toString();
 	}
 }
\ No newline at end of file
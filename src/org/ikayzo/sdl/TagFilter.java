@@ -0,0 +1,39 @@
+/*
+ * Simple Declarative Language (SDL) for Java
+ * Copyright 2005 Ikayzo, inc.
+ *
+ * This program is free software. You can distribute or modify it under the
+ * terms of the GNU Lesser General Public License version 2.1 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed AS IS and WITHOUT WARRANTY. OF ANY KIND,
+ * INCLUDING MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, contact the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.ikayzo.sdl;
+
+/**
+ * <p>Selects tags, for example the children to remove with
+ * {@link Tag#removeChildren(TagFilter)}.</p>
+ *
+ * <pre>
+ *     // remove every "comment" tag in the document
+ *     root.removeChildren(new TagFilter() {
+ *         public boolean accept(Tag tag) {
+ *             return tag.getName().equals("comment");
+ *         }
+ *     }, true);
+ * </pre>
+ */
+public interface TagFilter {
+
+	/**
+	 * @param tag The tag to test
+	 * @return true if the tag is selected
+	 */
+	public boolean accept(Tag tag);
+}
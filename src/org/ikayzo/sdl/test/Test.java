@@ -16,20 +16,45 @@
  */
 package org.ikayzo.sdl.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.ikayzo.codec.Base64;
+import org.ikayzo.codec.Base64Decoder;
 import org.ikayzo.sdl.*;
 
 import static org.ikayzo.sdl.SDL.format;
@@ -50,6 +75,25 @@ public class Test {
 	// Tag datastructure tests
 	private static final String TAG = "Tag";
 	private static final String TAG_WRITE_PARSE = "Tag Write Parse";
+	private static final String LINE_ENDINGS = "Line Endings";
+	private static final String LAZY_READ = "Lazy Read";
+	private static final String FILE_READ = "File Read";
+	private static final String DEEP_NESTING = "Deep Nesting";
+	private static final String PARALLEL_READ = "Parallel Read";
+	private static final String FILTERED_READ = "Filtered Read";
+	private static final String PUSH_PARSER = "Push Parser";
+	private static final String PARSER_REUSE = "Parser Reuse";
+	private static final String IN_MEMORY_READ = "In Memory Read";
+	private static final String LITERAL_CACHE = "Literal Cache";
+	private static final String LARGE_BINARY = "Large Binary";
+	private static final String COMPACT_TAGS = "Compact Tags";
+	private static final String ATTRIBUTE_MAP = "Attribute Map";
+	private static final String CHILD_INDEX = "Child Index";
+	private static final String TAG_EQUALITY = "Tag Equality";
+	private static final String CHILD_POSITIONS = "Child Positions";
+	private static final String STREAMING_WRITE = "Streaming Write";
+	private static final String SDL_WRITER = "SDL Writer";
+	private static final String DATE_FORMATTING = "Date Formatting";
 	
 	// Basic Types Tests
 	private static final String STRING_DECLARATIONS = "String Declarations";	
@@ -70,10 +114,14 @@ public class Test {
 	private static final String CHILDREN = "Children";	
 	private static final String NAMESPACES = "Namespaces";	
 	
+	// Streaming Tests
+	private static final String SDL_READER = "SDL Reader";
+	private static final String SDL_HANDLER = "SDL Handler";
+	
 	////////////////////////////////////////////////////////////////////////////
 	// Tag Tests
 	////////////////////////////////////////////////////////////////////////////
-	private static void testTag() {	
+	private static void testTag() throws SDLParseException {
 		out.println("Doing basic Tag tests...");
 		
 		// Test to make sure Tag ignores the order in which attributes are
@@ -99,6 +147,37 @@ public class Test {
 		t2.setAttribute("another", "attribute");
 		assertNotEquals(TAG, t1, t2);
 		
+		out.println("    Checking parsed identifiers are shared...");
+		Tag rows = new Tag("root").read("ns:row a=1\nns:row a=2");
+		Tag row1 = rows.getChildren().get(0), row2 = rows.getChildren().get(1);
+		assertTrue(TAG, "same name instance", row1.getName()==row2.getName());
+		assertTrue(TAG, "same namespace instance",
+				row1.getNamespace()==row2.getNamespace());
+		assertTrue(TAG, "same attribute key instance",
+				row1.getAttributes().firstKey()==row2.getAttributes()
+				.firstKey());
+		
+		// two names hashing to the same slot of the parser's symbol table
+		// (4096 slots) are both shared when they alternate
+		String first = null, second = null;
+		int[] seen = new int[4096];
+		for(int i=0; second==null; i++) {
+			int hash = ("t" + i).hashCode();
+			int slot = (hash ^ (hash>>>16)) & 4095;
+			if(seen[slot]==0) {
+				seen[slot] = i+1;
+			} else {
+				first = "t" + (seen[slot]-1);
+				second = "t" + i;
+			}
+		}
+		rows = new Tag("root").read(first + "\n" + second + "\n" + first +
+				"\n" + second);
+		assertTrue(TAG, "same colliding name instances",
+				rows.getChildren().get(0).getName()==rows.getChildren().get(2)
+				.getName() && rows.getChildren().get(1).getName()==rows
+				.getChildren().get(3).getName());
+		
 		out.println("    Checking attributes namespaces...");
 		
 		t2.setAttribute("name", "bill");
@@ -112,6 +191,53 @@ public class Test {
 						));
 	}	
 	
+	private static void testDeepNesting() throws Exception {
+		out.println("Doing deep nesting tests...");
+		
+		int depth = 100000;
+		String text = nest(depth);
+		
+		out.println("    Parsing " + depth + " nested blocks...");
+		Tag root = new Tag("root").read(text);
+		assertEquals(DEEP_NESTING, root.getChildren(true).size(), depth+1);
+		assertEquals(DEEP_NESTING, root.getChild("bottom", true).getName(),
+				"bottom");
+		assertEquals(DEEP_NESTING, root.getChildren("level", true).size(),
+				depth);
+		
+		out.println("    Checking the maximum depth...");
+		assertEquals(DEEP_NESTING, new Tag("root").read(new StringReader(text),
+				depth).getChildren(true).size(), depth+1);
+		try {
+			new Tag("root").read(new StringReader(text), 10);
+			assertTrue(DEEP_NESTING, "maximum depth reported", false);
+		} catch(SDLParseException spe) {
+			assertEquals(DEEP_NESTING, spe.getLine(), 11);
+		}
+		
+		// the output is indented so its size grows with the square of the
+		// depth
+		out.println("    Writing and reading back...");
+		root = new Tag("root").read(nest(2000));
+		assertEquals(DEEP_NESTING, new Tag("root").read(root.toString())
+				.getChild("root"), root);
+		assertTrue(DEEP_NESTING, "XML ends with </root>",
+				root.toXMLString().endsWith("</root>"));
+	}
+	
+	/**
+	 * @return SDL with the given number of nested blocks
+	 */
+	private static String nest(int depth) {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<depth; i++)
+			sb.append("level ").append(i).append(" {\n");
+		sb.append("bottom\n");
+		for(int i=0; i<depth; i++)
+			sb.append("}\n");
+		return sb.toString();
+	}
+	
 	private static void testTagWriteParse(String fileName, Tag root)
 		throws SDLParseException {
 		
@@ -128,6 +254,1231 @@ public class Test {
 		
 	}
 	
+	private static void testLineEndings(String fileName, Tag root)
+		throws Exception {
+		
+		out.println("Doing line ending tests for file " + fileName + "...");
+		
+		String text = readResource(fileName).replace("\r\n", "\n");
+		
+		out.println("    Reading with \\n line endings...");
+		assertEquals(LINE_ENDINGS, new Tag("root").read(text), root);
+		
+		out.println("    Reading with \\r\\n line endings...");
+		assertEquals(LINE_ENDINGS, new Tag("root").read(text.replace("\n",
+				"\r\n")), root);
+		
+		out.println("    Reading with \\r line endings...");
+		assertEquals(LINE_ENDINGS, new Tag("root").read(text.replace("\n",
+				"\r")), root);
+		
+		out.println("    Reading a line longer than the parser's buffer...");
+		StringBuilder longLine = new StringBuilder("numbers");
+		for(int i=0; i<10000; i++)
+			longLine.append(' ').append(i);
+		assertEquals(LINE_ENDINGS, new Tag("root").read(longLine.toString())
+				.getChild("numbers").getValues().size(), 10000);
+	}
+	
+	private static void testLazyRead(String fileName, Tag root)
+		throws Exception {
+		
+		out.println("Doing lazy read tests for file " + fileName + "...");
+		
+		out.println("    Reading lazily and comparing single values...");
+		Tag lazy = new Tag("root").read(new InputStreamReader(
+				Test.class.getResourceAsStream(fileName), "UTF8"), true);
+		for(Tag child:root.getChildren()) {
+			Tag lazyChild = lazy.getChild(child.getName());
+			assertTrue(LAZY_READ, child.getName() + " value", equals(
+					lazyChild.getValue(), child.getValue()));
+		}
+		
+		out.println("    Comparing full structure...");
+		lazy = new Tag("root").read(new InputStreamReader(
+				Test.class.getResourceAsStream(fileName), "UTF8"), true);
+		assertEquals(LAZY_READ, lazy, root);
+		
+		out.println("    Checking malformed literals are reported on access...");
+		Tag bad = new Tag("root").read(new StringReader("bad 2005/1 x=[a]"),
+				true).getChild("bad");
+		try {
+			bad.getValue();
+			assertTrue(LAZY_READ, "malformed date reported", false);
+		} catch(IllegalArgumentException iae) {
+			assertContains(LAZY_READ, iae.getMessage(), "Line 1");
+		}
+	}
+	
+	private static void testFileRead(String fileName, Tag root)
+		throws Exception {
+		
+		out.println("Doing file read tests for file " + fileName + "...");
+		
+		out.println("    Writing the tag to a file and reading it back...");
+		File file = File.createTempFile("sdl", ".sdl");
+		try {
+			root.write(file);
+			assertEquals(FILE_READ, new Tag("root").read(file), root);
+			
+			out.println("    Checking multibyte characters...");
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+					"UTF8");
+			writer.write("text \"\u00e9\u65e5\ud834\udd1e\"");
+			writer.close();
+			assertEquals(FILE_READ, new Tag("root").read(file)
+					.getChild("text").getValue(), "\u00e9\u65e5\ud834\udd1e");
+		} finally {
+			file.delete();
+		}
+	}
+	
+	private static void testFilteredRead(String fileName, Tag root)
+		throws Exception {
+		
+		out.println("Doing filtered read tests for file " + fileName + "...");
+		
+		out.println("    Reading each top level tag by name...");
+		for(Tag child:root.getChildren()) {
+			String name = child.getName();
+			Tag filtered = new Tag("root").read(new InputStreamReader(
+					Test.class.getResourceAsStream(fileName), "UTF8"), name);
+			assertEquals(FILTERED_READ, filtered.getChildren(),
+					root.getChildren(name));
+		}
+	}
+	
+	private static void testFilteredRead() throws Exception {
+		out.println("Doing filtered read tests...");
+		
+		String doc =
+			"server \"main\" host=\"a\" {\n" +
+			"    database \"db1\" port=5432 {\n" +
+			"        pool size=10\n" +
+			"        timeout 30\n" +
+			"    }\n" +
+			"    cache 5 note=\"} {\" /* { */\n" +
+			"    log `{\n" +
+			"}` {\n" +
+			"        level \"info\"\n" +
+			"    }\n" +
+			"}\n" +
+			"client { # {\n" +
+			"    retry 3 /* } */ {\n" +
+			"    } // }\n" +
+			"}\n" +
+			"app:server {\n" +
+			"    database \"other\"\n" +
+			"}\n" +
+			"\"anonymous\" {\n" +
+			"    database \"skipped\"\n" +
+			"}\n";
+		
+		out.println("    Selecting nested tags...");
+		Tag root = new Tag("root").read(new StringReader(doc),
+				"server/database");
+		assertEquals(FILTERED_READ, root.getChildren().size(), 2);
+		Tag server = root.getChildren().get(0);
+		assertEquals(FILTERED_READ, server.getValue(), "main");
+		assertEquals(FILTERED_READ, server.getAttribute("host"), "a");
+		assertEquals(FILTERED_READ, server.getChildren().size(), 1);
+		assertEquals(FILTERED_READ, server.getChild("database").getChildren()
+				.size(), 2);
+		assertEquals(FILTERED_READ, root.getChildren().get(1).getNamespace(),
+				"app");
+		assertEquals(FILTERED_READ, root.getChildren().get(1).getChild(
+				"database").getValue(), "other");
+		
+		out.println("    Selecting with namespaces and wildcards...");
+		root = new Tag("root").read(new StringReader(doc),
+				"*:server/database/timeout", "server/log/*");
+		assertEquals(FILTERED_READ, root.getChildren().size(), 2);
+		server = root.getChildren().get(0);
+		assertEquals(FILTERED_READ, server.getChildren().size(), 2);
+		assertEquals(FILTERED_READ, server.getChild("database").getChild(
+				"timeout").getValue(), 30);
+		assertEquals(FILTERED_READ, server.getChild("database").getChildren()
+				.size(), 1);
+		assertEquals(FILTERED_READ, server.getChild("log").getChild("level")
+				.getValue(), "info");
+		assertEquals(FILTERED_READ, root.getChildren().get(1).getChild(
+				"database").getChildren().size(), 0);
+		
+		root = new Tag("root").read(new StringReader(doc), "app:*");
+		assertEquals(FILTERED_READ, root.getChildren().size(), 1);
+		assertEquals(FILTERED_READ, root.getChild("server").getChild(
+				"database").getValue(), "other");
+		
+		root = new Tag("root").read(new StringReader(doc), "content");
+		assertEquals(FILTERED_READ, root.getChildren().size(), 1);
+		assertEquals(FILTERED_READ, root.getChild("content").getChild(
+				"database").getValue(), "skipped");
+		
+		root = new Tag("root").read(new StringReader(doc), "client/retry");
+		assertEquals(FILTERED_READ, root.getChild("client").getChild("retry")
+				.getValue(), 3);
+		
+		out.println("    Checking skipped blocks are balanced...");
+		root = new Tag("root").read(new StringReader(doc), "*");
+		assertEquals(FILTERED_READ, root.getChildren().size(), 4);
+		root = new Tag("root").read(new StringReader(doc), "nothing");
+		assertEquals(FILTERED_READ, root.getChildren().size(), 0);
+		root = new Tag("root").read(new StringReader(doc + "last 1"), "last");
+		assertEquals(FILTERED_READ, root.getChild("last").getValue(), 1);
+		
+		out.println("    Checking errors in skipped tags...");
+		root = new Tag("root").read(new StringReader("bad 2005/1\ngood 1"),
+				"good");
+		assertEquals(FILTERED_READ, root.getChild("good").getValue(), 1);
+		
+		String[] malformed = {
+			"a {\n  b \"x\n}",
+			"a {\n  b {\n}",
+			"a `x\n\n",
+			"a {\n  b 'xy'\n}",
+			"a {\n  b \\ c\n}"
+		};
+		for(String text:malformed) {
+			boolean rejected=false;
+			try {
+				new Tag("root").read(new StringReader(text), "z");
+			} catch(SDLParseException spe) {
+				rejected=true;
+			}
+			assertTrue(FILTERED_READ, "rejected " + text, rejected);
+		}
+		
+		try {
+			new Tag("root").read(new StringReader(doc), "server//database");
+			assertTrue(FILTERED_READ, "empty segment rejected", false);
+		} catch(IllegalArgumentException iae) {
+			assertContains(FILTERED_READ, iae.getMessage(), "Empty segment");
+		}
+	}
+	
+	private static void testPushParser(String fileName, Tag root)
+		throws Exception {
+		
+		out.println("Doing push parser tests for file " + fileName + "...");
+		
+		out.println("    Feeding the file in chunks...");
+		byte[] bytes = readResource(fileName).getBytes("UTF8");
+		for(int chunkSize:new int[] {1, 2, 3, 7, 64, 4096}) {
+			SDLPushParser parser = new SDLPushParser();
+			Tag tag = new Tag("root");
+			for(int i=0; i<bytes.length; i+=chunkSize) {
+				for(Tag t:parser.feed(ByteBuffer.wrap(bytes, i,
+						Math.min(chunkSize, bytes.length-i))))
+					tag.addChild(t);
+			}
+			for(Tag t:parser.endOfInput())
+				tag.addChild(t);
+			assertEquals(PUSH_PARSER, tag, root);
+		}
+	}
+	
+	private static void testPushParser() throws Exception {
+		out.println("Doing push parser tests...");
+		
+		out.println("    Checking tags are returned when complete...");
+		SDLPushParser parser = new SDLPushParser();
+		List<Tag> tags = parser.feed(utf8("a 1\nb {\n  c \"x"));
+		assertEquals(PUSH_PARSER, tags.size(), 1);
+		assertEquals(PUSH_PARSER, tags.get(0).getValue(), 1);
+		assertEquals(PUSH_PARSER, parser.feed(utf8("\\\n  y\" `{")).size(), 0);
+		assertEquals(PUSH_PARSER, parser.feed(utf8("\n}` [aG")).size(), 0);
+		assertEquals(PUSH_PARSER, parser.feed(utf8("k=] /* }\n")).size(), 0);
+		assertEquals(PUSH_PARSER, parser.feed(utf8("*/\n}\r")).size(), 0);
+		tags = parser.feed(utf8("\nd"));
+		assertEquals(PUSH_PARSER, tags.size(), 1);
+		Tag c = tags.get(0).getChild("c");
+		assertEquals(PUSH_PARSER, c.getValues().subList(0, 2), Arrays.asList(
+				"xy", "{\n}"));
+		assertTrue(PUSH_PARSER, "binary value", Arrays.equals(
+				(byte[])c.getValues().get(2), new byte[] {'h', 'i'}));
+		tags = parser.endOfInput();
+		assertEquals(PUSH_PARSER, tags.get(0).getName(), "d");
+		
+		out.println("    Checking UTF8 sequences split between chunks...");
+		byte[] bytes = "e \"\u00e9\u4e2d\ud83d\ude00\"\n".getBytes("UTF8");
+		parser = new SDLPushParser();
+		Tag e = new Tag("root");
+		for(int i=0; i<bytes.length; i++)
+			for(Tag t:parser.feed(ByteBuffer.wrap(bytes, i, 1)))
+				e.addChild(t);
+		assertEquals(PUSH_PARSER, e.getChild("e").getValue(),
+				"\u00e9\u4e2d\ud83d\ude00");
+		
+		out.println("    Checking events...");
+		final StringBuilder events = new StringBuilder();
+		parser = new SDLPushParser(new SDLHandler() {
+			public void startTag(String namespace, String name) {
+				events.append('<').append(name);
+			}
+			public void value(Object value) {
+				events.append(' ').append(value);
+			}
+			public void attribute(String namespace, String key, Object value) {
+				events.append(' ').append(key).append('=').append(value);
+			}
+			public void endTag() {
+				events.append('>');
+			}
+		});
+		assertEquals(PUSH_PARSER, parser.feed(utf8("f 1 k=2 {\ng\n")).size(),
+				0);
+		assertEquals(PUSH_PARSER, events.toString(), "");
+		parser.feed(utf8("}\n"));
+		assertEquals(PUSH_PARSER, events.toString(), "<f 1 k=2<g>>");
+		
+		out.println("    Checking errors...");
+		parser = new SDLPushParser();
+		parser.feed(utf8("h {\n"));
+		try {
+			parser.endOfInput();
+			assertTrue(PUSH_PARSER, "unclosed block reported", false);
+		} catch(SDLParseException spe) {
+			assertContains(PUSH_PARSER, spe.getMessage(), "No close block");
+		}
+		try {
+			parser.feed(utf8("}"));
+			assertTrue(PUSH_PARSER, "feed after end rejected", false);
+		} catch(IllegalStateException ise) {
+			assertTrue(PUSH_PARSER, "feed after end rejected", true);
+		}
+		
+		parser = new SDLPushParser();
+		parser.feed(utf8("i 1\nj {\n"));
+		try {
+			parser.feed(utf8("  k 'xy'\n"));
+			assertTrue(PUSH_PARSER, "malformed line reported", false);
+		} catch(SDLParseException spe) {
+			assertEquals(PUSH_PARSER, spe.getLine(), 3);
+		}
+	}
+	
+	private static void testParserReuse() throws Exception {
+		out.println("Doing parser reuse tests...");
+		
+		out.println("    Reading after errors and settings...");
+		try {
+			new Tag("root").read("a \"unterminated\nb {");
+		} catch(SDLParseException spe) {
+			assertEquals(PARSER_REUSE, spe.getLine(), 1);
+		}
+		try {
+			new Tag("root").read(new StringReader("a {\n b {\n c\n}\n}"), 1);
+		} catch(SDLParseException spe) {
+			assertEquals(PARSER_REUSE, spe.getLine(), 2);
+		}
+		new Tag("root").read(new StringReader("a 2005/12/05"), true);
+		new Tag("root").read(new StringReader("x 1"), "y");
+		
+		Tag tag = new Tag("root").read("a 2005/12/05 {\n b {\n c\n}\n}\nx 1");
+		assertEquals(PARSER_REUSE, tag.getChild("a").getValue(),
+				getDate(2005, 12, 5));
+		assertEquals(PARSER_REUSE, tag.getChild("a").getChild("b").getChild(
+				"c").getName(), "c");
+		assertEquals(PARSER_REUSE, tag.getChild("x").getValue(), 1);
+		
+		out.println("    Reading from a handler during a parse...");
+		final List<Tag> nested = new ArrayList<Tag>();
+		SDL.parse(new StringReader("a \"b 1\"\nc \"d 2\""), new SDLHandler() {
+			public void startTag(String namespace, String name) {
+			}
+			public void value(Object value) {
+				try {
+					nested.add(new Tag("root").read((String)value));
+				} catch(SDLParseException spe) {
+					throw new RuntimeException(spe);
+				}
+			}
+			public void attribute(String namespace, String key, Object value) {
+			}
+			public void endTag() {
+			}
+		});
+		assertEquals(PARSER_REUSE, nested.size(), 2);
+		assertEquals(PARSER_REUSE, nested.get(1).getChild("d").getValue(), 2);
+	}
+	
+	private static void testInMemoryRead() throws Exception {
+		out.println("Doing in memory read tests...");
+		
+		out.println("    Reading a char array range...");
+		char[] text = "xx\na 1 {\n b \"c\"\n}\nyy".toCharArray();
+		Tag tag = new Tag("root").read(text, 3, text.length-6);
+		assertEquals(IN_MEMORY_READ, tag.getChildren().size(), 1);
+		assertEquals(IN_MEMORY_READ, tag.getChild("a").getValue(), 1);
+		assertEquals(IN_MEMORY_READ, tag.getChild("a").getChild("b")
+				.getValue(), "c");
+		try {
+			new Tag("root").read("a\nb \"c\nd".toCharArray(), 2, 5);
+		} catch(SDLParseException spe) {
+			assertEquals(IN_MEMORY_READ, spe.getLine(), 1);
+		}
+		
+		out.println("    Reading a StringBuilder...");
+		tag = new Tag("root").read(new StringBuilder("a `x\ny` z=1"));
+		assertEquals(IN_MEMORY_READ, tag.getChild("a").getValue(), "x\ny");
+		assertEquals(IN_MEMORY_READ, tag.getChild("a").getAttribute("z"), 1);
+		
+		out.println("    Reading value and attribute lists...");
+		List<?> list = SDL.list("1 true 12:24:01 \"s\"");
+		assertEquals(IN_MEMORY_READ, list, Arrays.asList(1, true,
+				new SDLTimeSpan(0, 12, 24, 1, 0), "s"));
+		assertEquals(IN_MEMORY_READ, SDL.list("1 \\\n 2 x=3"),
+				Arrays.asList(1, 2));
+		
+		Map<String,Object> map = SDL.map("value=1 debugging=on ns:x=\"y\"");
+		assertEquals(IN_MEMORY_READ, map.toString(),
+				"{debugging=true, value=1, x=y}");
+		assertEquals(IN_MEMORY_READ, SDL.map("1 2 a=3"),
+				Collections.singletonMap("a", 3));
+		assertEquals(IN_MEMORY_READ, SDL.map("// comment").size(), 0);
+		assertEquals(IN_MEMORY_READ, SDL.map("a=1\nfoo"),
+				Collections.singletonMap("a", 1));
+		
+		try {
+			list.add(null);
+			assertTrue(IN_MEMORY_READ, "list is immutable", false);
+		} catch(UnsupportedOperationException uoe) {
+			// expected
+		}
+		
+		out.println("    Reporting errors in value and attribute lists...");
+		try {
+			SDL.map("\na=1");
+			assertTrue(IN_MEMORY_READ, "second line is a tag", false);
+		} catch(IllegalArgumentException iae) {
+			assertContains(IN_MEMORY_READ, iae.getMessage(), "Line 2");
+		}
+		try {
+			SDL.map("a=1 b=");
+			assertTrue(IN_MEMORY_READ, "missing value", false);
+		} catch(IllegalArgumentException iae) {
+			assertContains(IN_MEMORY_READ, iae.getMessage(), "Position 11");
+		}
+	}
+	
+	private static void testLiteralCache() throws Exception {
+		out.println("Doing literal cache tests...");
+		
+		out.println("    Counting hits and misses...");
+		SDL.setCacheSize(100);
+		LiteralCache cache = SDL.getCache();
+		assertEquals(LITERAL_CACHE, SDL.value("null"), null);
+		assertEquals(LITERAL_CACHE, SDL.value("null"), null);
+		assertEquals(LITERAL_CACHE, SDL.value("5L"), 5L);
+		assertEquals(LITERAL_CACHE, SDL.list("1 \"a\""), Arrays.asList(1,
+				"a"));
+		assertEquals(LITERAL_CACHE, SDL.list("1 \"a\""), Arrays.asList(1,
+				"a"));
+		assertEquals(LITERAL_CACHE, SDL.map("x=on").get("x"), true);
+		assertEquals(LITERAL_CACHE, SDL.map("x=on").get("x"), true);
+		assertEquals(LITERAL_CACHE, cache.getHits(), 3L);
+		assertEquals(LITERAL_CACHE, cache.getMisses(), 4L);
+		assertEquals(LITERAL_CACHE, cache.size(), 4);
+		
+		out.println("    Not caching errors...");
+		try {
+			SDL.value("nonsense");
+			assertTrue(LITERAL_CACHE, "nonsense is not a literal", false);
+		} catch(IllegalArgumentException iae) {
+			// expected
+		}
+		assertEquals(LITERAL_CACHE, cache.size(), 4);
+		
+		out.println("    Copying mutable values...");
+		Calendar cal = (Calendar)SDL.value("2005/12/05");
+		cal.set(Calendar.YEAR, 1999);
+		assertEquals(LITERAL_CACHE, SDL.value("2005/12/05"),
+				getDate(2005, 12, 5));
+		
+		List<?> list = SDL.list("[aGk=] 1");
+		((byte[])list.get(0))[0] = 0;
+		assertTrue(LITERAL_CACHE, "binary copied", Arrays.equals(
+				(byte[])SDL.list("[aGk=] 1").get(0), "hi".getBytes("UTF8")));
+		
+		Map<String,Object> map = SDL.map("d=2005/12/05");
+		((Calendar)map.get("d")).set(Calendar.YEAR, 1999);
+		assertEquals(LITERAL_CACHE, SDL.map("d=2005/12/05").get("d"),
+				getDate(2005, 12, 5));
+		
+		out.println("    Evicting least recently used strings...");
+		SDL.setCacheSize(1);
+		cache = SDL.getCache();
+		SDL.value("1");
+		SDL.value("2");
+		SDL.value("1");
+		assertEquals(LITERAL_CACHE, cache.getMisses(), 3L);
+		assertEquals(LITERAL_CACHE, cache.getEvictions(), 2L);
+		assertEquals(LITERAL_CACHE, cache.size(), 1);
+		
+		SDL.setCacheSize(0);
+		assertEquals(LITERAL_CACHE, SDL.getCache(), null);
+	}
+	
+	private static void testLargeBinary() throws Exception {
+		out.println("Doing large binary tests...");
+		
+		out.println("    Encoding buffers...");
+		byte[] bytes = new byte[100];
+		for(int i=0; i<bytes.length; i++)
+			bytes[i] = (byte)(i*37);
+		for(int length=0; length<8; length++) {
+			StringBuilder sb = new StringBuilder();
+			Base64.encode(ByteBuffer.wrap(bytes, 1, length), sb);
+			byte[] range = new byte[length];
+			System.arraycopy(bytes, 1, range, 0, length);
+			assertEquals(LARGE_BINARY, sb.toString(), Base64.encode(range));
+		}
+		
+		String base64 = Base64.encode(bytes);
+		String text = "small [aGk=]\nlarge [" + base64.substring(0, 60) +
+			"\n" + base64.substring(60) + "] x=[" + base64 + "]";
+		
+		for(int storage=0; storage<2; storage++) {
+			out.println(storage==0 ? "    Reading into direct memory..." :
+				"    Reading into temporary files...");
+			SDL.setLargeBinaryThreshold(64);
+			SDL.setLargeBinaryDirectory(storage==0 ? null : new File(
+					System.getProperty("java.io.tmpdir")));
+			
+			Tag root = new Tag("root").read(text);
+			assertEquals(LARGE_BINARY, root.getChild("small").getValue(),
+					"hi".getBytes("UTF8"));
+			
+			Tag large = root.getChild("large");
+			SDLBinary binary = (SDLBinary)large.getValue();
+			assertEquals(LARGE_BINARY, binary.length(), bytes.length);
+			assertTrue(LARGE_BINARY, "same bytes", Arrays.equals(
+					binary.toByteArray(), bytes));
+			assertEquals(LARGE_BINARY, large.getAttribute("x"), binary);
+			assertTrue(LARGE_BINARY, "read only", binary.getBuffer()
+					.isReadOnly());
+			
+			out.println("    Writing large binaries...");
+			assertEquals(LARGE_BINARY, SDL.format(binary),
+					SDL.format(bytes));
+			SDL.setLargeBinaryThreshold(0);
+			Tag reread = new Tag("root").read(root.toString());
+			assertTrue(LARGE_BINARY, "same bytes after writing", Arrays.equals(
+					(byte[])reread.getChild("root").getChild("large")
+					.getValue(), bytes));
+		}
+		
+		out.println("    Serializing large binaries...");
+		SDLBinary binary = new SDLBinary(ByteBuffer.wrap(bytes));
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+		ObjectOutputStream objectsOut = new ObjectOutputStream(bytesOut);
+		objectsOut.writeObject(binary);
+		objectsOut.close();
+		Object copy = new ObjectInputStream(new ByteArrayInputStream(
+				bytesOut.toByteArray())).readObject();
+		assertEquals(LARGE_BINARY, copy, binary);
+	}
+	
+	private static void testCompactTags() throws Exception {
+		out.println("Doing compact tag tests...");
+		
+		out.println("    Adding and removing values...");
+		Tag tag = new Tag("tag");
+		List<Object> values = tag.getValues();
+		assertEquals(COMPACT_TAGS, values.size(), 0);
+		assertEquals(COMPACT_TAGS, tag.getValue(), null);
+		tag.addValue(null);
+		assertEquals(COMPACT_TAGS, values, Arrays.asList((Object)null));
+		assertEquals(COMPACT_TAGS, tag.removeValue("x"), false);
+		assertEquals(COMPACT_TAGS, tag.removeValue(null), true);
+		assertEquals(COMPACT_TAGS, values.size(), 0);
+		tag.addValue(1);
+		tag.addValue("two");
+		tag.addValue(3);
+		assertEquals(COMPACT_TAGS, values, Arrays.asList((Object)1, "two", 3));
+		tag.setValue(0);
+		assertEquals(COMPACT_TAGS, tag.getValue(), 0);
+		assertEquals(COMPACT_TAGS, tag.removeValue("two"), true);
+		assertEquals(COMPACT_TAGS, tag.toString(), "tag 0 3");
+		tag.setValues(null);
+		assertEquals(COMPACT_TAGS, tag.toString(), "tag");
+		try {
+			values.get(0);
+			assertTrue(COMPACT_TAGS, "get past the end of the values", false);
+		} catch(IndexOutOfBoundsException ioobe) { /* expected */ }
+		try {
+			values.add("x");
+			assertTrue(COMPACT_TAGS, "add to the values view", false);
+		} catch(UnsupportedOperationException uoe) { /* expected */ }
+		
+		out.println("    Attribute namespaces...");
+		SortedMap<String,Object> atts = tag.getAttributes();
+		Map<String,String> namespaces = tag.getAttributeNamespaces();
+		List<Tag> children = tag.getChildren();
+		assertEquals(COMPACT_TAGS, atts.size(), 0);
+		assertEquals(COMPACT_TAGS, namespaces.size(), 0);
+		assertEquals(COMPACT_TAGS, children.size(), 0);
+		assertEquals(COMPACT_TAGS, tag.getAttributeNamespace("a"), null);
+		tag.setAttribute("a", 1);
+		tag.setAttribute("ns", "b", 2);
+		assertEquals(COMPACT_TAGS, tag.getAttributeNamespace("a"), "");
+		assertEquals(COMPACT_TAGS, tag.getAttributeNamespace("b"), "ns");
+		assertEquals(COMPACT_TAGS, tag.getAttributeNamespaces().get("a"), "");
+		assertEquals(COMPACT_TAGS, atts.keySet(),
+				new TreeSet<String>(Arrays.asList("a", "b")));
+		assertEquals(COMPACT_TAGS, namespaces.get("b"), "ns");
+		assertEquals(COMPACT_TAGS, namespaces.toString(), "{a=, b=ns}");
+		Tag child = new Tag("child");
+		tag.addChild(child);
+		assertEquals(COMPACT_TAGS, children, Collections.singletonList(child));
+		tag.removeChild(child);
+		assertEquals(COMPACT_TAGS, children.size(), 0);
+		assertTrue(COMPACT_TAGS, "views are cached", tag.getValues()==
+				tag.getValues() && tag.getAttributes()==atts &&
+				tag.getAttributeNamespaces()==namespaces &&
+				tag.getChildren()==children);
+		assertEquals(COMPACT_TAGS, tag.getAttributesForNamespace("ns"),
+				Collections.singletonMap("b", 2));
+		tag.setAttribute("b", 3);
+		assertEquals(COMPACT_TAGS, tag.getAttributeNamespace("b"), "");
+		tag.setAttribute("ns", "c", 4);
+		tag.removeAttribute("c");
+		assertEquals(COMPACT_TAGS, tag.getAttributeNamespace("c"), null);
+		assertEquals(COMPACT_TAGS, tag.toString(), "tag a=1 b=3");
+		
+		out.println("    Serializing compact tags...");
+		Tag root = new Tag("root").read("a 1\nb 1 2 ns:x=3 y=4 {\n  c\n}\n");
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+		ObjectOutputStream objectsOut = new ObjectOutputStream(bytesOut);
+		objectsOut.writeObject(root);
+		objectsOut.close();
+		Tag copy = (Tag)new ObjectInputStream(new ByteArrayInputStream(
+				bytesOut.toByteArray())).readObject();
+		assertEquals(COMPACT_TAGS, copy.toString(), root.toString());
+		assertEquals(COMPACT_TAGS, copy.getChild("b").getAttributeNamespace("x"),
+				"ns");
+		copy.getChild("a").addValue(5);
+		assertEquals(COMPACT_TAGS, copy.getChild("a").getValues(),
+				Arrays.asList((Object)1, 5));
+	}
+	
+	private static void testAttributeMap() throws Exception {
+		out.println("Doing attribute map tests...");
+		
+		out.println("    Comparing with a TreeMap...");
+		Tag tag = new Tag("tag");
+		SortedMap<String,Object> atts = tag.getAttributes();
+		SortedMap<String,Object> nsAtts = tag.getAttributesForNamespace("ns");
+		TreeMap<String,Object> expected = new TreeMap<String,Object>();
+		String[] keys = { "m", "c", "x", "a", "q", "e" };
+		for(int i=0; i<keys.length; i++) {
+			tag.setAttribute(i%2==0 ? "" : "ns", keys[i], i);
+			expected.put(keys[i], i);
+		}
+		assertEquals(ATTRIBUTE_MAP, atts, expected);
+		assertEquals(ATTRIBUTE_MAP, atts.toString(), expected.toString());
+		assertEquals(ATTRIBUTE_MAP, atts.hashCode(), expected.hashCode());
+		assertEquals(ATTRIBUTE_MAP, atts.firstKey(), "a");
+		assertEquals(ATTRIBUTE_MAP, atts.lastKey(), "x");
+		assertEquals(ATTRIBUTE_MAP, atts.subMap("c", "q"),
+				expected.subMap("c", "q"));
+		assertEquals(ATTRIBUTE_MAP, atts.headMap("m"), expected.headMap("m"));
+		assertEquals(ATTRIBUTE_MAP, atts.tailMap("d").headMap("x"),
+				expected.tailMap("d").headMap("x"));
+		assertEquals(ATTRIBUTE_MAP, atts.comparator(), null);
+		try {
+			atts.headMap("d").tailMap("e");
+			assertTrue(ATTRIBUTE_MAP, "key out of range", false);
+		} catch(IllegalArgumentException iae) { /* expected */ }
+		try {
+			atts.put("b", 1);
+			assertTrue(ATTRIBUTE_MAP, "put in the attributes view", false);
+		} catch(UnsupportedOperationException uoe) { /* expected */ }
+		
+		out.println("    Namespace views...");
+		assertEquals(ATTRIBUTE_MAP, nsAtts.toString(), "{a=3, c=1, e=5}");
+		assertEquals(ATTRIBUTE_MAP, nsAtts.get("m"), null);
+		assertEquals(ATTRIBUTE_MAP, nsAtts.tailMap("b").firstKey(), "c");
+		assertEquals(ATTRIBUTE_MAP, tag.getAttributesForNamespace("ns"),
+				nsAtts);
+		assertEquals(ATTRIBUTE_MAP, tag.getAttributesForNamespace("").keySet(),
+				new TreeSet<String>(Arrays.asList("m", "q", "x")));
+		tag.removeAttribute("c");
+		tag.setAttribute("ns", "m", 7);
+		assertEquals(ATTRIBUTE_MAP, nsAtts.toString(), "{a=3, e=5, m=7}");
+		assertEquals(ATTRIBUTE_MAP, atts.size(), 5);
+		tag.setAttributes(null);
+		assertEquals(ATTRIBUTE_MAP, nsAtts.size(), 0);
+		assertEquals(ATTRIBUTE_MAP, atts.size(), 0);
+	}
+	
+	private static void testChildIndex() throws Exception {
+		out.println("Doing child index tests...");
+		
+		out.println("    Looking up children by name and namespace...");
+		Tag parent = new Tag("parent");
+		Tag other = new Tag("other");
+		parent.setChildrenIndexed(true);
+		for(int i=0; i<40; i++) {
+			Tag child = new Tag(i%4==0 ? "ns" : "", "child" + (i%10));
+			child.addValue(i);
+			parent.addChild(child);
+			other.addChild(child);
+		}
+		other.setChildrenIndexed(true);
+		assertTrue(CHILD_INDEX, "indexed", parent.isChildrenIndexed() &&
+				other.isChildrenIndexed());
+		assertEquals(CHILD_INDEX, parent.getChild("child3").getValue(), 3);
+		assertEquals(CHILD_INDEX, parent.getChild("missing"), null);
+		assertEquals(CHILD_INDEX, parent.getChildrenValues("child2"),
+				Arrays.asList(2, 12, 22, 32));
+		assertEquals(CHILD_INDEX, parent.getChildrenForNamespace("ns").size(),
+				10);
+		
+		out.println("    Adding and removing children...");
+		Tag added = new Tag("ns", "child3");
+		parent.addChild(added);
+		assertEquals(CHILD_INDEX, parent.getChildren("child3").size(), 5);
+		assertEquals(CHILD_INDEX, parent.getChildrenForNamespace("ns").size(),
+				11);
+		assertTrue(CHILD_INDEX, "remove child",
+				parent.removeChild(parent.getChild("child3")));
+		assertEquals(CHILD_INDEX, parent.getChild("child3").getValue(), 13);
+		assertTrue(CHILD_INDEX, "remove added child", parent.removeChild(added));
+		assertEquals(CHILD_INDEX, parent.getChildrenForNamespace("ns").size(),
+				10);
+		
+		out.println("    Renaming children...");
+		Tag renamed = parent.getChild("child5");
+		renamed.setName("renamed");
+		renamed.setNamespace("ns");
+		assertTrue(CHILD_INDEX, "renamed child found",
+				parent.getChild("renamed")==renamed);
+		assertEquals(CHILD_INDEX, parent.getChild("child5").getValue(), 15);
+		assertEquals(CHILD_INDEX, parent.getChildrenForNamespace("ns").size(),
+				11);
+		assertTrue(CHILD_INDEX, "renamed child found in other parent",
+				other.getChild("renamed")==renamed);
+		assertEquals(CHILD_INDEX, other.getChildren("child5").size(), 3);
+		
+		out.println("    Removing the index...");
+		other.setChildrenIndexed(false);
+		assertTrue(CHILD_INDEX, "not indexed", !other.isChildrenIndexed());
+		renamed.setName("child5");
+		assertEquals(CHILD_INDEX, other.getChildren("child5").size(), 4);
+		assertEquals(CHILD_INDEX, parent.getChildren("child5").size(), 4);
+		parent.removeChildren(new TagFilter() {
+			public boolean accept(Tag tag) {
+				return tag.getName().equals("child5");
+			}
+		});
+		renamed.setName("child6");
+		assertEquals(CHILD_INDEX, parent.getChildren("child6").size(), 4);
+		assertEquals(CHILD_INDEX, other.getChildren("child6").size(), 5);
+		
+		out.println("    Concurrent lookups...");
+		parent.getChild("child2").setName("renamed");
+		final Tag shared = parent;
+		final int[] found = new int[4];
+		Thread[] threads = new Thread[found.length];
+		for(int i=0; i<threads.length; i++) {
+			final int n = i;
+			threads[i] = new Thread() {
+				public void run() {
+					for(int j=0; j<1000; j++) {
+						if(shared.getChild("renamed")!=null &&
+								shared.getChildren("child1").size()==4)
+							found[n]++;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(int i=0; i<threads.length; i++) {
+			threads[i].join();
+			assertEquals(CHILD_INDEX, found[i], 1000);
+		}
+	}
+	
+	private static void testTagEquality() throws Exception {
+		out.println("Doing tag equality tests...");
+		
+		out.println("    Comparing values...");
+		String text = "a 1 2L \"s\" [aGk=] 2005/12/01 x=1.5 ns:y=true {\n" +
+			"  b 12:30:00 {\n" +
+			"    c null 2005/12/01 10:00:00.000-UTC\n" +
+			"  }\n" +
+			"}\n";
+		Tag tag = new Tag("root").read(text);
+		Tag same = new Tag("root").read(text);
+		assertEquals(TAG_EQUALITY, tag, same);
+		assertEquals(TAG_EQUALITY, tag.hashCode(), same.hashCode());
+		
+		Tag b = new Tag("b");
+		b.addValue(new SDLBinary(ByteBuffer.wrap("hi".getBytes("UTF8"))));
+		Tag b2 = new Tag("b");
+		b2.addValue("hi".getBytes("UTF8"));
+		assertEquals(TAG_EQUALITY, b, b2);
+		assertEquals(TAG_EQUALITY, b.hashCode(), b2.hashCode());
+		b2.setValue(1);
+		assertTrue(TAG_EQUALITY, "different values", !b.equals(b2));
+		b.setValue(1L);
+		assertTrue(TAG_EQUALITY, "int and long", !b.equals(b2));
+		
+		out.println("    Changing descendants...");
+		Set<Tag> set = new HashSet<Tag>();
+		set.add(tag);
+		assertTrue(TAG_EQUALITY, "found in set", set.contains(same));
+		Tag c = same.getChild("a").getChild("b").getChild("c");
+		c.setAttribute("z", 1);
+		assertTrue(TAG_EQUALITY, "attribute added to grandchild",
+				!set.contains(same) && !tag.equals(same));
+		c.removeAttribute("z");
+		assertTrue(TAG_EQUALITY, "attribute removed", set.contains(same));
+		c.setNamespace("ns");
+		assertTrue(TAG_EQUALITY, "renamed", !set.contains(same));
+		c.setNamespace("");
+		same.getChild("a").getChild("b").addChild(new Tag("d"));
+		assertTrue(TAG_EQUALITY, "child added", !set.contains(same));
+		same.getChild("a").getChild("b").removeChild(new Tag("d"));
+		assertTrue(TAG_EQUALITY, "child removed", set.contains(same));
+		assertEquals(TAG_EQUALITY, same.hashCode(), new Tag("root").read(
+				text).hashCode());
+		
+		out.println("    Sharing and moving subtrees...");
+		Tag leaf = new Tag("leaf");
+		int leafHash = leaf.hashCode();
+		Tag first = new Tag("first");
+		Tag second = new Tag("second");
+		first.hashCode();
+		first.addChild(leaf);
+		second.hashCode();
+		second.addChild(leaf);
+		int firstHash = first.hashCode();
+		int secondHash = second.hashCode();
+		leaf.addValue(1);
+		assertTrue(TAG_EQUALITY, "shared child changed", leaf.hashCode()!=
+				leafHash && first.hashCode()!=firstHash &&
+				second.hashCode()!=secondHash);
+		assertEquals(TAG_EQUALITY, second.hashCode(), new Tag("second").read(
+				"leaf 1").hashCode());
+		first.removeChild(leaf);
+		Tag third = new Tag("third").read("x {\n  y\n}");
+		third.hashCode();
+		third.getChild("x").getChild("y").addChild(leaf);
+		third.hashCode();
+		leaf.setName("moved");
+		assertEquals(TAG_EQUALITY, third.hashCode(), new Tag("third").read(
+				"x {\n  y {\n    moved 1\n  }\n}").hashCode());
+		assertEquals(TAG_EQUALITY, first.hashCode(), new Tag(
+				"first").hashCode());
+		
+		out.println("    Removing equal children...");
+		Tag parent = new Tag("parent").read("x 1\nx 2\nx 1\n");
+		assertTrue(TAG_EQUALITY, "remove", parent.removeChild(
+				new Tag("root").read("x 1").getChild("x")));
+		assertEquals(TAG_EQUALITY, parent.getChildrenValues("x"),
+				Arrays.asList(2, 1));
+	}
+	
+	private static void testChildPositions() throws Exception {
+		out.println("Doing child position tests...");
+		
+		out.println("    Inserting, replacing, and removing by index...");
+		Tag parent = new Tag("parent").read("a 1\nb 2\na 1\n");
+		Tag first = parent.getChildren().get(0);
+		Tag second = parent.getChildren().get(2);
+		assertEquals(CHILD_POSITIONS, parent.indexOfChild(second), 2);
+		assertEquals(CHILD_POSITIONS, parent.indexOfChild(new Tag("a")), -1);
+		parent.addChild(0, new Tag("c"));
+		assertEquals(CHILD_POSITIONS, parent.getChildren().get(0).getName(),
+				"c");
+		assertTrue(CHILD_POSITIONS, "replaced",
+				parent.setChild(2, new Tag("d")).getName().equals("b"));
+		assertTrue(CHILD_POSITIONS, "removed by index",
+				parent.removeChild(0).getName().equals("c"));
+		assertEquals(CHILD_POSITIONS, parent.toString(),
+				"parent {\n    a 1\n    d\n    a 1\n}");
+		try {
+			new Tag("empty").removeChild(0);
+			assertTrue(CHILD_POSITIONS, "remove from empty tag", false);
+		} catch(IndexOutOfBoundsException ioobe) { /* expected */ }
+		
+		out.println("    Removing instances...");
+		assertTrue(CHILD_POSITIONS, "remove instance",
+				parent.removeChildInstance(second));
+		assertTrue(CHILD_POSITIONS, "first instance kept",
+				parent.getChildren().get(0)==first);
+		assertTrue(CHILD_POSITIONS, "instance already removed",
+				!parent.removeChildInstance(second));
+		
+		out.println("    Removing with a filter...");
+		Tag root = new Tag("root").read(
+				"keep 1 {\n" +
+				"  drop 2\n" +
+				"  keep 3 {\n" +
+				"    drop 4\n" +
+				"  }\n" +
+				"}\n" +
+				"drop 5 {\n" +
+				"  keep 6\n" +
+				"}\n");
+		TagFilter drop = new TagFilter() {
+			public boolean accept(Tag tag) {
+				return tag.getName().equals("drop");
+			}
+		};
+		Tag copy = new Tag("root").read(root.getChildren().get(0).toString());
+		assertEquals(CHILD_POSITIONS, copy.removeChildren(drop), 0);
+		assertEquals(CHILD_POSITIONS, root.removeChildren(drop, true), 3);
+		assertEquals(CHILD_POSITIONS, root.toString(),
+				"root {\n    keep 1 {\n        keep 3\n    }\n}");
+		
+		out.println("    Keeping children when the filter fails...");
+		parent = new Tag("parent").read("a 1\nb 2\na 3\nb 4\n");
+		try {
+			parent.removeChildren(new TagFilter() {
+				public boolean accept(Tag tag) {
+					if(tag.intValue()==3)
+						throw new IllegalStateException("filter failed");
+					return tag.getName().equals("b");
+				}
+			});
+			assertTrue(CHILD_POSITIONS, "filter exception thrown", false);
+		} catch(IllegalStateException ise) { /* expected */ }
+		assertEquals(CHILD_POSITIONS, parent.getChildrenValues("a"),
+				Arrays.asList(1, 3));
+		assertEquals(CHILD_POSITIONS, parent.getChildrenValues("b"),
+				Arrays.asList(4));
+	}
+	
+	private static void testStreamingWrite() throws Exception {
+		out.println("Doing streaming write tests...");
+		
+		out.println("    Appending to a StringBuilder...");
+		String newLine = System.getProperty("line.separator");
+		Tag root = new Tag("root").read("a 1 [aGk=] x=2 {\n  b {\n" +
+				"    c \"deep\"\n  }\n}\nd\n");
+		Tag deep = root.getChild("c", true);
+		for(int i=0; i<40; i++) {
+			Tag child = new Tag("e");
+			deep.addChild(child);
+			deep = child;
+		}
+		StringBuilder builder = new StringBuilder();
+		root.write(builder, true);
+		assertEquals(STREAMING_WRITE, builder.toString(), root.toString());
+		assertTrue(STREAMING_WRITE, "40 levels indented", builder.indexOf(
+				newLine + repeat("    ", 43) + "e" + newLine)!=-1);
+		
+		builder.setLength(0);
+		root.write(builder, false);
+		assertEquals(STREAMING_WRITE, builder.toString(),
+				root.getChild("a").toString() + newLine + "d");
+		
+		out.println("    Leaving the writer open...");
+		final boolean[] closed = new boolean[1];
+		StringWriter stringWriter = new StringWriter() {
+			public void close() throws IOException {
+				closed[0] = true;
+				super.close();
+			}
+		};
+		root.write(stringWriter, false);
+		stringWriter.write(newLine + "f");
+		assertTrue(STREAMING_WRITE, "writer not closed", !closed[0]);
+		assertEquals(STREAMING_WRITE, new Tag("root").read(
+				stringWriter.toString()).getChildren().size(), 3);
+	}
+	
+	private static String repeat(String text, int count) {
+		StringBuilder builder = new StringBuilder();
+		for(int i=0; i<count; i++)
+			builder.append(text);
+		return builder.toString();
+	}
+	
+	private static void testSDLWriter() throws Exception {
+		out.println("Doing SDL writer tests...");
+		
+		out.println("    Matching Tag.write...");
+		String newLine = System.getProperty("line.separator");
+		Tag root = new Tag("root").read("a 1 2L 3.5 true null x=2 " +
+				"ns:y=\"q\\\"\\\\\\t\" {\n  b \"line\\nbreak\" '\\'' " +
+				"[aGk=] 5BD 2005/12/05 {\n    \"anonymous\" z=1\n" +
+				"    ns:c\n  }\n}\nd 12:30:00 2.5F c='x' enabled=false\n");
+		StringWriter expected = new StringWriter();
+		root.write(expected, false);
+		expected.write(newLine);
+		
+		StringWriter actual = new StringWriter();
+		SDLWriter writer = new SDLWriter(actual);
+		writer.startTag("a");
+		writer.value(1);
+		writer.value(2L);
+		writer.value(3.5);
+		writer.value(true);
+		writer.value((Object)null);
+		writer.attribute("ns", "y", "q\"\\\t");
+		writer.attribute("x", 2);
+		writer.startTag("b");
+		writer.value("line\nbreak");
+		writer.value('\'');
+		writer.value(new byte[] {'h', 'i'});
+		writer.value(new BigDecimal("5"));
+		writer.value(new GregorianCalendar(2005, 11, 5));
+		writer.startTag("content");
+		writer.value("anonymous");
+		writer.attribute("z", 1);
+		writer.endTag();
+		writer.startTag("ns", "c");
+		writer.endTag();
+		writer.endTag();
+		assertEquals(SDL_WRITER, writer.getDepth(), 1);
+		writer.endTag();
+		writer.startTag("d");
+		writer.value(root.getChild("d").getValue());
+		writer.value(2.5f);
+		writer.attribute("c", 'x');
+		writer.attribute("enabled", false);
+		writer.endTag();
+		writer.flush();
+		
+		// attributes are written in the order given rather than sorted
+		assertEquals(SDL_WRITER, actual.toString().replace(
+				" ns:y=\"q\\\"\\\\\\t\" x=2", " x=2 ns:y=\"q\\\"\\\\\\t\""),
+				expected.toString());
+		assertEquals(SDL_WRITER, new Tag("root").read(actual.toString()),
+				root);
+		
+		out.println("    Writing to a stream...");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writer = new SDLWriter(bytes);
+		for(int i=0; i<5000; i++) {
+			writer.startTag("row");
+			writer.value("\u00e9l\u00e8ve " + i);
+			writer.attribute("id", (long)i);
+			writer.endTag();
+		}
+		writer.close();
+		Tag rows = new Tag("root").read(new InputStreamReader(
+				new ByteArrayInputStream(bytes.toByteArray()), "UTF8"));
+		assertEquals(SDL_WRITER, rows.getChildren().size(), 5000);
+		assertEquals(SDL_WRITER, rows.getChildren().get(4999).getValue(),
+				"\u00e9l\u00e8ve 4999");
+		assertEquals(SDL_WRITER, rows.getChildren().get(4999).getAttribute(
+				"id"), 4999L);
+		
+		out.println("    Rejecting calls out of order...");
+		writer = new SDLWriter(new StringWriter());
+		try {
+			writer.value(1);
+			assertTrue(SDL_WRITER, "value without a tag rejected", false);
+		} catch(IllegalStateException ise) { /* expected */ }
+		try {
+			writer.endTag();
+			assertTrue(SDL_WRITER, "endTag without a tag rejected", false);
+		} catch(IllegalStateException ise) { /* expected */ }
+		writer.startTag("a");
+		writer.attribute("x", 1);
+		try {
+			writer.value(1);
+			assertTrue(SDL_WRITER, "value after attribute rejected", false);
+		} catch(IllegalStateException ise) { /* expected */ }
+		writer.startTag("b");
+		writer.endTag();
+		try {
+			writer.attribute("y", 1);
+			assertTrue(SDL_WRITER, "attribute after child rejected", false);
+		} catch(IllegalStateException ise) { /* expected */ }
+		try {
+			writer.startTag("1a");
+			assertTrue(SDL_WRITER, "bad name rejected", false);
+		} catch(IllegalArgumentException iae) { /* expected */ }
+		try {
+			writer.value(new Object());
+			assertTrue(SDL_WRITER, "bad value type rejected", false);
+		} catch(IllegalArgumentException iae) { /* expected */ }
+	}
+	
+	private static void testDateFormatting() throws Exception {
+		out.println("Doing date formatting tests...");
+		
+		out.println("    Matching SimpleDateFormat...");
+		final List<Calendar> calendars = new ArrayList<Calendar>();
+		String[] zones = { "GMT", "America/Los_Angeles", "Asia/Kolkata",
+				"Australia/Lord_Howe" };
+		for(int i=0; i<400; i++) {
+			Calendar c = new GregorianCalendar(TimeZone.getTimeZone(
+					zones[i%zones.length]));
+			// years from about 8000 BC to 12000 AD, some exactly at midnight
+			c.setTimeInMillis((i-200)*1597000000000L + i*7919L);
+			if(i%3==0)
+				c.set(Calendar.HOUR_OF_DAY, 0);
+			if(i%5==0) {
+				c.set(Calendar.MINUTE, 0);
+				c.set(Calendar.SECOND, 0);
+				c.set(Calendar.MILLISECOND, 0);
+			}
+			calendars.add(c);
+		}
+		calendars.add(new GregorianCalendar(1, 0, 1));
+		
+		for(Calendar c:calendars)
+			assertEquals(DATE_FORMATTING, format(c), formatWithSimpleDateFormat(
+					c));
+		
+		out.println("    Formatting from several threads...");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for(int t=0; t<4; t++) {
+				results.add(executor.submit(new Callable<
+						Boolean>() {
+					public Boolean call() {
+						for(int i=0; i<20; i++) {
+							for(Calendar c:calendars) {
+								if(!format(c).equals(formatWithSimpleDateFormat(
+										c)))
+									return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for(Future<Boolean> result:results)
+				assertEquals(DATE_FORMATTING, result.get(), true);
+		} finally {
+			executor.shutdown();
+		}
+		
+		out.println("    Following the default locale and time zone...");
+		Locale locale = Locale.getDefault();
+		TimeZone zone = TimeZone.getDefault();
+		try {
+			Locale[] locales = { new Locale("th", "TH"),
+					new Locale("ja", "JP", "JP"), Locale.GERMANY };
+			for(int i=0; i<locales.length; i++) {
+				Locale.setDefault(locales[i]);
+				TimeZone.setDefault(TimeZone.getTimeZone(zones[i]));
+				for(Calendar c:calendars)
+					assertEquals(DATE_FORMATTING, format(c),
+							formatWithSimpleDateFormat(c));
+			}
+			
+			// only the time zone changes
+			TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+			for(Calendar c:calendars)
+				assertEquals(DATE_FORMATTING, format(c),
+						formatWithSimpleDateFormat(c));
+		} finally {
+			Locale.setDefault(locale);
+			TimeZone.setDefault(zone);
+		}
+		
+		out.println("    Formatting time spans...");
+		assertEquals(DATE_FORMATTING, format(new SDLTimeSpan(0, 1, 2, 3, 4)),
+				"01:02:03.004");
+		assertEquals(DATE_FORMATTING, format(new SDLTimeSpan(-3, -4, -5, -6,
+				-78)), "-3d:04:05:06.078");
+		assertEquals(DATE_FORMATTING, format(new SDLTimeSpan(0, -4, -5, 0,
+				-600)), "-04:05:00.600");
+	}
+	
+	/**
+	 * Format a Calendar the way SDL.format did before it cached its formats
+	 */
+	private static String formatWithSimpleDateFormat(Calendar c) {
+		SimpleDateFormat sdf;
+		if(c.isSet(Calendar.HOUR_OF_DAY) && (c.get(Calendar.HOUR_OF_DAY)!=0 ||
+				c.get(Calendar.MINUTE)!=0 || c.get(Calendar.SECOND)!=0 ||
+				c.get(Calendar.MILLISECOND)!=0)) {
+			sdf = new SimpleDateFormat(SDL.DATE_TIME_FORMAT);
+			sdf.setTimeZone(c.getTimeZone());
+		} else {
+			sdf = new SimpleDateFormat(SDL.DATE_FORMAT);
+		}
+		return sdf.format(c.getTime());
+	}
+	
+	private static ByteBuffer utf8(String text) throws IOException {
+		return ByteBuffer.wrap(text.getBytes("UTF8"));
+	}
+	
+	private static void testParallelRead(String fileName, Tag root)
+		throws Exception {
+		
+		out.println("Doing parallel read tests for file " + fileName + "...");
+		
+		String text = readResource(fileName);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			out.println("    Comparing parallel and sequential reads...");
+			
+			// the filler moves the chunk boundaries to different tags
+			for(int filler=0; filler<3; filler++) {
+				StringBuilder sb = new StringBuilder();
+				for(int i=0; i<100; i++) {
+					sb.append("filler \"");
+					for(int j=0; j<filler*i; j++)
+						sb.append('x');
+					sb.append("\"\n").append(text).append('\n');
+				}
+				String doc = sb.toString();
+				
+				Tag tag = new Tag("root").read(new StringReader(doc),
+						executor);
+				assertEquals(PARALLEL_READ, tag.getChildren().size(),
+						new Tag("root").read(doc).getChildren().size());
+				assertEquals(PARALLEL_READ, tag, new Tag("root").read(doc));
+			}
+			
+			out.println("    Checking error line numbers...");
+			StringBuilder sb = new StringBuilder();
+			for(int i=0; i<100; i++) {
+				sb.append(text).append('\n');
+				if(i==70)
+					sb.append("bad = =\n");
+			}
+			String doc = sb.toString();
+			
+			int expectedLine = 0;
+			try {
+				new Tag("root").read(doc);
+			} catch(SDLParseException spe) {
+				expectedLine = spe.getLine();
+			}
+			
+			try {
+				new Tag("root").read(new StringReader(doc), executor);
+				assertTrue(PARALLEL_READ, "error reported", false);
+			} catch(SDLParseException spe) {
+				assertEquals(PARALLEL_READ, spe.getLine(), expectedLine);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		
+		out.println("    Reading from a task on a single thread executor...");
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<100; i++)
+			sb.append(text).append('\n');
+		final String doc = sb.toString();
+		final ExecutorService single = Executors.newFixedThreadPool(1);
+		try {
+			Future<Tag> future = single.submit(new Callable<Tag>() {
+				public Tag call() throws Exception {
+					return new Tag("root").read(new StringReader(doc), single);
+				}
+			});
+			assertEquals(PARALLEL_READ, future.get(10, TimeUnit.SECONDS),
+					new Tag("root").read(doc));
+		} finally {
+			single.shutdownNow();
+		}
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	// Basic Types Tests
 	////////////////////////////////////////////////////////////////////////////
@@ -209,6 +1560,45 @@ public class Test {
 				new BigDecimal("11.111111"));
 		assertEquals(NUMBER_DECLARATIONS, root.getChild("decimal3").getValue(),
 				new BigDecimal("234535.3453453453454345345341242343"));		
+		
+		out.println("    Testing primitive accessors...");
+		assertEquals(NUMBER_DECLARATIONS, root.getChild("int3").intValue(),
+				-100);
+		assertEquals(NUMBER_DECLARATIONS, root.getChild("long4").longValue(),
+				3904857398753453453L);
+		assertEquals(NUMBER_DECLARATIONS, root.getChild("float2").floatValue(),
+				.23F);
+		assertEquals(NUMBER_DECLARATIONS, root.getChild("double3")
+				.doubleValue(), 2.34D);
+	}
+	
+	private static void testNumberLiterals() throws SDLParseException {
+		out.println("Doing number literal tests...");
+		
+		out.println("    Comparing parsed numbers with SDL.value...");
+		String[] literals = {"0", "-0", "007", "2147483647", "-2147483648",
+			"123456789012345678L", "-1l", "0.1", "-.5", "1.50", "-0.0",
+			"123456789012345.6", "0.000000000000000001", "1.7976931348623157",
+			"16777216F", "16777217F", "0.3f", "5.F", "-1.25D", "5d",
+			"-0.50BD", ".5bd"};
+		for(String literal:literals) {
+			Object value = new Tag("root").read("n " + literal).getChild("n")
+				.getValue();
+			assertEquals(NUMBER_DECLARATIONS, value, SDL.value(literal));
+		}
+		
+		out.println("    Checking malformed numbers...");
+		String[] malformed = {"2147483648", "1.", "1.5L", "1-2", "3x",
+			"99999999999999999999L"};
+		for(String literal:malformed) {
+			boolean rejected=false;
+			try {
+				new Tag("root").read("n " + literal);
+			} catch(SDLParseException spe) {
+				rejected=true;
+			}
+			assertTrue(NUMBER_DECLARATIONS, literal + " rejected", rejected);
+		}
 	}
 	
 	private static void testBooleans(Tag root) {		
@@ -297,6 +1687,41 @@ public class Test {
 				getDateTime(1882,5,2,12,30,23,123,"JST"));	
 		assertEquals(DATE_TIME_DECLARATIONS, root.getChild("date_time8").getValue(),
 				getDateTime(985,04,11,12,30,23,123,"PST"));	
+		
+		out.println("    Checking parsed calendars do not share state...");
+		Calendar c1 = (Calendar)root.getChild("date_time7").getValue();
+		Calendar c2 = (Calendar)SDL.value("1882/05/02 12:30:23.123-JST");
+		assertTrue(DATE_TIME_DECLARATIONS, "separate time zones",
+				c1.getTimeZone()!=c2.getTimeZone());
+		c2.getTimeZone().setRawOffset(0);
+		c2.set(Calendar.YEAR, 2000);
+		assertEquals(DATE_TIME_DECLARATIONS, SDL.value(
+				"1882/05/02 12:30:23.123-JST"), c1);
+		
+		out.println("    Following the default locale...");
+		Locale locale = Locale.getDefault();
+		try {
+			Locale[] locales = { Locale.US, Locale.GERMANY };
+			for(Locale l:locales) {
+				Locale.setDefault(l);
+				Calendar parsed = (Calendar)SDL.value(
+						"2005/12/31 10:00:00-UTC");
+				Calendar expected = new GregorianCalendar(
+						TimeZone.getTimeZone("UTC"));
+				expected.clear();
+				expected.set(2005, 11, 31, 10, 0, 0);
+				assertEquals(DATE_TIME_DECLARATIONS, parsed.getFirstDayOfWeek(),
+						expected.getFirstDayOfWeek());
+				assertEquals(DATE_TIME_DECLARATIONS,
+						parsed.getMinimalDaysInFirstWeek(),
+						expected.getMinimalDaysInFirstWeek());
+				assertEquals(DATE_TIME_DECLARATIONS, parsed.get(
+						Calendar.WEEK_OF_YEAR), expected.get(
+						Calendar.WEEK_OF_YEAR));
+			}
+		} finally {
+			Locale.setDefault(locale);
+		}
 	}
 	
 	private static void testBinaries(Tag root) throws Exception {
@@ -315,6 +1740,55 @@ public class Test {
 			));		
 	}
 	
+	private static void testBase64Decoder() throws Exception {
+		out.println("Doing base64 decoder tests...");
+		
+		out.println("    Decoding in pieces...");
+		Base64Decoder decoder = new Base64Decoder();
+		decoder.decode(" aGVs\n".toCharArray(), 0, 6);
+		decoder.decode("xxbG8gd29y\tbGQ=xx", 2, 15);
+		assertEquals(BINARY_DECLARATIONS, decoder.finish(),
+				"hello world".getBytes("UTF8"));
+		assertEquals(BINARY_DECLARATIONS, decoder.decode("aGk=", 0, 4)
+				.finish(), "hi".getBytes("UTF8"));
+		
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		decoder = new Base64Decoder(buffer);
+		assertEquals(BINARY_DECLARATIONS, decoder.decode("aGk=", 0, 4)
+				.finish(), null);
+		assertEquals(BINARY_DECLARATIONS, buffer.position(), 2);
+		
+		out.println("    Checking errors...");
+		try {
+			new Base64Decoder().decode("aGk", 0, 3).finish();
+			assertTrue(BINARY_DECLARATIONS, "length not a multiple of 4",
+					false);
+		} catch(IllegalArgumentException iae) {
+			// expected
+		}
+		try {
+			new Base64Decoder().decode("aG=k", 0, 4).finish();
+			assertTrue(BINARY_DECLARATIONS, "misplaced padding", false);
+		} catch(Base64.EncodingException ee) {
+			// expected
+		}
+		
+		out.println("    Reading multi-line binary literals...");
+		Tag tag = new Tag("root").read("a [aGVs\nbG8=] x=[\r\naGk=\r\n]");
+		assertEquals(BINARY_DECLARATIONS, tag.getChild("a").getValue(),
+				"hello".getBytes("UTF8"));
+		assertEquals(BINARY_DECLARATIONS, tag.getChild("a").getAttribute("x"),
+				"hi".getBytes("UTF8"));
+		try {
+			new Tag("root").read("a [aGVs\nbG8]");
+			assertTrue(BINARY_DECLARATIONS, "length not a multiple of 4",
+					false);
+		} catch(SDLParseException spe) {
+			assertContains(BINARY_DECLARATIONS, spe.getMessage(),
+					"multiple of 4");
+		}
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	// Structure Tests (values, attributes, children)
 	////////////////////////////////////////////////////////////////////////////
@@ -489,6 +1963,98 @@ public class Test {
 						"birthday", getDate(1976,04,18)));
 	}
 	
+	////////////////////////////////////////////////////////////////////////////
+	// Streaming Tests
+	////////////////////////////////////////////////////////////////////////////
+	
+	private static void testSDLReader(String fileName, Tag root)
+		throws Exception {
+		
+		out.println("Doing SDLReader tests for file " + fileName + "...");
+		
+		out.println("    Rebuilding the tag tree from reader events...");
+		SDLReader reader = new SDLReader(new InputStreamReader(
+				Test.class.getResourceAsStream(fileName), "UTF8"));
+		
+		List<Tag> stack = new ArrayList<Tag>();
+		stack.add(new Tag("root"));
+		
+		while(reader.hasNext()) {
+			SDLReader.Event event = reader.nextEvent();
+			Tag top = stack.get(stack.size()-1);
+			
+			if(event==SDLReader.Event.START_TAG) {
+				assertEquals(SDL_READER, reader.getDepth(), stack.size()-1);
+				Tag t = new Tag(reader.getNamespace(), reader.getName());
+				top.addChild(t);
+				stack.add(t);
+			} else if(event==SDLReader.Event.VALUE) {
+				top.addValue(reader.getValue());
+			} else if(event==SDLReader.Event.ATTRIBUTE) {
+				top.setAttribute(reader.getAttributeNamespace(),
+						reader.getAttributeKey(), reader.getValue());
+			} else {
+				assertEquals(SDL_READER, reader.getName(), top.getName());
+				stack.remove(stack.size()-1);
+			}
+		}
+		
+		assertEquals(SDL_READER, stack.size(), 1);
+		assertEquals(SDL_READER, stack.get(0), root);
+		
+		out.println("    Stopping early...");
+		reader = new SDLReader(new InputStreamReader(
+				Test.class.getResourceAsStream(fileName), "UTF8"));
+		assertEquals(SDL_READER, reader.nextEvent(), SDLReader.Event.START_TAG);
+		assertEquals(SDL_READER, reader.getName(),
+				root.getChildren().get(0).getName());
+		reader.close();
+		assertFalse(SDL_READER, "reader.hasNext()", reader.hasNext());
+		
+		out.println("    Checking unbalanced blocks...");
+		try {
+			reader = new SDLReader(new StringReader("a {\nb 1"));
+			while(reader.hasNext())
+				reader.nextEvent();
+			assertTrue(SDL_READER, "unclosed block reported", false);
+		} catch(SDLParseException spe) {
+			assertEquals(SDL_READER, spe.getLine(), 2);
+		}
+	}
+	
+	private static void testSDLHandler(String fileName, Tag root)
+		throws Exception {
+		
+		out.println("Doing SDLHandler tests for file " + fileName + "...");
+		
+		out.println("    Rebuilding the tag tree from handler callbacks...");
+		final List<Tag> stack = new ArrayList<Tag>();
+		stack.add(new Tag("root"));
+		
+		SDL.parse(new InputStreamReader(
+				Test.class.getResourceAsStream(fileName), "UTF8"),
+				new SDLHandler() {
+			public void startTag(String namespace, String name) {
+				Tag t = new Tag(namespace, name);
+				stack.get(stack.size()-1).addChild(t);
+				stack.add(t);
+			}
+			public void value(Object value) {
+				stack.get(stack.size()-1).addValue(value);
+			}
+			public void attribute(String namespace, String key,
+					Object value) {
+				stack.get(stack.size()-1).setAttribute(namespace, key, value);
+			}
+			public void endTag() {
+				stack.remove(stack.size()-1);
+			}
+		});
+		
+		assertEquals(SDL_HANDLER, stack.size(), 1);
+		assertEquals(SDL_HANDLER, stack.get(0), root);
+	}
+	
 	public static void main(String[] args) {
 		go();
 	}
@@ -501,6 +2067,71 @@ public class Test {
 			reportException(TAG, e);
 		}		
 		
+		try { testDeepNesting(); } catch(Throwable e) {
+			reportException(DEEP_NESTING, e);
+		}
+		
+		try { testFilteredRead(); } catch(Throwable e) {
+			reportException(FILTERED_READ, e);
+		}
+		
+		try { testPushParser(); } catch(Throwable e) {
+			reportException(PUSH_PARSER, e);
+		}
+		
+		try { testParserReuse(); } catch(Throwable e) {
+			reportException(PARSER_REUSE, e);
+		}
+		
+		try { testInMemoryRead(); } catch(Throwable e) {
+			reportException(IN_MEMORY_READ, e);
+		}
+		
+		try { testLiteralCache(); } catch(Throwable e) {
+			reportException(LITERAL_CACHE, e);
+		} finally {
+			SDL.setCacheSize(0);
+		}
+		
+		try { testLargeBinary(); } catch(Throwable e) {
+			reportException(LARGE_BINARY, e);
+		} finally {
+			SDL.setLargeBinaryThreshold(0);
+			SDL.setLargeBinaryDirectory(null);
+		}
+		
+		try { testCompactTags(); } catch(Throwable e) {
+			reportException(COMPACT_TAGS, e);
+		}
+		
+		try { testAttributeMap(); } catch(Throwable e) {
+			reportException(ATTRIBUTE_MAP, e);
+		}
+		
+		try { testChildIndex(); } catch(Throwable e) {
+			reportException(CHILD_INDEX, e);
+		}
+		
+		try { testTagEquality(); } catch(Throwable e) {
+			reportException(TAG_EQUALITY, e);
+		}
+		
+		try { testChildPositions(); } catch(Throwable e) {
+			reportException(CHILD_POSITIONS, e);
+		}
+		
+		try { testStreamingWrite(); } catch(Throwable e) {
+			reportException(STREAMING_WRITE, e);
+		}
+		
+		try { testSDLWriter(); } catch(Throwable e) {
+			reportException(SDL_WRITER, e);
+		}
+		
+		try { testDateFormatting(); } catch(Throwable e) {
+			reportException(DATE_FORMATTING, e);
+		}
+		
 		testBasicTypes();
 		testStructures();
 		
@@ -537,6 +2168,30 @@ public class Test {
 			reportException(TAG_WRITE_PARSE, e);
 		}
 		
+		try { testLineEndings("test_basic_types.sdl", root); } catch(Throwable e) {
+			reportException(LINE_ENDINGS, e);
+		}
+		
+		try { testLazyRead("test_basic_types.sdl", root); } catch(Throwable e) {
+			reportException(LAZY_READ, e);
+		}
+		
+		try { testFileRead("test_basic_types.sdl", root); } catch(Throwable e) {
+			reportException(FILE_READ, e);
+		}
+		
+		try { testParallelRead("test_basic_types.sdl", root); } catch(Throwable e) {
+			reportException(PARALLEL_READ, e);
+		}
+		
+		try { testFilteredRead("test_basic_types.sdl", root); } catch(Throwable e) {
+			reportException(FILTERED_READ, e);
+		}
+		
+		try { testPushParser("test_basic_types.sdl", root); } catch(Throwable e) {
+			reportException(PUSH_PARSER, e);
+		}
+		
 		try { testStrings(root); } catch(Throwable e) {
 			reportException(STRING_DECLARATIONS, e);
 		}
@@ -548,6 +2203,10 @@ public class Test {
 		try { testNumbers(root); } catch(Throwable e) {
 			reportException(NUMBER_DECLARATIONS, e);
 		}		
+		
+		try { testNumberLiterals(); } catch(Throwable e) {
+			reportException(NUMBER_DECLARATIONS, e);
+		}
 
 		try { testBooleans(root); } catch(Throwable e) {
 			reportException(BOOLEAN_DECLARATIONS, e);
@@ -572,6 +2231,18 @@ public class Test {
 		try { testBinaries(root); } catch(Throwable e) {
 			reportException(BINARY_DECLARATIONS, e);
 		}
+		
+		try { testBase64Decoder(); } catch(Throwable e) {
+			reportException(BINARY_DECLARATIONS, e);
+		}
+		
+		try { testSDLReader("test_basic_types.sdl", root); } catch(Throwable e) {
+			reportException(SDL_READER, e);
+		}
+		
+		try { testSDLHandler("test_basic_types.sdl", root); } catch(Throwable e) {
+			reportException(SDL_HANDLER, e);
+		}
 	}
 	
 	private static void testStructures() {
@@ -594,6 +2265,30 @@ public class Test {
 
 		try { testTagWriteParse("test_structures.sdl", root); } catch(Throwable e) {
 			reportException(TAG_WRITE_PARSE, e);
+		}
+		
+		try { testLineEndings("test_structures.sdl", root); } catch(Throwable e) {
+			reportException(LINE_ENDINGS, e);
+		}
+		
+		try { testLazyRead("test_structures.sdl", root); } catch(Throwable e) {
+			reportException(LAZY_READ, e);
+		}
+		
+		try { testFileRead("test_structures.sdl", root); } catch(Throwable e) {
+			reportException(FILE_READ, e);
+		}
+		
+		try { testParallelRead("test_structures.sdl", root); } catch(Throwable e) {
+			reportException(PARALLEL_READ, e);
+		}		
+		
+		try { testFilteredRead("test_structures.sdl", root); } catch(Throwable e) {
+			reportException(FILTERED_READ, e);
+		}		
+		
+		try { testPushParser("test_structures.sdl", root); } catch(Throwable e) {
+			reportException(PUSH_PARSER, e);
 		}		
 		
 		try { testEmptyTag(root); } catch(Throwable e) {
@@ -619,6 +2314,14 @@ public class Test {
 		try { testNamespaces(root); } catch(Throwable e) {
 			reportException(NAMESPACES, e);
 		}
+		
+		try { testSDLReader("test_structures.sdl", root); } catch(Throwable e) {
+			reportException(SDL_READER, e);
+		}
+		
+		try { testSDLHandler("test_structures.sdl", root); } catch(Throwable e) {
+			reportException(SDL_HANDLER, e);
+		}
 	}
 	
 	private static void assertEquals(String testName, Object o1, Object o2) {
@@ -688,6 +2391,18 @@ public class Test {
 	// Utility methods
 	////////////////////////////////////////////////////////////////////////////
 
+	private static String readResource(String fileName) throws IOException {
+		Reader reader = new InputStreamReader(
+				Test.class.getResourceAsStream(fileName), "UTF8");
+		StringBuilder sb = new StringBuilder();
+		char[] chars = new char[4096];
+		int read;
+		while((read=reader.read(chars))!=-1)
+			sb.append(chars, 0, read);
+		reader.close();
+		return sb.toString();
+	}
+	
 	private static Calendar getDate(int year, int month, int day) {	
 		GregorianCalendar gc = new GregorianCalendar(year, month-1, day);
 		